@@ -0,0 +1,194 @@
+package dr.nlp.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dr.nlp.data.Vocabulary;
+import dr.nlp.tools.EntityMatchHandler;
+import dr.nlp.tools.NGramCounter;
+import dr.nlp.tools.NGramHandler;
+import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.ScanningTokeniser;
+import dr.nlp.tools.SimpleAnalyser;
+import dr.nlp.tools.SimpleTokeniser;
+
+/**
+ * The text analysis stages, each run over the whole of the bundled data per
+ * operation, so scores are comparable across stages.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = { "-Dfile.encoding=UTF-8" } )
+public class AnalysisBenchmark
+{
+	private List<String> texts;
+	private List<String> sentences;
+	private List<String[]> tokens;
+	private List<List<String>> candidates;
+	private NamedEntities ner;
+	private int maxEntityTokens;
+	private List<int[]> tokenIds;
+
+	private SimpleAnalyser analyser;
+	private SimpleTokeniser tokeniser;
+	private ScanningTokeniser scanningTokeniser;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		Fixtures fixtures = Fixtures.getInstance();
+		texts = fixtures.getTexts();
+		sentences = fixtures.getSentences();
+		tokens = fixtures.getTokens();
+		candidates = fixtures.getCandidates();
+		ner = fixtures.getNamedEntities();
+		maxEntityTokens = ner.getMaxEntityTokens();
+
+		Vocabulary vocabulary = Vocabulary.getInstance();
+		tokenIds = new ArrayList<int[]>( tokens.size() );
+		for ( String[] sentenceTokens : tokens )
+		{
+			int[] ids = new int[sentenceTokens.length];
+			for ( int i = 0; i < ids.length; i++ )
+			{
+				ids[i] = vocabulary.getId( sentenceTokens[i].toLowerCase() );
+			}
+			tokenIds.add( ids );
+		}
+
+		analyser = new SimpleAnalyser();
+		tokeniser = new SimpleTokeniser();
+		scanningTokeniser = new ScanningTokeniser();
+	}
+
+	@Benchmark
+	public void detectSentences( Blackhole bh )
+	{
+		for ( String text : texts )
+		{
+			bh.consume( analyser.detectSentences( text ) );
+		}
+	}
+
+	@Benchmark
+	public void tokenise( Blackhole bh )
+	{
+		for ( String sentence : sentences )
+		{
+			bh.consume( tokeniser.tokenise( sentence ) );
+		}
+	}
+
+	@Benchmark
+	public void tokeniseScanning( Blackhole bh )
+	{
+		for ( String sentence : sentences )
+		{
+			bh.consume( scanningTokeniser.tokenise( sentence ) );
+		}
+	}
+
+	/**
+	 * Matches the first entity candidate of each sentence against its tokens, as the
+	 * analysis does when tagging words.
+	 */
+	@Benchmark
+	public void match( Blackhole bh )
+	{
+		for ( int i = 0; i < tokens.size(); i++ )
+		{
+			String entity = candidates.get( i ).isEmpty() ? "" : candidates.get( i ).get( candidates.get( i ).size() - 1 );
+			for ( String token : tokens.get( i ) )
+			{
+				bh.consume( tokeniser.match( entity, token ) );
+			}
+		}
+	}
+
+	@Benchmark
+	public void matchScanning( Blackhole bh )
+	{
+		for ( int i = 0; i < tokens.size(); i++ )
+		{
+			String entity = candidates.get( i ).isEmpty() ? "" : candidates.get( i ).get( candidates.get( i ).size() - 1 );
+			for ( String token : tokens.get( i ) )
+			{
+				bh.consume( scanningTokeniser.match( entity, token ) );
+			}
+		}
+	}
+
+	@Benchmark
+	public void getAllNGrams( Blackhole bh )
+	{
+		for ( String[] sentenceTokens : tokens )
+		{
+			bh.consume( NGramHandler.getAllNGrams( sentenceTokens, maxEntityTokens ) );
+		}
+	}
+
+	@Benchmark
+	public NGramCounter countNGrams() throws IOException
+	{
+		// Large enough that nothing is spilled
+		NGramCounter counter = new NGramCounter( 5, 1 << 20, null );
+
+		for ( int[] ids : tokenIds )
+		{
+			counter.add( ids, ids.length );
+		}
+
+		return counter;
+	}
+
+	@Benchmark
+	public void getNamedEntities( Blackhole bh )
+	{
+		for ( List<String> sentenceCandidates : candidates )
+		{
+			bh.consume( ner.getNamedEntities( sentenceCandidates ) );
+		}
+	}
+
+	@Benchmark
+	public void findEntities( Blackhole bh )
+	{
+		for ( String[] sentenceTokens : tokens )
+		{
+			ner.findEntities( sentenceTokens, new BlackholeHandler( bh ) );
+		}
+	}
+
+	private static class BlackholeHandler implements EntityMatchHandler
+	{
+		private Blackhole bh;
+
+		public BlackholeHandler( Blackhole bh )
+		{
+			this.bh = bh;
+		}
+
+		@Override
+		public void entityFound( int start, int end, int entity )
+		{
+			bh.consume( entity );
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package dr.nlp.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which adds the bytes allocated per
+ * operation (gc.alloc.rate.norm) to each throughput score. An optional argument
+ * selects benchmarks by regular expression, e.g. "AnalysisBenchmark.tokenise".
+ *
+ * The pom.xml at the root of the project compiles src and bench with the JMH
+ * annotation processor into target/benchmarks.jar, whose main class is this one.
+ * Run it from the root of the project so the bundled nlp_data.zip and NER.txt are
+ * found, e.g.
+ *
+ *   mvn package
+ *   java -jar target/benchmarks.jar AnalysisBenchmark
+ */
+public class BenchmarkRunner
+{
+	public static void main( String[] args ) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include( ( args.length > 0 ) ? args[0] : "dr\\.nlp\\.bench\\..*" )
+				.addProfiler( GCProfiler.class )
+				.build();
+
+		new Runner( options ).run();
+	}
+}
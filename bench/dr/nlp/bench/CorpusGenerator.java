@@ -0,0 +1,334 @@
+package dr.nlp.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a synthetic corpus of any size, as a directory of text files which
+ * MappedDocumentReader reads. The text follows the bundled data:
+ *
+ *   - words are drawn from the word frequencies of nlp_data.zip, and a small share are
+ *     made up rare words drawn from a long tail, so the vocabulary keeps growing with
+ *     the corpus as it would with real text
+ *   - sentence lengths and end punctuation are drawn from the sentences of nlp_data.zip
+ *   - entities from NER.txt are inserted at a given rate per sentence
+ *   - document lengths follow a log-normal distribution around a median, so most
+ *     documents are short and a few are very long
+ *
+ * The files are spread over subdirectories of a thousand. The same seed always gives
+ * the same corpus. Run from the root of the project after mvn package, e.g.
+ *
+ *   java -cp target/benchmarks.jar dr.nlp.bench.CorpusGenerator corpus 1GB 0.3 4 1
+ */
+public class CorpusGenerator
+{
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+	private static final int FILES_PER_DIRECTORY = 1000;
+
+	// Share of words which are made up rare words, and the range they're drawn from
+	private static final double RARE_WORDS = 0.02;
+	private static final int RARE_WORD_RANGE = 10000000;
+
+	// Spread of the log-normal document length, and the longest document in sentences
+	private static final double LENGTH_SIGMA = 1.2;
+	private static final int MAX_SENTENCES = 100000;
+
+	private Random random;
+	private double entityRate;
+	private int medianSentences;
+
+	private String[] words;
+	private long[] cumulativeCounts;
+	private int[] sentenceLengths;
+	private String[] endings;
+	private String[] entities;
+	private double bytesPerSentence;
+
+	public CorpusGenerator( double entityRate, int medianDocumentBytes, long seed ) throws IOException
+	{
+		this.random = new Random( seed );
+		this.entityRate = entityRate;
+
+		loadStatistics( Fixtures.getInstance().getSentences() );
+		entities = loadEntities( new File( Fixtures.ENTITY_PATH ) );
+
+		// The median document length in sentences
+		medianSentences = Math.max( 1, (int) Math.round( medianDocumentBytes / bytesPerSentence ) );
+	}
+
+	/**
+	 * Writes documents to the directory until they add up to at least the given size,
+	 * and returns the number of documents.
+	 */
+	public int generate( File directory, long bytes ) throws IOException
+	{
+		long written = 0;
+		int documents = 0;
+		long reportAt = bytes / 10;
+
+		while ( written < bytes )
+		{
+			File subdirectory = new File( directory, String.format( "p%05d", documents / FILES_PER_DIRECTORY ) );
+			if ( documents % FILES_PER_DIRECTORY == 0 && !subdirectory.isDirectory() && !subdirectory.mkdirs() )
+			{
+				throw new IOException( "Unable to create " + subdirectory );
+			}
+
+			String text = generateDocument();
+			File file = new File( subdirectory, String.format( "d%08d.txt", documents++ ) );
+			Writer out = new OutputStreamWriter( new FileOutputStream( file ), UTF8 );
+			try
+			{
+				out.write( text );
+			}
+			finally
+			{
+				out.close();
+			}
+
+			written += file.length();
+			if ( written >= reportAt && reportAt > 0 )
+			{
+				System.err.printf( "  %d%% %d documents%n", Math.min( 100, written * 100 / bytes ), documents );
+				reportAt += bytes / 10;
+			}
+		}
+
+		return documents;
+	}
+
+	public String generateDocument()
+	{
+		double length = medianSentences * Math.exp( LENGTH_SIGMA * random.nextGaussian() );
+		int numSentences = (int) Math.max( 1, Math.min( MAX_SENTENCES, Math.round( length ) ) );
+
+		StringBuilder sb = new StringBuilder( numSentences * 128 );
+		for ( int s = 0; s < numSentences; s++ )
+		{
+			appendSentence( sb );
+			sb.append( ( s % 8 == 7 ) ? "\n\n" : " " );
+		}
+		sb.append( '\n' );
+
+		return sb.toString();
+	}
+
+	private void appendSentence( StringBuilder sb )
+	{
+		int length = sentenceLengths[random.nextInt( sentenceLengths.length )];
+		int entityAt = ( random.nextDouble() < entityRate ) ? random.nextInt( length ) : -1;
+		int start = sb.length();
+
+		for ( int i = 0; i < length; i++ )
+		{
+			if ( i > 0 )
+			{
+				sb.append( ' ' );
+			}
+			if ( i == entityAt )
+			{
+				sb.append( entities[random.nextInt( entities.length )] );
+			}
+			else
+			{
+				sb.append( nextWord() );
+			}
+		}
+
+		sb.setCharAt( start, Character.toUpperCase( sb.charAt( start ) ) );
+		sb.append( endings[random.nextInt( endings.length )] );
+	}
+
+	private String nextWord()
+	{
+		if ( random.nextDouble() < RARE_WORDS )
+		{
+			// Zipf-like over a large range, so some rare words recur and most don't
+			int rank = (int) Math.min( RARE_WORD_RANGE - 1, Math.floor( Math.pow( RARE_WORD_RANGE, random.nextDouble() ) ) );
+			return rareWord( rank );
+		}
+
+		long r = (long) ( random.nextDouble() * cumulativeCounts[cumulativeCounts.length - 1] );
+		int index = Arrays.binarySearch( cumulativeCounts, r + 1 );
+		return words[( index >= 0 ) ? index : -index - 1];
+	}
+
+	/**
+	 * Spells the rank with consonant-vowel syllables, so rare words look like words.
+	 */
+	private static String rareWord( int rank )
+	{
+		final String consonants = "bcdfghklmnprstvz";
+		final String vowels = "aeiou";
+		StringBuilder sb = new StringBuilder();
+
+		do
+		{
+			sb.append( consonants.charAt( rank % consonants.length() ) );
+			rank /= consonants.length();
+			sb.append( vowels.charAt( rank % vowels.length() ) );
+			rank /= vowels.length();
+		}
+		while ( rank > 0 );
+
+		return sb.toString();
+	}
+
+	private void loadStatistics( List<String> sentences )
+	{
+		Map<String, Long> counts = new HashMap<String, Long>();
+		List<Integer> lengths = new ArrayList<Integer>();
+		List<String> ends = new ArrayList<String>();
+		long chars = 0;
+
+		for ( String sentence : sentences )
+		{
+			chars += sentence.trim().length() + 1;
+			String[] tokens = sentence.trim().split( "\\s+" );
+			if ( tokens.length == 0 || tokens[0].isEmpty() )
+			{
+				continue;
+			}
+
+			// The end punctuation is kept apart, and the first word lower cased unless
+			// it is an acronym or a name
+			String last = tokens[tokens.length - 1];
+			int end = last.length();
+			while ( end > 0 && ".!?".indexOf( last.charAt( end - 1 ) ) >= 0 )
+			{
+				end--;
+			}
+			ends.add( ( end < last.length() ) ? last.substring( end ) : "." );
+			tokens[tokens.length - 1] = last.substring( 0, end );
+			if ( tokens[0].length() > 1 && Character.isLowerCase( tokens[0].charAt( 1 ) ) && !isName( tokens[0], counts ) )
+			{
+				tokens[0] = tokens[0].toLowerCase();
+			}
+
+			int length = 0;
+			for ( String token : tokens )
+			{
+				if ( !token.isEmpty() )
+				{
+					Long count = counts.get( token );
+					counts.put( token, ( count != null ) ? count + 1 : 1L );
+					length++;
+				}
+			}
+			if ( length > 0 )
+			{
+				lengths.add( length );
+			}
+		}
+
+		words = counts.keySet().toArray( new String[counts.size()] );
+		Arrays.sort( words );
+		cumulativeCounts = new long[words.length];
+		long total = 0;
+		for ( int i = 0; i < words.length; i++ )
+		{
+			total += counts.get( words[i] );
+			cumulativeCounts[i] = total;
+		}
+
+		sentenceLengths = new int[lengths.size()];
+		for ( int i = 0; i < sentenceLengths.length; i++ )
+		{
+			sentenceLengths[i] = lengths.get( i );
+		}
+		endings = ends.toArray( new String[ends.size()] );
+		bytesPerSentence = (double) chars / sentences.size();
+	}
+
+	private static boolean isName( String word, Map<String, Long> counts )
+	{
+		return !counts.containsKey( word.toLowerCase() ) && counts.containsKey( word );
+	}
+
+	private static String[] loadEntities( File file ) throws IOException
+	{
+		List<String> entities = new ArrayList<String>();
+		BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( file ), UTF8 ) );
+
+		try
+		{
+			for ( String line; ( line = in.readLine() ) != null; )
+			{
+				line = line.trim();
+				if ( !line.isEmpty() )
+				{
+					entities.add( line );
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return entities.toArray( new String[entities.size()] );
+	}
+
+	/**
+	 * Parses a size such as 512KB, 100MB or 4GB.
+	 */
+	public static long parseSize( String size )
+	{
+		String s = size.trim().toUpperCase();
+		long unit = 1;
+
+		if ( s.endsWith( "KB" ) )
+		{
+			unit = 1L << 10;
+		}
+		else if ( s.endsWith( "MB" ) )
+		{
+			unit = 1L << 20;
+		}
+		else if ( s.endsWith( "GB" ) )
+		{
+			unit = 1L << 30;
+		}
+		if ( unit > 1 )
+		{
+			s = s.substring( 0, s.length() - 2 );
+		}
+
+		return (long) ( Double.parseDouble( s ) * unit );
+	}
+
+	public static void main( String[] args ) throws IOException
+	{
+		if ( args.length < 2 )
+		{
+			System.err.println( "Usage: CorpusGenerator <directory> <size, e.g. 100MB or 4GB> [entities per sentence] [median document KB] [seed]" );
+			System.exit( 1 );
+		}
+
+		File directory = new File( args[0] );
+		long size = parseSize( args[1] );
+		double entityRate = ( args.length > 2 ) ? Double.parseDouble( args[2] ) : 0.3;
+		int medianBytes = ( args.length > 3 ) ? Integer.parseInt( args[3] ) * 1024 : 4 * 1024;
+		long seed = ( args.length > 4 ) ? Long.parseLong( args[4] ) : 1;
+
+		long start = System.currentTimeMillis();
+		CorpusGenerator generator = new CorpusGenerator( entityRate, medianBytes, seed );
+		int documents = generator.generate( directory, size );
+
+		System.out.println( "Generated " + documents + " documents of " + size / ( 1 << 20 ) + " MB in " + directory
+				+ " in " + ( System.currentTimeMillis() - start ) + " ms" );
+	}
+}
@@ -0,0 +1,163 @@
+package dr.nlp.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.SentenceStore;
+import dr.nlp.data.Word;
+import dr.nlp.io.CorpusReader;
+import dr.nlp.io.CorpusWriter;
+import dr.nlp.io.StaxDocumentWriter;
+
+/**
+ * Building a document from analysed sentences, on the heap or in a SentenceStore,
+ * writing it out as XML or to a binary corpus, and reading it back from the corpus. The
+ * files are written to a temporary directory, and the console copy made by toXml() is
+ * discarded.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = { "-Dfile.encoding=UTF-8" } )
+public class DocumentBenchmark
+{
+	private List<List<Word>> words;
+	private Document document;
+	private StaxDocumentWriter staxWriter;
+	private File directory;
+	private File corpus;
+	private SentenceStore store;
+	private PrintStream console;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		words = Fixtures.getInstance().getWords();
+		directory = Files.createTempDirectory( "nlp-bench" ).toFile();
+
+		document = new Document( new File( directory, "bench" ).getPath() );
+		for ( List<Word> sentence : words )
+		{
+			document.addSentence( sentence );
+		}
+		staxWriter = new StaxDocumentWriter( false );
+		store = new SentenceStore();
+
+		corpus = new File( directory, "bench.corpus" );
+		writeCorpus();
+
+		console = System.out;
+		System.setOut( new PrintStream( new OutputStream()
+		{
+			@Override
+			public void write( int b )
+			{
+			}
+
+			@Override
+			public void write( byte[] b, int off, int len )
+			{
+			}
+		} ) );
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		System.setOut( console );
+		new File( directory, "bench.xml" ).delete();
+		corpus.delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public Document addSentence()
+	{
+		Document doc = new Document( "bench" );
+
+		for ( List<Word> sentence : words )
+		{
+			doc.addSentence( sentence );
+		}
+
+		return doc;
+	}
+
+	@Benchmark
+	public Document addSentenceStored()
+	{
+		Document doc = new Document( "bench", store );
+
+		for ( List<Word> sentence : words )
+		{
+			doc.addSentence( sentence );
+		}
+
+		// The pages are reused by the next invocation
+		doc.release();
+		return doc;
+	}
+
+	@Benchmark
+	public void toXml() throws JAXBException
+	{
+		document.toXml();
+	}
+
+	@Benchmark
+	public void writeStax() throws IOException
+	{
+		staxWriter.write( document );
+	}
+
+	@Benchmark
+	public void writeCorpus() throws IOException
+	{
+		// A new corpus each time, so the vocabulary is written along with the document
+		CorpusWriter writer = new CorpusWriter( corpus );
+		try
+		{
+			writer.write( document );
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	@Benchmark
+	public Document readCorpus() throws IOException
+	{
+		CorpusReader reader = new CorpusReader( corpus );
+		try
+		{
+			return reader.next();
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+}
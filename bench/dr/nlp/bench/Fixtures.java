@@ -0,0 +1,126 @@
+package dr.nlp.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.Word;
+import dr.nlp.io.SourceDocument;
+import dr.nlp.io.ZipDocumentReader;
+import dr.nlp.tools.AnalysisExecution;
+import dr.nlp.tools.NGramHandler;
+import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.SimpleAnalyser;
+import dr.nlp.tools.SimpleTokeniser;
+
+/**
+ * The bundled data as benchmark input, loaded once per JVM: the documents of
+ * nlp_data.zip, their sentences and tokens, and the entities of NER.txt. The paths
+ * are relative, so benchmarks are run from the root of the project.
+ */
+public class Fixtures
+{
+	public static final String ZIP_PATH    = "nlp_data.zip";
+	public static final String ENTITY_PATH = "NER.txt";
+
+	private static Fixtures instance = null;
+
+	private List<String> texts;
+	private List<String> sentences;
+	private List<String[]> tokens;
+	private List<List<String>> candidates;
+	private List<List<Word>> words;
+	private NamedEntities ner;
+
+	private Fixtures() throws IOException
+	{
+		ner = NamedEntities.getInstance( ENTITY_PATH );
+		if ( ner.getNumEntities() == 0 )
+		{
+			throw new IOException( "No entities loaded from " + ENTITY_PATH + ", check the working directory and -Dfile.encoding=UTF-8" );
+		}
+
+		texts = new ArrayList<String>();
+		ZipDocumentReader reader = new ZipDocumentReader( ZIP_PATH );
+		try
+		{
+			for ( SourceDocument source; ( source = reader.next() ) != null; )
+			{
+				texts.add( source.getText().toString() );
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		SimpleAnalyser analyser = new SimpleAnalyser();
+		SimpleTokeniser tokeniser = new SimpleTokeniser();
+		sentences = new ArrayList<String>();
+		tokens = new ArrayList<String[]>();
+		candidates = new ArrayList<List<String>>();
+
+		for ( String text : texts )
+		{
+			for ( String sentence : analyser.detectSentences( text ) )
+			{
+				String[] sentenceTokens = tokeniser.tokenise( sentence );
+				sentences.add( sentence );
+				tokens.add( sentenceTokens );
+				candidates.add( NGramHandler.getAllNGrams( sentenceTokens, ner.getMaxEntityTokens() ) );
+			}
+		}
+
+		words = new ArrayList<List<Word>>();
+		for ( String text : texts )
+		{
+			words.addAll( new AnalysisExecution( text, new Document( "fixture" ), analyser, tokeniser, ner ).analyse() );
+		}
+	}
+
+	public static synchronized Fixtures getInstance() throws IOException
+	{
+		if ( instance == null )
+		{
+			instance = new Fixtures();
+		}
+
+		return instance;
+	}
+
+	/** The text of each document in the zip. */
+	public List<String> getTexts()
+	{
+		return texts;
+	}
+
+	/** Every sentence of every document, as found by SimpleAnalyser. */
+	public List<String> getSentences()
+	{
+		return sentences;
+	}
+
+	/** The tokens of each sentence, as found by SimpleTokeniser. */
+	public List<String[]> getTokens()
+	{
+		return tokens;
+	}
+
+	/** The n-grams of each sentence up to the longest entity, as checked against NER.txt. */
+	public List<List<String>> getCandidates()
+	{
+		return candidates;
+	}
+
+	/** The analysed words of each sentence, ready to add to a document. */
+	public List<List<Word>> getWords()
+	{
+		return words;
+	}
+
+	public NamedEntities getNamedEntities()
+	{
+		return ner;
+	}
+}
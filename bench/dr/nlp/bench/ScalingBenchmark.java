@@ -0,0 +1,322 @@
+package dr.nlp.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dr.nlp.data.SentenceStore;
+import dr.nlp.io.MappedDocumentReader;
+import dr.nlp.io.StaxDocumentWriter;
+import dr.nlp.pipeline.AnalysisPipeline;
+import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.ScanningAnalyser;
+import dr.nlp.tools.ScanningTokeniser;
+
+/**
+ * Runs the analysis pipeline over a corpus from CorpusGenerator at 1, 2, 4, ... up to N
+ * threads, and reports documents/s, MB/s, the speedup over one thread, the peak RSS and
+ * the time spent in GC for each. The corpus is generated first if the directory doesn't
+ * exist. As with Exercise, sentences are kept in a SentenceStore and the XML of each
+ * document is written next to its text, but not echoed.
+ *
+ * The optional stages of Exercise are left out, so the runs measure the analysis and
+ * the writer alone: there is no ResultCache, which would serve every run after the
+ * first from disk, and no CorpusSketches or NGramCounter.
+ *
+ * Each thread count runs in a JVM of its own, started with the same classpath and JVM
+ * options as this one, so the peak RSS and GC time belong to that run alone. The peak
+ * RSS is VmHWM from /proc, so it is only reported on Linux.
+ *
+ * With a baseline file the results are compared with it, and the run fails if the
+ * documents/s of any thread count dropped by more than 10%. If the file doesn't exist
+ * the results are saved to it as the new baseline.
+ *
+ * Run from the root of the project after mvn package, e.g.
+ *
+ *   java -Xmx512m -Dfile.encoding=UTF-8 -cp target/benchmarks.jar dr.nlp.bench.ScalingBenchmark corpus 1GB 8 baseline.csv
+ */
+public class ScalingBenchmark
+{
+	private static final String RESULT = "RESULT";
+	private static final double REGRESSION = 0.10;
+
+	public static void main( String[] args ) throws Exception
+	{
+		if ( args.length > 0 && args[0].equals( "--run" ) )
+		{
+			run( new File( args[1] ), Integer.parseInt( args[2] ) );
+			return;
+		}
+
+		if ( args.length < 1 )
+		{
+			System.err.println( "Usage: ScalingBenchmark <corpus directory> [size if generated, default 100MB] [max threads] [baseline.csv]" );
+			System.exit( 1 );
+		}
+
+		File corpus = new File( args[0] );
+		String sizeArg = ( args.length > 1 ) ? args[1] : "100MB";
+		long size = CorpusGenerator.parseSize( sizeArg );
+		int maxThreads = ( args.length > 2 ) ? Integer.parseInt( args[2] ) : Runtime.getRuntime().availableProcessors();
+		File baseline = ( args.length > 3 ) ? new File( args[3] ) : null;
+
+		if ( !corpus.exists() )
+		{
+			System.err.println( "Generating " + sizeArg + " corpus in " + corpus );
+			new CorpusGenerator( 0.3, 4 * 1024, 1 ).generate( corpus, size );
+		}
+
+		List<Integer> threadCounts = new ArrayList<Integer>();
+		for ( int threads = 1; threads < maxThreads; threads *= 2 )
+		{
+			threadCounts.add( threads );
+		}
+		threadCounts.add( maxThreads );
+
+		List<long[]> results = new ArrayList<long[]>();
+		for ( int threads : threadCounts )
+		{
+			results.add( fork( corpus, threads ) );
+		}
+
+		print( results );
+		if ( baseline != null && !compare( results, baseline ) )
+		{
+			System.exit( 2 );
+		}
+	}
+
+	/**
+	 * Analyses the corpus with the given number of threads and prints a result line of
+	 * threads, documents, bytes, nanoseconds, peak RSS in kB and GC milliseconds.
+	 */
+	private static void run( File corpus, int threads ) throws IOException, InterruptedException
+	{
+		NamedEntities entities = NamedEntities.getInstance( Fixtures.ENTITY_PATH );
+		MappedDocumentReader reader = new MappedDocumentReader( corpus );
+
+		AnalysisPipeline pipeline = new AnalysisPipeline( new ScanningAnalyser(), new ScanningTokeniser(), entities, threads );
+		SentenceStore store = new SentenceStore();
+		pipeline.setSentenceStore( store );
+
+		long bytes = 0;
+		for ( String path : listFiles( corpus ) )
+		{
+			bytes += new File( path ).length();
+		}
+
+		long gcStart = getGcMillis();
+		long start = System.nanoTime();
+		int documents;
+		try
+		{
+			documents = pipeline.run( reader, new StaxDocumentWriter( false ) );
+		}
+		finally
+		{
+			store.close();
+		}
+		long nanos = System.nanoTime() - start;
+
+		System.out.println( RESULT + " " + threads + " " + documents + " " + bytes + " " + nanos + " " + getPeakRssKb() + " " + ( getGcMillis() - gcStart ) );
+	}
+
+	private static long[] fork( File corpus, int threads ) throws IOException, InterruptedException
+	{
+		List<String> command = new ArrayList<String>();
+		command.add( new File( new File( System.getProperty( "java.home" ), "bin" ), "java" ).getPath() );
+		command.addAll( ManagementFactory.getRuntimeMXBean().getInputArguments() );
+		command.add( "-cp" );
+		command.add( System.getProperty( "java.class.path" ) );
+		command.add( ScalingBenchmark.class.getName() );
+		command.add( "--run" );
+		command.add( corpus.getPath() );
+		command.add( Integer.toString( threads ) );
+
+		System.err.println( "Running with " + threads + " thread" + ( ( threads > 1 ) ? "s" : "" ) );
+		Process process = new ProcessBuilder( command ).redirectError( ProcessBuilder.Redirect.INHERIT ).start();
+
+		long[] result = null;
+		BufferedReader in = new BufferedReader( new InputStreamReader( process.getInputStream(), "UTF-8" ) );
+		try
+		{
+			for ( String line; ( line = in.readLine() ) != null; )
+			{
+				if ( line.startsWith( RESULT + " " ) )
+				{
+					String[] fields = line.split( " " );
+					result = new long[fields.length - 1];
+					for ( int i = 1; i < fields.length; i++ )
+					{
+						result[i - 1] = Long.parseLong( fields[i] );
+					}
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		if ( process.waitFor() != 0 || result == null )
+		{
+			throw new IOException( "The run with " + threads + " threads failed" );
+		}
+
+		return result;
+	}
+
+	private static void print( List<long[]> results )
+	{
+		double baseRate = 0;
+
+		System.out.printf( "%8s %10s %12s %10s %9s %10s %10s %8s%n", "threads", "documents", "documents/s", "MB/s", "speedup", "peak RSS", "GC", "GC %" );
+		for ( long[] result : results )
+		{
+			double seconds = result[3] / 1e9;
+			double rate = result[1] / seconds;
+			if ( baseRate == 0 )
+			{
+				baseRate = rate;
+			}
+
+			System.out.printf( "%8d %10d %12.1f %10.2f %8.2fx %8s MB %8d ms %7.1f%%%n", result[0], result[1], rate,
+					result[2] / seconds / ( 1 << 20 ), rate / baseRate, ( result[4] < 0 ) ? "-" : Long.toString( result[4] / 1024 ),
+					result[5], 100.0 * result[5] / ( seconds * 1000 ) );
+		}
+	}
+
+	/**
+	 * Compares documents/s with the baseline, or saves the results as the baseline if
+	 * there is none. Returns false if there was a regression.
+	 */
+	private static boolean compare( List<long[]> results, File baseline ) throws IOException
+	{
+		if ( !baseline.exists() )
+		{
+			PrintWriter out = new PrintWriter( baseline, "UTF-8" );
+			try
+			{
+				out.println( "threads,documents,bytes,nanos,peakRssKb,gcMillis" );
+				for ( long[] result : results )
+				{
+					StringBuilder sb = new StringBuilder();
+					for ( int i = 0; i < result.length; i++ )
+					{
+						sb.append( ( i > 0 ) ? "," : "" ).append( result[i] );
+					}
+					out.println( sb );
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+
+			System.out.println( "Saved the baseline to " + baseline );
+			return true;
+		}
+
+		Map<Long, Double> baseRates = new HashMap<Long, Double>();
+		BufferedReader in = new BufferedReader( new FileReader( baseline ) );
+		try
+		{
+			in.readLine();
+			for ( String line; ( line = in.readLine() ) != null; )
+			{
+				String[] fields = line.split( "," );
+				baseRates.put( Long.parseLong( fields[0] ), Long.parseLong( fields[1] ) / ( Long.parseLong( fields[3] ) / 1e9 ) );
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		boolean passed = true;
+		for ( long[] result : results )
+		{
+			Double baseRate = baseRates.get( result[0] );
+			if ( baseRate == null )
+			{
+				continue;
+			}
+
+			double change = result[1] / ( result[3] / 1e9 ) / baseRate - 1;
+			boolean regressed = change < -REGRESSION;
+			System.out.printf( "%8d threads %+7.1f%% documents/s against the baseline%s%n", result[0], 100 * change, regressed ? "  REGRESSION" : "" );
+			passed &= !regressed;
+		}
+
+		return passed;
+	}
+
+	private static long getGcMillis()
+	{
+		long millis = 0;
+
+		for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+		{
+			millis += Math.max( gc.getCollectionTime(), 0 );
+		}
+
+		return millis;
+	}
+
+	/**
+	 * The peak resident set size in kB, or -1 where /proc isn't available.
+	 */
+	private static long getPeakRssKb()
+	{
+		try
+		{
+			for ( String line : Files.readAllLines( Paths.get( "/proc/self/status" ) ) )
+			{
+				if ( line.startsWith( "VmHWM:" ) )
+				{
+					return Long.parseLong( line.replaceAll( "[^0-9]", "" ) );
+				}
+			}
+		}
+		catch( IOException e )
+		{
+			// Not Linux
+		}
+
+		return -1;
+	}
+
+	private static List<String> listFiles( File directory )
+	{
+		List<String> files = new ArrayList<String>();
+		File[] children = directory.listFiles();
+
+		if ( children != null )
+		{
+			for ( File child : children )
+			{
+				if ( child.isDirectory() )
+				{
+					files.addAll( listFiles( child ) );
+				}
+				else if ( child.getName().endsWith( ".txt" ) && !child.getName().startsWith( "_" ) )
+				{
+					files.add( child.getPath() );
+				}
+			}
+		}
+
+		return files;
+	}
+}
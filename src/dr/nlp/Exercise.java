@@ -1,26 +1,26 @@
 package dr.nlp;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-
-import javax.xml.bind.JAXBException;
-
-import dr.nlp.data.Document;
-import dr.nlp.tools.AnalyserThread;
-import dr.nlp.tools.AnalysisExecution;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+
+import dr.nlp.data.SentenceStore;
+import dr.nlp.io.DocumentReader;
+import dr.nlp.io.MappedDocumentReader;
+import dr.nlp.io.ParallelZipDocumentReader;
+import dr.nlp.io.ResultCache;
+import dr.nlp.io.StaxDocumentWriter;
+import dr.nlp.metrics.Metrics;
+import dr.nlp.metrics.MetricsReporter;
+import dr.nlp.pipeline.AnalysisPipeline;
+import dr.nlp.sketch.CorpusSketches;
 import dr.nlp.tools.NamedEntities;
-import dr.nlp.tools.SimpleAnalyser;
-import dr.nlp.tools.SimpleTokeniser;
+import dr.nlp.tools.ScanningAnalyser;
+import dr.nlp.tools.ScanningTokeniser;
 
 /** SUMMARY
  * As much as I would have liked to use a ML model to perform the boundary detection
@@ -81,8 +81,14 @@ import dr.nlp.tools.SimpleTokeniser;
  * However, without serialisation using e.g. condition variable, the order in which 
  * sentences are added to the documents is not guaranteed to be correct.
  * 
- * For simplicity, this implementation makes threads responsible for a whole document,
- * and all the document is read in at once (which is not ideal for very large documents).
+ * Documents are still read in at once, but documents larger than the chunk size are
+ * split at safe sentence boundaries and the chunks are analysed by different threads.
+ * Each chunk commits its sentences to the document in sequence (see
+ * ChunkedAnalysisExecution), so the sentence order is preserved without threads having
+ * to wait for each other. Smaller documents are handled by a single thread.
+ * 
+ * Reading, analysis and writing run as separate stages of an AnalysisPipeline, with
+ * bounded queues between them, so reading and writing overlap with the analysis.
  * 
  * I tested having the thread spawned within the scanner read process instead of reading
  * the whole document before passing the text to a document, and it works quite well, 
@@ -114,77 +120,102 @@ public class Exercise
 	private static String nlpDataFilePath = "nlp_data.txt";
 	private static String entityFilename  = "NER.txt";
 	private static String zipPath         = "nlp_data.zip";
+	private static int chunkSize          = 64 * 1024;
+	private static boolean echoXml        = true;
+	private static int metricsPeriod      = 10;	// Seconds between reports, 0 for none
+	private static String cachePath       = "nlp_cache";
+	private static long cacheSize         = 256L * 1024 * 1024;
+	private static int topWords           = 0;	// Most frequent words and entities to report, 0 for none
 	
-	private void runExercise()
+	/**
+	 * Analyses the documents at the given path, which may be a zip file, a directory of
+	 * text files or a single text file. The entities are an entity list or a gazetteer
+	 * compiled by GazetteerCompiler.
+	 */
+	private void runExercise( String path, String entityPath )
 	{
-		ExecutorService executor = Executors.newFixedThreadPool( 8 );
+		ScanningAnalyser analyser = new ScanningAnalyser();
+		ScanningTokeniser tokeniser = new ScanningTokeniser();	
+		NamedEntities entities = NamedEntities.getInstance( entityPath );
 
-		SimpleAnalyser analyser = new SimpleAnalyser();
-		SimpleTokeniser tokeniser = new SimpleTokeniser();	
-		NamedEntities entities = NamedEntities.getInstance( entityFilename );
+		AnalysisPipeline pipeline = new AnalysisPipeline( analyser, tokeniser, entities );
+		pipeline.setChunkSize( chunkSize );
 
-		List<Document> docs = new ArrayList<Document>();
+		// Sentences waiting to be written are held in direct pages rather than on the heap
+		SentenceStore store = new SentenceStore();
+		pipeline.setSentenceStore( store );
 
+		// Documents analysed by an earlier run are taken from the cache
 		try
 		{
-			File zip = new File( zipPath );
-			ZipInputStream zin = new ZipInputStream( new FileInputStream( zip ) );
-
-			for ( ZipEntry zipEntry; ( zipEntry = zin.getNextEntry() ) != null; )
-			{
-				String entryName = zipEntry.getName();
-
-				if ( !entryName.endsWith( ".txt" ) || entryName.startsWith( "_" ) )
-				{
-					continue;
-				}
-
-				Document doc = new Document( entryName );
-				Scanner scanner = new Scanner( zin );
-
-				StringBuffer docBuffer = new StringBuffer();
-				while ( scanner.hasNextLine() )
-				{
-					String line = scanner.nextLine();
-					if ( !line.isEmpty() )
-					{
-						docBuffer.append( line );
-					}
-				}
-
-				AnalysisExecution model = new AnalysisExecution( docBuffer.toString(), doc, analyser, tokeniser, entities );
-				Runnable worker = new AnalyserThread( model );
-				executor.execute( worker );
-
-				docs.add( doc );
-			}
+			pipeline.setCache( new ResultCache( new File( cachePath ), cacheSize ) );
+		}
+		catch( IOException e )
+		{
+			System.err.println( "Unable to open the result cache: " + e.getMessage() );
+		}
 
-			executor.shutdown();
-			while( !executor.isTerminated() )
-			{
-			}
+		// Corpus frequencies are sketched in a fixed 4MB however many distinct words there
+		// are, instead of being counted exactly per document
+		CorpusSketches sketches = null;
+		if ( topWords > 0 )
+		{
+			sketches = new CorpusSketches( 1 << 16, 4, topWords );
+			pipeline.setSketches( sketches );
+		}
 
-			zin.close();
+		// Metrics go to stderr so they don't mix with the XML echoed to stdout
+		Metrics metrics = Metrics.getInstance();
+		MetricsReporter reporter = new MetricsReporter( metrics, System.err );
+		try
+		{
+			metrics.registerMBeans();
+		}
+		catch( JMException e )
+		{
+			System.err.println( "Unable to register metrics with JMX: " + e.getMessage() );
+		}
+		if ( metricsPeriod > 0 )
+		{
+			reporter.start( metricsPeriod, TimeUnit.SECONDS );
+		}
 
-			for ( Document d : docs )
-			{
-				d.toXml();
-			}
+		try
+		{
+			DocumentReader reader = path.endsWith( ".zip" ) ? new ParallelZipDocumentReader( path ) : new MappedDocumentReader( path );
+			pipeline.run( reader, new StaxDocumentWriter( echoXml ) );
 		}
 		catch( IOException e1 )
 		{
-			System.out.println( "Unable to load file: " + e1.getMessage() );
+			System.out.println( "Unable to process documents: " + e1.getMessage() );
+		}
+		catch( InterruptedException e2 )
+		{
+			Thread.currentThread().interrupt();
 		}
-		catch( JAXBException e2 )
+		finally
 		{
-			System.out.println( "Unable to print XML document: " + e2.getMessage() );
+			reporter.stop();
+			reporter.report();
+			if ( sketches != null )
+			{
+				sketches.report( System.err );
+			}
+			try
+			{
+				store.close();
+			}
+			catch( IOException e )
+			{
+				System.err.println( "Unable to close the sentence store: " + e.getMessage() );
+			}
 		}
 	}
 
 	public static void main( String[] args )
 	{
 		Exercise exercise = new Exercise();
-		exercise.runExercise();
+		exercise.runExercise( ( args.length > 0 ) ? args[0] : zipPath, ( args.length > 1 ) ? args[1] : entityFilename );
 	}
 
 }
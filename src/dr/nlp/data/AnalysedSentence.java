@@ -0,0 +1,136 @@
+package dr.nlp.data;
+
+import java.util.Arrays;
+
+/**
+ * The result of analysing a sentence before it is added to a document: the vocabulary
+ * ids of its lower case words, and the named entities tagged on them as (word index,
+ * entity) pairs in the order they were tagged. The entity of each match is kept as
+ * well, as a match spanning several words tags each of them. It can be cleared and
+ * reused, so analysing a sentence needn't create an object per word.
+ */
+public class AnalysedSentence
+{
+	private int[] words;
+	private int size;
+
+	private int[] entityWords;
+	private String[] entities;
+	private int numEntities;
+
+	private String[] matches;
+	private int numMatches;
+
+	public AnalysedSentence()
+	{
+		this( 16 );
+	}
+
+	public AnalysedSentence( int capacity )
+	{
+		words = new int[Math.max( capacity, 1 )];
+		entityWords = new int[4];
+		entities = new String[4];
+		matches = new String[4];
+	}
+
+	public void addWord( int id )
+	{
+		if ( size == words.length )
+		{
+			words = Arrays.copyOf( words, words.length * 2 );
+		}
+		words[size++] = id;
+	}
+
+	/**
+	 * Tags the word at the given index with the entity. Tags are kept in order of word,
+	 * and in the order they were added for each word.
+	 */
+	public void addEntity( int word, String entity )
+	{
+		if ( numEntities == entities.length )
+		{
+			entityWords = Arrays.copyOf( entityWords, numEntities * 2 );
+			entities = Arrays.copyOf( entities, numEntities * 2 );
+		}
+
+		int i = numEntities++;
+		for ( ; i > 0 && entityWords[i - 1] > word; i-- )
+		{
+			entityWords[i] = entityWords[i - 1];
+			entities[i] = entities[i - 1];
+		}
+		entityWords[i] = word;
+		entities[i] = entity;
+	}
+
+	/**
+	 * Tags the words [start, end) with the entity, and counts it as one match.
+	 */
+	public void addMatch( int start, int end, String entity )
+	{
+		for ( int i = start; i < end; i++ )
+		{
+			addEntity( i, entity );
+		}
+
+		if ( numMatches == matches.length )
+		{
+			matches = Arrays.copyOf( matches, numMatches * 2 );
+		}
+		matches[numMatches++] = entity;
+	}
+
+	public int getNumWords()
+	{
+		return size;
+	}
+
+	public int getWordId( int index )
+	{
+		return words[index];
+	}
+
+	// The backing array, for reading the ids without a copy
+	int[] ids()
+	{
+		return words;
+	}
+
+	public int getNumEntities()
+	{
+		return numEntities;
+	}
+
+	/** The index of the word tagged by the entity at the given index. */
+	public int getEntityWord( int index )
+	{
+		return entityWords[index];
+	}
+
+	public String getEntity( int index )
+	{
+		return entities[index];
+	}
+
+	public int getNumMatches()
+	{
+		return numMatches;
+	}
+
+	/** The entity of the match at the given index. */
+	public String getMatch( int index )
+	{
+		return matches[index];
+	}
+
+	public void clear()
+	{
+		Arrays.fill( entities, 0, numEntities, null );
+		Arrays.fill( matches, 0, numMatches, null );
+		size = 0;
+		numEntities = 0;
+		numMatches = 0;
+	}
+}
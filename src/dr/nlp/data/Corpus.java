@@ -0,0 +1,229 @@
+package dr.nlp.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A collection of documents with word counts and entity tallies aggregated over all of
+ * them. The word maps of the documents are merged with a fork/join reduction: ranges of
+ * documents are counted in parallel, and partial counts are merged pairwise up the tree,
+ * always folding the smaller table into the larger one.
+ *
+ * The merged counts are computed on first use after documents have been added.
+ */
+public class Corpus
+{
+	private static final int LEAF_DOCUMENTS = 16;
+
+	private List<Document> documents;
+	private Counts counts;
+	private ForkJoinPool pool;
+
+	public Corpus()
+	{
+		this( ForkJoinPool.commonPool() );
+	}
+
+	public Corpus( ForkJoinPool pool )
+	{
+		this.documents = new ArrayList<Document>();
+		this.pool = pool;
+	}
+
+	public synchronized void addDocument( Document doc )
+	{
+		documents.add( doc );
+		counts = null;
+	}
+
+	public synchronized void addDocuments( Collection<Document> docs )
+	{
+		documents.addAll( docs );
+		counts = null;
+	}
+
+	public synchronized List<Document> getDocuments()
+	{
+		return new ArrayList<Document>( documents );
+	}
+
+	public synchronized int getNumberOfDocuments()
+	{
+		return documents.size();
+	}
+
+	/**
+	 * The number of times the word occurs in all documents of the corpus.
+	 */
+	public long getNumberOfWordInstances( String word )
+	{
+		Count count = merged().words.get( word.toLowerCase() );
+		return ( count != null ) ? count.value : 0;
+	}
+
+	/**
+	 * The number of times the word occurs in the given documents, which needn't belong to
+	 * the corpus. Each document is a single lookup in its own word map.
+	 */
+	public long getNumberOfWordInstances( String word, Collection<Document> subset )
+	{
+		long total = 0;
+
+		for ( Document doc : subset )
+		{
+			total += doc.getNumberOfWordInstances( word );
+		}
+
+		return total;
+	}
+
+	/**
+	 * The number of documents in which at least one word was tagged with the entity.
+	 */
+	public long getNumberOfDocumentsWithEntity( String entity )
+	{
+		Count count = merged().entities.get( entity );
+		return ( count != null ) ? count.value : 0;
+	}
+
+	public int getNumberOfDistinctWords()
+	{
+		return merged().words.size();
+	}
+
+	public Map<String, Long> getWordCounts()
+	{
+		Map<String, Long> wordCounts = new HashMap<String, Long>();
+
+		for ( Map.Entry<String, Count> entry : merged().words.entrySet() )
+		{
+			wordCounts.put( entry.getKey(), entry.getValue().value );
+		}
+
+		return wordCounts;
+	}
+
+	private synchronized Counts merged()
+	{
+		if ( counts == null )
+		{
+			counts = pool.invoke( new MergeTask( documents, 0, documents.size() ) );
+		}
+
+		return counts;
+	}
+
+	private static class Count
+	{
+		private long value;
+
+		public Count( long value )
+		{
+			this.value = value;
+		}
+	}
+
+	private static class Counts
+	{
+		private HashMap<String, Count> words = new HashMap<String, Count>();
+		private HashMap<String, Count> entities = new HashMap<String, Count>();
+
+		public void add( Document doc )
+		{
+			Set<String> docEntities = new HashSet<String>();
+			WordStatistics statistics = doc.getWordStatistics();
+
+			for ( int slot = 0; slot < statistics.capacity(); slot++ )
+			{
+				String word = statistics.wordAt( slot );
+				if ( word != null )
+				{
+					add( words, word, statistics.countAt( slot ) );
+					docEntities.addAll( statistics.entitiesAt( slot ) );
+				}
+			}
+
+			for ( String entity : docEntities )
+			{
+				add( entities, entity, 1 );
+			}
+		}
+
+		public Counts merge( Counts other )
+		{
+			words = merge( words, other.words );
+			entities = merge( entities, other.entities );
+			return this;
+		}
+
+		private static HashMap<String, Count> merge( HashMap<String, Count> a, HashMap<String, Count> b )
+		{
+			HashMap<String, Count> larger = ( a.size() >= b.size() ) ? a : b;
+			HashMap<String, Count> smaller = ( larger == a ) ? b : a;
+
+			for ( Map.Entry<String, Count> entry : smaller.entrySet() )
+			{
+				add( larger, entry.getKey(), entry.getValue().value );
+			}
+
+			return larger;
+		}
+
+		private static void add( HashMap<String, Count> map, String key, long value )
+		{
+			Count count = map.get( key );
+			if ( count == null )
+			{
+				map.put( key, new Count( value ) );
+			}
+			else
+			{
+				count.value += value;
+			}
+		}
+	}
+
+	private static class MergeTask extends RecursiveTask<Counts>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private List<Document> documents;
+		private int from;
+		private int to;
+
+		public MergeTask( List<Document> documents, int from, int to )
+		{
+			this.documents = documents;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Counts compute()
+		{
+			if ( to - from <= LEAF_DOCUMENTS )
+			{
+				Counts counts = new Counts();
+				for ( int i = from; i < to; i++ )
+				{
+					counts.add( documents.get( i ) );
+				}
+				return counts;
+			}
+
+			int middle = ( from + to ) >>> 1;
+			MergeTask left = new MergeTask( documents, from, middle );
+			left.fork();
+			Counts right = new MergeTask( documents, middle, to ).compute();
+
+			return left.join().merge( right );
+		}
+	}
+}
@@ -2,8 +2,12 @@ package dr.nlp.data;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -13,89 +17,401 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlElements;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 @XmlRootElement()
 public class Document
 {
+	private static JAXBContext context;
+
 	@XmlAttribute()
 	private String name;
 
-	@XmlElementWrapper( name = "sentences" )
-	@XmlElement( name = "sentence" )
+	// The shared vocabulary, unless the document was given one of its own
+	@XmlTransient()
+	private Vocabulary vocabulary = Vocabulary.getInstance();
+
+	@XmlTransient()
 	private ArrayList<Sentence> sentences;
 
-	@XmlElement()
-	private HashMap<String, Word> wordMap;
+	// With a store, the sentences are kept there and only their addresses here
+	@XmlTransient()
+	private SentenceStore store;
+	@XmlTransient()
+	private long[] addresses;
+	@XmlTransient()
+	private int numStored;
+
+	// Threads adding sentences count them into partial tables, which are merged into
+	// the statistics when they are read
+	@XmlTransient()
+	private WordStatistics statistics;
+	@XmlTransient()
+	private ConcurrentLinkedQueue<WordStatistics> partials;
+	@XmlTransient()
+	private boolean countWords = true;
 
 	private Document() {}	// A workaround when marshalling
 
 	public Document( String name )
+	{
+		this( name, null );
+	}
+
+	/**
+	 * A document whose sentences are kept in the store, off the heap, unless the store is
+	 * null. Call release() once the document is no longer needed, so the store can reuse
+	 * the space.
+	 */
+	public Document( String name, SentenceStore store )
+	{
+		this( name, store, Vocabulary.getInstance() );
+	}
+
+	/**
+	 * A document whose words are given ids in a vocabulary of its own rather than the
+	 * shared one, so they are dropped along with it, e.g. for a request to a long
+	 * running service.
+	 */
+	public Document( String name, SentenceStore store, Vocabulary vocabulary )
 	{
 		this.name = name;
+		this.store = store;
+		this.vocabulary = vocabulary;
 		sentences = new ArrayList<Sentence>();
-		wordMap = new HashMap<String, Word>();
+		statistics = new WordStatistics( vocabulary );
+		partials = new ConcurrentLinkedQueue<WordStatistics>();
+		if ( store != null )
+		{
+			addresses = new long[16];
+		}
+	}
+
+	/**
+	 * Stops counting the words of the sentences added from now on, for when the corpus
+	 * frequencies are sketched instead (see CorpusSketches). The document then has no
+	 * word map of its own.
+	 */
+	public void setCountWords( boolean countWords )
+	{
+		this.countWords = countWords;
+	}
+
+	public boolean isCountingWords()
+	{
+		return countWords;
 	}
 
 	public void addSentence( List<Word> words )
 	{
-		Sentence sentence = new Sentence();
+		Sentence sentence = new Sentence( words.size(), vocabulary );
+		WordStatistics partial = countWords ? takePartial() : null;
 
 		for ( Word word : words )
 		{
-			String name = word.getName().toLowerCase();
-			
-			// Add an entry to the word map
-			if ( wordMap.containsKey( name ) )
+			// The vocabulary holds a single copy of each word form, which is used in the
+			// statistics as well as in the sentence
+			int id = vocabulary.getId( word.getName().toLowerCase() );
+			if ( partial != null )
 			{
-				Word existingWord = wordMap.get( name );
-				existingWord.incrementCount();
-				existingWord.addNamedEntities( word.getNamedEntities() );
+				partial.add( id, word.getName(), word.getNamedEntities() );
+			}
+
+			// Add the word to the new sentence
+			sentence.addWordId( id );
+		}
+
+		if ( partial != null )
+		{
+			partials.offer( partial );
+		}
+		add( sentence );
+	}
+
+	/**
+	 * Adds a sentence which has already been turned into vocabulary ids. Its words are
+	 * lower case, so each serves as its own name.
+	 */
+	public void addSentence( AnalysedSentence analysed )
+	{
+		if ( countWords )
+		{
+			WordStatistics partial = takePartial();
+			partial.add( analysed );
+			partials.offer( partial );
+		}
+
+		add( analysed );
+	}
+
+	/**
+	 * Counts matches of an entity restored along with sentences which were added
+	 * without them, e.g. from a cache.
+	 */
+	public void addEntityMatches( String entity, int count )
+	{
+		WordStatistics partial = takePartial();
+		partial.addMatches( entity, count );
+		partials.offer( partial );
+	}
+
+	/**
+	 * Adds sentences whose words have already been counted into a table of their own,
+	 * as a chunk analysed on another thread does, and takes over the table. The table is
+	 * null if the document isn't counting words.
+	 */
+	public void addSentences( List<AnalysedSentence> analysed, WordStatistics counted )
+	{
+		if ( counted != null )
+		{
+			partials.offer( counted );
+		}
+
+		for ( AnalysedSentence sentence : analysed )
+		{
+			add( sentence );
+		}
+	}
+
+	// A partial table no other thread is counting into
+	private WordStatistics takePartial()
+	{
+		WordStatistics partial = partials.poll();
+		return ( partial != null ) ? partial : new WordStatistics( vocabulary );
+	}
+
+	// Folds the partial tables into the document's. A partial in use is out of the queue,
+	// so a thread still adding sentences keeps its own
+	private synchronized WordStatistics mergePartials()
+	{
+		WordStatistics partial;
+		while ( ( partial = partials.poll() ) != null )
+		{
+			if ( statistics.isEmpty() && statistics.getNumEntities() == 0 )
+			{
+				// Usually the only one, as with a document filled by a single thread
+				statistics = partial;
 			}
 			else
 			{
-				wordMap.put( name, word );
+				statistics.merge( partial );
 			}
-
-			// Add the word to the new sentence
-			sentence.addWord( name );
 		}
+		return statistics;
+	}
 
+	private void add( Sentence sentence )
+	{
 		if ( sentence.hasWords() )
 		{
-			sentences.add( sentence );
+			synchronized ( sentences )
+			{
+				if ( store == null )
+				{
+					sentences.add( sentence );
+				}
+				else
+				{
+					addAddress( store.append( sentence ) );
+				}
+			}
 		}
 	}
+
+	// With a store the words go straight from the analysed sentence to the page, and
+	// only a document without one makes a Sentence
+	private void add( AnalysedSentence analysed )
+	{
+		if ( analysed.getNumWords() > 0 )
+		{
+			synchronized ( sentences )
+			{
+				if ( store == null )
+				{
+					Sentence sentence = new Sentence( analysed.getNumWords(), vocabulary );
+					for ( int i = 0; i < analysed.getNumWords(); i++ )
+					{
+						sentence.addWordId( analysed.getWordId( i ) );
+					}
+					sentences.add( sentence );
+				}
+				else
+				{
+					addAddress( store.append( analysed ) );
+				}
+			}
+		}
+	}
+
+	private void addAddress( long address )
+	{
+		if ( numStored == addresses.length )
+		{
+			addresses = Arrays.copyOf( addresses, numStored * 2 );
+		}
+		addresses[numStored++] = address;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * The vocabulary the ids of the words are in.
+	 */
+	public Vocabulary getVocabulary()
+	{
+		return vocabulary;
+	}
 	
+	/**
+	 * The sentences in order. For a document with a SentenceStore this is a copy read
+	 * from the store, see sentenceIterator() and openSentence() for reading them one
+	 * at a time.
+	 */
+	@XmlElementWrapper( name = "sentences" )
+	@XmlElement( name = "sentence" )
 	public ArrayList<Sentence> getSentences()
 	{
-		return sentences;
+		if ( store == null )
+		{
+			return sentences;
+		}
+
+		synchronized ( sentences )
+		{
+			ArrayList<Sentence> stored = new ArrayList<Sentence>( numStored );
+			for ( int i = 0; i < numStored; i++ )
+			{
+				stored.add( store.read( addresses[i], vocabulary ) );
+			}
+			return stored;
+		}
 	}
 
-	public int getNumberOfWordInstances( String word )
+	public int getNumSentences()
+	{
+		synchronized ( sentences )
+		{
+			return ( store == null ) ? sentences.size() : numStored;
+		}
+	}
+
+	/**
+	 * Iterates over the sentences added so far, reading each from the store as it is
+	 * reached if the document has one.
+	 */
+	public Iterator<Sentence> sentenceIterator()
 	{
-		word = word.toLowerCase();
-		if ( wordMap.containsKey( word ) )
+		return new SentenceIterator( getNumSentences() );
+	}
+
+	/**
+	 * Opens the cursor on the sentence at the index, which reads its words in place
+	 * whether the sentence is in the store or on the heap.
+	 */
+	public void openSentence( int index, SentenceCursor cursor )
+	{
+		synchronized ( sentences )
 		{
-			return wordMap.get( word ).getCount();
+			if ( store == null )
+			{
+				cursor.open( sentences.get( index ) );
+			}
+			else
+			{
+				cursor.open( store, getSentenceAddress( index ) );
+			}
+		}
+	}
+
+	public SentenceStore getSentenceStore()
+	{
+		return store;
+	}
+
+	/**
+	 * The address of a sentence in the store, for reading it with a SentenceCursor.
+	 */
+	public long getSentenceAddress( int index )
+	{
+		synchronized ( sentences )
+		{
+			if ( index >= numStored )
+			{
+				throw new IndexOutOfBoundsException( "Sentence " + index + " of " + numStored );
+			}
+			return addresses[index];
+		}
+	}
+
+	/**
+	 * Returns the sentences in the store for reuse. The document has no sentences
+	 * afterwards, but keeps its statistics.
+	 */
+	public void release()
+	{
+		if ( store == null )
+		{
+			return;
+		}
+
+		synchronized ( sentences )
+		{
+			for ( int i = 0; i < numStored; i++ )
+			{
+				store.release( addresses[i] );
+			}
+			numStored = 0;
 		}
+	}
+
+	/**
+	 * A snapshot of the word statistics as Word objects, which is also how the statistics
+	 * appear in the XML.
+	 */
+	@XmlElement( name = "wordMap" )
+	public Map<String, Word> getWordMap()
+	{
+		return getWordStatistics().toMap();
+	}
+
+	/**
+	 * The statistics of the sentences added so far. They are complete once every thread
+	 * adding sentences has returned, and mustn't be changed through the table.
+	 */
+	public WordStatistics getWordStatistics()
+	{
+		return mergePartials();
+	}
 
-		return 0;
+	public int getNumberOfWordInstances( String word )
+	{
+		return getWordStatistics().getCount( word.toLowerCase() );
 	}
 
 	public void clear()
 	{
-		wordMap.clear();
+		synchronized ( this )
+		{
+			partials.clear();
+			statistics.clear();
+		}
+		release();
 
-		for ( Sentence sentence : sentences )
+		synchronized ( sentences )
 		{
-			sentence.clear();
+			for ( Sentence sentence : sentences )
+			{
+				sentence.clear();
+			}
 		}
 	}
 
 	public void toXml() throws JAXBException
 	{
-		JAXBContext ctx = JAXBContext.newInstance( Document.class );
-		Marshaller marshaller = ctx.createMarshaller();
+		Marshaller marshaller = getContext().createMarshaller();
 		marshaller.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE );
 		marshaller.marshal( this, System.out );
 		
@@ -103,4 +419,52 @@ public class Document
 		File outputFile = new File( name + ".xml" );
 		marshaller.marshal( this, outputFile );
 	}
+
+	// Creating a JAXB context is expensive, so it is shared by all documents
+	private static synchronized JAXBContext getContext() throws JAXBException
+	{
+		if ( context == null )
+		{
+			context = JAXBContext.newInstance( Document.class );
+		}
+
+		return context;
+	}
+
+	private class SentenceIterator implements Iterator<Sentence>
+	{
+		private int next;
+		private int end;
+
+		public SentenceIterator( int end )
+		{
+			this.end = end;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return next < end;
+		}
+
+		@Override
+		public Sentence next()
+		{
+			if ( next == end )
+			{
+				throw new NoSuchElementException();
+			}
+
+			synchronized ( sentences )
+			{
+				return ( store == null ) ? sentences.get( next++ ) : store.read( addresses[next++], vocabulary );
+			}
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
 }
@@ -1,48 +1,148 @@
 package dr.nlp.data;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
 
+/**
+ * The words of a sentence, stored as ids in the shared Vocabulary, or in the vocabulary
+ * of its document. Words are only turned back into strings when they are asked for, e.g.
+ * when writing the document.
+ */
 public class Sentence
 {
-	@XmlElementWrapper( name = "words" )
-	@XmlElement( name = "word" )
-	public ArrayList<String> words;
-	
+	private Vocabulary vocabulary;
+
+	private int[] ids;
+	private int size;
+
 	public Sentence()
 	{
-		words = new ArrayList<String>();
+		this( 8 );
+	}
+
+	public Sentence( int capacity )
+	{
+		this( capacity, Vocabulary.getInstance() );
+	}
+
+	public Sentence( int capacity, Vocabulary vocabulary )
+	{
+		this.vocabulary = vocabulary;
+		ids = new int[Math.max( capacity, 1 )];
+		size = 0;
 	}
-	
+
 	public void addWord( String word )
 	{
-		words.add( word );
+		addWordId( vocabulary.getId( word ) );
 	}
-	
+
+	public void addWordId( int id )
+	{
+		if ( size == ids.length )
+		{
+			ids = Arrays.copyOf( ids, ids.length + ( ids.length >> 1 ) + 1 );
+		}
+		ids[size++] = id;
+	}
+
 	public void addWords( ArrayList<String> words )
 	{
-		this.words = words;
+		clear();
+		for ( String word : words )
+		{
+			addWord( word );
+		}
 	}
-	
+
+	@XmlElementWrapper( name = "words" )
+	@XmlElement( name = "word" )
 	public ArrayList<String> getWords()
 	{
+		ArrayList<String> words = new ArrayList<String>( size );
+
+		for ( int i = 0; i < size; i++ )
+		{
+			words.add( vocabulary.getWord( ids[i] ) );
+		}
+
 		return words;
 	}
-	
+
+	public String getWord( int index )
+	{
+		return vocabulary.getWord( ids[index] );
+	}
+
+	public int getWordId( int index )
+	{
+		return ids[index];
+	}
+
+	public int[] getWordIds()
+	{
+		return Arrays.copyOf( ids, size );
+	}
+
 	public int getNumWords()
 	{
-		return words.size();
+		return size;
+	}
+
+	// The backing array, for reading the ids without a copy
+	int[] ids()
+	{
+		return ids;
 	}
 
 	public boolean hasWords()
 	{
 		return ( getNumWords() > 0 );
 	}
-	
+
 	public void clear()
 	{
-		words.clear();
+		size = 0;
+	}
+
+	@Override
+	public boolean equals( Object other )
+	{
+		if ( !( other instanceof Sentence ) )
+		{
+			return false;
+		}
+
+		Sentence sentence = (Sentence) other;
+		if ( size != sentence.size )
+		{
+			return false;
+		}
+
+		for ( int i = 0; i < size; i++ )
+		{
+			if ( ids[i] != sentence.ids[i] )
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int hash = 1;
+
+		for ( int i = 0; i < size; i++ )
+		{
+			hash = 31 * hash + ids[i];
+		}
+
+		return hash;
 	}
 }
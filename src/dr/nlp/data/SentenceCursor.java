@@ -0,0 +1,90 @@
+package dr.nlp.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the words of sentences in a SentenceStore one id at a time, straight from the
+ * page, so iterating over the words of a stored sentence creates no objects. A cursor
+ * can be reopened on any number of sentences, but is only for use by one thread.
+ *
+ * A cursor can also be opened on the sentences of any document through
+ * Document.openSentence(), which reads a sentence kept on the heap the same way.
+ */
+public class SentenceCursor
+{
+	private SentenceStore store;
+	private ByteBuffer page;
+	private int position;
+
+	// The ids of a sentence on the heap, or null when reading from a page
+	private int[] ids;
+
+	private int numWords;
+	private int remaining;
+
+	public SentenceCursor()
+	{
+		this( null );
+	}
+
+	SentenceCursor( SentenceStore store )
+	{
+		this.store = store;
+	}
+
+	/**
+	 * Opens the sentence at the address in the store the cursor was made by.
+	 */
+	public void open( long address )
+	{
+		open( store, address );
+	}
+
+	void open( SentenceStore store, long address )
+	{
+		ids = null;
+		page = store.getPage( address );
+		position = SentenceStore.offset( address );
+		numWords = readVarInt();
+		remaining = numWords;
+	}
+
+	void open( Sentence sentence )
+	{
+		page = null;
+		ids = sentence.ids();
+		numWords = sentence.getNumWords();
+		remaining = numWords;
+	}
+
+	public int getNumWords()
+	{
+		return numWords;
+	}
+
+	public boolean hasNext()
+	{
+		return remaining > 0;
+	}
+
+	public int nextWordId()
+	{
+		int index = numWords - remaining--;
+		return ( ids != null ) ? ids[index] : readVarInt();
+	}
+
+	private int readVarInt()
+	{
+		int value = 0;
+
+		for ( int shift = 0; ; shift += 7 )
+		{
+			byte b = page.get( position++ );
+			value |= ( b & 0x7f ) << shift;
+			if ( b >= 0 )
+			{
+				return value;
+			}
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package dr.nlp.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Holds the words of sentences outside the heap, so the heap and the time spent in GC
+ * don't grow with the amount of text held. Sentences are appended as records to pages
+ * of a fixed size, which are either direct buffers or regions of a memory mapped file,
+ * and are addressed by a long holding the page and the offset within it.
+ *
+ * A record is the number of words followed by their vocabulary ids, all varints. A
+ * sentence too long for a page gets a page of its own. Mapping a page can fail, e.g.
+ * when the disk is full, which is thrown as an UncheckedIOException.
+ *
+ * Pages are recycled: each counts its live records, and once every record on a page
+ * has been released the page is reused for new sentences. A store shared by all the
+ * documents in flight, which are released once written, therefore stays the size of
+ * the text in flight rather than the size of the corpus.
+ *
+ * Appending and releasing are synchronized. Reading doesn't lock, and is safe for any
+ * sentence whose address was handed over with a happens-before edge, e.g. through a
+ * Document, and which hasn't been released.
+ */
+public class SentenceStore implements Closeable
+{
+	public static final int DEFAULT_PAGE_SIZE = 1 << 20;
+
+	private static final int PAGE_BITS = 32;
+	private static final long OFFSET_MASK = ( 1L << PAGE_BITS ) - 1;
+
+	private int pageSize;
+	private RandomAccessFile file;
+	private File path;
+	private long fileSize;
+
+	// Replaced as a whole when it grows, so readers never see a partly copied array
+	private volatile ByteBuffer[] pages;
+	private int numPages;
+	private int[] liveRecords;
+	private ArrayDeque<Integer> freePages;
+
+	private int current;
+	private int position;
+
+	/**
+	 * A store of direct buffer pages.
+	 */
+	public SentenceStore()
+	{
+		this( DEFAULT_PAGE_SIZE );
+	}
+
+	public SentenceStore( int pageSize )
+	{
+		this.pageSize = pageSize;
+		pages = new ByteBuffer[16];
+		liveRecords = new int[16];
+		freePages = new ArrayDeque<Integer>();
+		current = -1;
+	}
+
+	/**
+	 * A store of pages mapped from the file, which is deleted when the store is closed.
+	 */
+	public SentenceStore( File path, int pageSize ) throws IOException
+	{
+		this( pageSize );
+		this.path = path;
+		this.file = new RandomAccessFile( path, "rw" );
+	}
+
+	/**
+	 * Appends the sentence and returns its address.
+	 */
+	public long append( Sentence sentence )
+	{
+		return append( sentence.ids(), sentence.getNumWords() );
+	}
+
+	/**
+	 * Appends an analysed sentence straight from its word ids, without a Sentence.
+	 */
+	public long append( AnalysedSentence sentence )
+	{
+		return append( sentence.ids(), sentence.getNumWords() );
+	}
+
+	private synchronized long append( int[] words, int numWords )
+	{
+		int size = sizeOf( numWords );
+		for ( int i = 0; i < numWords; i++ )
+		{
+			size += sizeOf( words[i] );
+		}
+
+		if ( current < 0 || position + size > pages[current].capacity() )
+		{
+			nextPage( size );
+		}
+
+		ByteBuffer page = pages[current];
+		long address = ( (long) current << PAGE_BITS ) | position;
+		position = put( page, position, numWords );
+		for ( int i = 0; i < numWords; i++ )
+		{
+			position = put( page, position, words[i] );
+		}
+		liveRecords[current]++;
+
+		return address;
+	}
+
+	/**
+	 * Returns a sentence's page for reuse once all the sentences on it are released.
+	 */
+	public synchronized void release( long address )
+	{
+		int page = page( address );
+		if ( --liveRecords[page] == 0 && page != current )
+		{
+			recycle( page );
+		}
+	}
+
+	/**
+	 * Reads the sentence at the address into a new Sentence.
+	 */
+	public Sentence read( long address )
+	{
+		return read( address, Vocabulary.getInstance() );
+	}
+
+	/**
+	 * As read( address ), for a sentence whose ids are in the given vocabulary.
+	 */
+	public Sentence read( long address, Vocabulary vocabulary )
+	{
+		SentenceCursor cursor = cursor();
+		cursor.open( address );
+
+		Sentence sentence = new Sentence( cursor.getNumWords(), vocabulary );
+		while ( cursor.hasNext() )
+		{
+			sentence.addWordId( cursor.nextWordId() );
+		}
+
+		return sentence;
+	}
+
+	/**
+	 * A cursor for reading the words of sentences without creating objects.
+	 */
+	public SentenceCursor cursor()
+	{
+		return new SentenceCursor( this );
+	}
+
+	public int getPageSize()
+	{
+		return pageSize;
+	}
+
+	public synchronized int getNumPages()
+	{
+		return numPages;
+	}
+
+	public synchronized int getNumFreePages()
+	{
+		return freePages.size();
+	}
+
+	/**
+	 * The bytes held by the pages, whether in use or free.
+	 */
+	public synchronized long getCapacity()
+	{
+		long capacity = 0;
+		for ( int i = 0; i < numPages; i++ )
+		{
+			if ( pages[i] != null )
+			{
+				capacity += pages[i].capacity();
+			}
+		}
+		return capacity;
+	}
+
+	/**
+	 * Drops the pages, and closes and deletes a mapped file. Sentences can't be read
+	 * afterwards.
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		Arrays.fill( pages, null );
+		numPages = 0;
+		freePages.clear();
+		current = -1;
+
+		if ( file != null )
+		{
+			file.close();
+			file = null;
+			path.delete();
+		}
+	}
+
+	ByteBuffer getPage( long address )
+	{
+		return pages[page( address )];
+	}
+
+	static int page( long address )
+	{
+		return (int) ( address >>> PAGE_BITS );
+	}
+
+	static int offset( long address )
+	{
+		return (int) ( address & OFFSET_MASK );
+	}
+
+	private void nextPage( int size )
+	{
+		if ( current >= 0 && liveRecords[current] == 0 )
+		{
+			recycle( current );
+		}
+
+		if ( size <= pageSize && !freePages.isEmpty() )
+		{
+			current = freePages.pop();
+		}
+		else
+		{
+			if ( numPages == pages.length )
+			{
+				pages = Arrays.copyOf( pages, numPages * 2 );
+				liveRecords = Arrays.copyOf( liveRecords, numPages * 2 );
+			}
+			ByteBuffer[] updated = pages;
+			updated[numPages] = allocate( Math.max( size, pageSize ) );
+			pages = updated;
+			current = numPages++;
+		}
+
+		position = 0;
+	}
+
+	private void recycle( int page )
+	{
+		// Pages holding a single long sentence aren't reused
+		if ( pages[page].capacity() == pageSize )
+		{
+			freePages.push( page );
+		}
+		else if ( file == null )
+		{
+			pages[page] = null;
+		}
+	}
+
+	private ByteBuffer allocate( int size )
+	{
+		if ( file == null )
+		{
+			return ByteBuffer.allocateDirect( size );
+		}
+
+		try
+		{
+			ByteBuffer page = file.getChannel().map( FileChannel.MapMode.READ_WRITE, fileSize, size );
+			fileSize += size;
+			return page;
+		}
+		catch( IOException e )
+		{
+			throw new UncheckedIOException( "Unable to map a page of " + path + ": " + e.getMessage(), e );
+		}
+	}
+
+	private static int put( ByteBuffer page, int position, int value )
+	{
+		while ( ( value & ~0x7f ) != 0 )
+		{
+			page.put( position++, (byte) ( ( value & 0x7f ) | 0x80 ) );
+			value >>>= 7;
+		}
+		page.put( position++, (byte) value );
+		return position;
+	}
+
+	private static int sizeOf( int value )
+	{
+		int size = 1;
+		while ( ( value & ~0x7f ) != 0 )
+		{
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+}
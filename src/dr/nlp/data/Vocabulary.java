@@ -0,0 +1,214 @@
+package dr.nlp.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Assigns every word form a dense int id, shared by all documents so a sentence can be
+ * stored as an array of ids rather than strings. Each form is held once, and getWord()
+ * always returns that same canonical String.
+ *
+ * Lookups of known words don't lock. New words are added under a lock, and the word is
+ * stored in the table before its id is published, so any thread holding an id can
+ * decode it.
+ *
+ * Words can also be looked up by a span of characters, through a second open addressing
+ * index over the ids which hashes the characters the same way as String.hashCode(), so
+ * a known word is found without creating a String for it.
+ */
+public class Vocabulary
+{
+	private static Vocabulary instance = null;
+
+	private ConcurrentHashMap<String, Integer> ids;
+	private volatile String[] words;
+	private int size;
+
+	// Slots hold id + 1, or 0 if free; replaced as a whole when it grows
+	private volatile AtomicIntegerArray index;
+
+	public Vocabulary()
+	{
+		ids = new ConcurrentHashMap<String, Integer>();
+		words = new String[1024];
+		size = 0;
+		index = new AtomicIntegerArray( 2048 );
+	}
+
+	public static synchronized Vocabulary getInstance()
+	{
+		if ( instance == null )
+		{
+			instance = new Vocabulary();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Returns the id of the word, adding it to the vocabulary if it is new.
+	 */
+	public int getId( String word )
+	{
+		Integer id = ids.get( word );
+		if ( id != null )
+		{
+			return id;
+		}
+
+		synchronized ( this )
+		{
+			id = ids.get( word );
+			if ( id != null )
+			{
+				return id;
+			}
+
+			if ( size == words.length )
+			{
+				words = Arrays.copyOf( words, words.length * 2 );
+			}
+			words[size] = word;
+			if ( ( size + 1 ) * 2 > index.length() )
+			{
+				AtomicIntegerArray larger = new AtomicIntegerArray( index.length() * 2 );
+				for ( int i = 0; i < size; i++ )
+				{
+					insert( larger, i, words[i].hashCode() );
+				}
+				index = larger;
+			}
+			insert( index, size, word.hashCode() );
+			ids.put( word, size );
+
+			return size++;
+		}
+	}
+
+	/**
+	 * Returns the id of the lower case form of text[start, end), adding it if it is new.
+	 * Only a new word, or one with characters beyond ASCII, is copied into a String.
+	 */
+	public int getLowerCaseId( CharSequence text, int start, int end )
+	{
+		int id = find( text, start, end, true );
+		if ( id >= 0 )
+		{
+			return id;
+		}
+
+		return getId( text.subSequence( start, end ).toString().toLowerCase() );
+	}
+
+	/**
+	 * Returns the id of text[start, end) as it is, or -1 if it isn't in the vocabulary.
+	 */
+	public int lookup( CharSequence text, int start, int end )
+	{
+		int id = find( text, start, end, false );
+		return ( id >= 0 ) ? id : -1;
+	}
+
+	/**
+	 * Returns the id of the word, or -1 if it isn't in the vocabulary.
+	 */
+	public int lookup( String word )
+	{
+		Integer id = ids.get( word );
+		return ( id != null ) ? id : -1;
+	}
+
+	/**
+	 * Finds the span in the index, lower casing ASCII letters if asked to. Returns -1 if
+	 * it isn't there, or -2 if it can't be lower cased here.
+	 */
+	private int find( CharSequence text, int start, int end, boolean lowerCase )
+	{
+		int hash = 0;
+		for ( int i = start; i < end; i++ )
+		{
+			char c = text.charAt( i );
+			if ( lowerCase )
+			{
+				if ( c >= 128 )
+				{
+					return -2;
+				}
+				if ( c >= 'A' && c <= 'Z' )
+				{
+					c += 'a' - 'A';
+				}
+			}
+			hash = 31 * hash + c;
+		}
+
+		AtomicIntegerArray table = index;
+		int mask = table.length() - 1;
+
+		for ( int slot = spread( hash ) & mask; ; slot = ( slot + 1 ) & mask )
+		{
+			int value = table.get( slot );
+			if ( value == 0 )
+			{
+				return -1;
+			}
+
+			String word = words[value - 1];
+			if ( word.hashCode() == hash && matches( word, text, start, end, lowerCase ) )
+			{
+				return value - 1;
+			}
+		}
+	}
+
+	private static boolean matches( String word, CharSequence text, int start, int end, boolean lowerCase )
+	{
+		if ( word.length() != end - start )
+		{
+			return false;
+		}
+
+		for ( int i = 0; i < word.length(); i++ )
+		{
+			char c = text.charAt( start + i );
+			if ( lowerCase && c >= 'A' && c <= 'Z' )
+			{
+				c += 'a' - 'A';
+			}
+			if ( word.charAt( i ) != c )
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static void insert( AtomicIntegerArray table, int id, int hash )
+	{
+		int mask = table.length() - 1;
+		int slot = spread( hash ) & mask;
+
+		while ( table.get( slot ) != 0 )
+		{
+			slot = ( slot + 1 ) & mask;
+		}
+		table.set( slot, id + 1 );
+	}
+
+	private static int spread( int hash )
+	{
+		return hash ^ ( hash >>> 16 );
+	}
+
+	public String getWord( int id )
+	{
+		return words[id];
+	}
+
+	public int size()
+	{
+		return ids.size();
+	}
+}
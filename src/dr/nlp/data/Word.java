@@ -26,6 +26,13 @@ public class Word
 		count = 1;
 	}
 
+	Word( String name, List<String> entities, int count )
+	{
+		this.name = name;
+		namedEntities = new ArrayList<String>( entities );
+		this.count = count;
+	}
+
 	public String getName()
 	{
 		return name;
@@ -0,0 +1,428 @@
+package dr.nlp.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import dr.nlp.util.LongIntHashMap;
+
+/**
+ * Open addressing table of per-document word statistics, keyed by the vocabulary id of
+ * the lower case word. The name first seen for the word, its count and its entities are
+ * kept in arrays parallel to the keys, so there is no object per entry. A word whose
+ * name is its lower case form, as with analysed sentences, has no name of its own.
+ *
+ * Entities are given ids local to the table. Most words have no entity or a single one,
+ * which is stored inline; a word with several has its inline value point at a small set
+ * of entity ids on the side, kept in the order they were added. The number of times
+ * each entity was matched is kept by id, as a match may tag several words.
+ *
+ * The ids are in the shared Vocabulary unless the table is given another, e.g. that of
+ * a document with its own.
+ *
+ * A table isn't thread safe. Threads filling a document in parallel each count into a
+ * table of their own, and the tables are merged (see Document).
+ */
+public class WordStatistics
+{
+	private static final int FREE = -1;
+	private static final int NO_ENTITIES = -1;
+
+	private Vocabulary vocabulary;
+
+	private int[] words;
+	private String[] names;
+	private int[] counts;
+	private int[] entities;
+	private int size;
+	private int mask;
+	private int resizeAt;
+
+	// Entity sets of words with more than one entity; the first element is the set size
+	private int[][] entitySets;
+	private int numEntitySets;
+
+	// Entity names and match counts by id, and the ids of the names
+	private String[] entityNames;
+	private int[] matches;
+	private int numEntityNames;
+	private HashMap<String, Integer> entityIds;
+
+	public WordStatistics()
+	{
+		this( Vocabulary.getInstance() );
+	}
+
+	public WordStatistics( Vocabulary vocabulary )
+	{
+		this.vocabulary = vocabulary;
+		allocate( 64 );
+		entitySets = new int[8][];
+		entityNames = new String[8];
+		matches = new int[8];
+		entityIds = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Counts an occurrence of the word and adds its entities. The name is kept if the word
+	 * hasn't been seen before.
+	 */
+	public void add( int word, String name, List<String> wordEntities )
+	{
+		int slot = count( word, name, 1 );
+
+		for ( int i = 0; i < wordEntities.size(); i++ )
+		{
+			addEntity( slot, getEntityId( wordEntities.get( i ) ) );
+		}
+	}
+
+	/**
+	 * As above, for a lower case word which is its own name, and no entities.
+	 */
+	public void add( int word )
+	{
+		count( word, null, 1 );
+	}
+
+	/**
+	 * Counts the words of an analysed sentence, adds the entities tagged on them and
+	 * counts its matches.
+	 */
+	public void add( AnalysedSentence sentence )
+	{
+		int entity = 0;
+
+		for ( int i = 0; i < sentence.getNumWords(); i++ )
+		{
+			int slot = count( sentence.getWordId( i ), null, 1 );
+
+			while ( entity < sentence.getNumEntities() && sentence.getEntityWord( entity ) == i )
+			{
+				addEntity( slot, getEntityId( sentence.getEntity( entity++ ) ) );
+			}
+		}
+
+		for ( int i = 0; i < sentence.getNumMatches(); i++ )
+		{
+			matches[getEntityId( sentence.getMatch( i ) )]++;
+		}
+	}
+
+	/**
+	 * Counts matches of an entity, as when restoring statistics whose sentences are
+	 * replayed without them.
+	 */
+	public void addMatches( String entity, int count )
+	{
+		matches[getEntityId( entity )] += count;
+	}
+
+	/**
+	 * Adds an entity to a word which has already been added.
+	 */
+	public void addEntity( int word, String entity )
+	{
+		int slot = find( word );
+		if ( words[slot] == FREE )
+		{
+			throw new IllegalArgumentException( "No statistics for " + vocabulary.getWord( word ) );
+		}
+
+		addEntity( slot, getEntityId( entity ) );
+	}
+
+	/**
+	 * Adds the counts and entities of another table to this one. Words new to this table
+	 * are added in the order of the other; a name already here is kept.
+	 */
+	public void merge( WordStatistics other )
+	{
+		int[] ids = new int[other.numEntityNames];
+		for ( int i = 0; i < ids.length; i++ )
+		{
+			ids[i] = getEntityId( other.entityNames[i] );
+			matches[ids[i]] += other.matches[i];
+		}
+
+		for ( int from = 0; from < other.words.length; from++ )
+		{
+			if ( other.words[from] != FREE )
+			{
+				int slot = count( other.words[from], other.names[from], other.counts[from] );
+
+				int value = other.entities[from];
+				if ( value >= 0 )
+				{
+					addEntity( slot, ids[value] );
+				}
+				else if ( value != NO_ENTITIES )
+				{
+					int[] set = other.entitySets[-2 - value];
+					for ( int i = 1; i <= set[0]; i++ )
+					{
+						addEntity( slot, ids[set[i]] );
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of times the lower case word has been added, or 0.
+	 */
+	public int getCount( String word )
+	{
+		int id = vocabulary.lookup( word );
+		return ( id < 0 ) ? 0 : getCount( id );
+	}
+
+	/**
+	 * The number of times the word with the vocabulary id has been added, or 0.
+	 */
+	public int getCount( int word )
+	{
+		int slot = find( word );
+		return ( words[slot] == FREE ) ? 0 : counts[slot];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public void clear()
+	{
+		Arrays.fill( words, FREE );
+		Arrays.fill( names, null );
+		Arrays.fill( entitySets, 0, numEntitySets, null );
+		Arrays.fill( entityNames, 0, numEntityNames, null );
+		Arrays.fill( matches, 0, numEntityNames, 0 );
+		entityIds.clear();
+		size = 0;
+		numEntitySets = 0;
+		numEntityNames = 0;
+	}
+
+	/**
+	 * Number of slots in the table, for walking it with the slot accessors below. The
+	 * table mustn't be changed while it is walked.
+	 */
+	public int capacity()
+	{
+		return words.length;
+	}
+
+	/** The word in the slot, or null if the slot is free. */
+	public String wordAt( int slot )
+	{
+		return ( words[slot] == FREE ) ? null : vocabulary.getWord( words[slot] );
+	}
+
+	/** The vocabulary id of the word in the slot, or -1 if the slot is free. */
+	public int wordIdAt( int slot )
+	{
+		return words[slot];
+	}
+
+	public String nameAt( int slot )
+	{
+		return ( names[slot] != null ) ? names[slot] : vocabulary.getWord( words[slot] );
+	}
+
+	public int countAt( int slot )
+	{
+		return counts[slot];
+	}
+
+	public List<String> entitiesAt( int slot )
+	{
+		int value = entities[slot];
+
+		if ( value == NO_ENTITIES )
+		{
+			return Collections.emptyList();
+		}
+		if ( value >= 0 )
+		{
+			return Collections.singletonList( entityNames[value] );
+		}
+
+		int[] set = entitySets[-2 - value];
+		List<String> list = new ArrayList<String>( set[0] );
+		for ( int i = 1; i <= set[0]; i++ )
+		{
+			list.add( entityNames[set[i]] );
+		}
+		return list;
+	}
+
+	/**
+	 * Number of entities the words have been tagged with, for walking them by id.
+	 */
+	public int getNumEntities()
+	{
+		return numEntityNames;
+	}
+
+	public String entityAt( int id )
+	{
+		return entityNames[id];
+	}
+
+	/** The number of times the entity was matched. */
+	public int matchesAt( int id )
+	{
+		return matches[id];
+	}
+
+	/**
+	 * The statistics as Word objects keyed by word, in table order.
+	 */
+	public LinkedHashMap<String, Word> toMap()
+	{
+		LinkedHashMap<String, Word> map = new LinkedHashMap<String, Word>( size * 2 );
+
+		for ( int slot = 0; slot < words.length; slot++ )
+		{
+			if ( words[slot] != FREE )
+			{
+				map.put( vocabulary.getWord( words[slot] ), new Word( nameAt( slot ), entitiesAt( slot ), counts[slot] ) );
+			}
+		}
+
+		return map;
+	}
+
+	private int count( int word, String name, int count )
+	{
+		int slot = find( word );
+
+		if ( words[slot] == FREE )
+		{
+			words[slot] = word;
+			names[slot] = name;
+			counts[slot] = 0;
+			entities[slot] = NO_ENTITIES;
+			if ( ++size >= resizeAt )
+			{
+				rehash( words.length << 1 );
+				slot = find( word );
+			}
+		}
+
+		counts[slot] += count;
+		return slot;
+	}
+
+	private int getEntityId( String entity )
+	{
+		Integer id = entityIds.get( entity );
+		if ( id != null )
+		{
+			return id;
+		}
+
+		if ( numEntityNames == entityNames.length )
+		{
+			entityNames = Arrays.copyOf( entityNames, numEntityNames * 2 );
+			matches = Arrays.copyOf( matches, numEntityNames * 2 );
+		}
+		entityNames[numEntityNames] = entity;
+		entityIds.put( entity, numEntityNames );
+		return numEntityNames++;
+	}
+
+	private void addEntity( int slot, int entity )
+	{
+		int value = entities[slot];
+
+		if ( value == NO_ENTITIES )
+		{
+			entities[slot] = entity;
+			return;
+		}
+		if ( value == entity )
+		{
+			return;
+		}
+
+		if ( value >= 0 )
+		{
+			if ( numEntitySets == entitySets.length )
+			{
+				entitySets = Arrays.copyOf( entitySets, entitySets.length * 2 );
+			}
+			entitySets[numEntitySets] = new int[] { 2, value, entity, 0 };
+			entities[slot] = -2 - numEntitySets++;
+			return;
+		}
+
+		int index = -2 - value;
+		int[] set = entitySets[index];
+		for ( int i = 1; i <= set[0]; i++ )
+		{
+			if ( set[i] == entity )
+			{
+				return;
+			}
+		}
+		if ( set[0] + 1 == set.length )
+		{
+			set = entitySets[index] = Arrays.copyOf( set, set.length * 2 );
+		}
+		set[++set[0]] = entity;
+	}
+
+	private int find( int word )
+	{
+		int slot = LongIntHashMap.hash( word ) & mask;
+
+		while ( words[slot] != FREE && words[slot] != word )
+		{
+			slot = ( slot + 1 ) & mask;
+		}
+
+		return slot;
+	}
+
+	private void rehash( int capacity )
+	{
+		int[] oldWords = words;
+		String[] oldNames = names;
+		int[] oldCounts = counts;
+		int[] oldEntities = entities;
+		allocate( capacity );
+
+		for ( int i = 0; i < oldWords.length; i++ )
+		{
+			if ( oldWords[i] != FREE )
+			{
+				int slot = find( oldWords[i] );
+				words[slot] = oldWords[i];
+				names[slot] = oldNames[i];
+				counts[slot] = oldCounts[i];
+				entities[slot] = oldEntities[i];
+			}
+		}
+	}
+
+	private void allocate( int capacity )
+	{
+		words = new int[capacity];
+		names = new String[capacity];
+		counts = new int[capacity];
+		entities = new int[capacity];
+		Arrays.fill( words, FREE );
+		mask = capacity - 1;
+		resizeAt = (int) ( capacity * 0.6f );
+	}
+}
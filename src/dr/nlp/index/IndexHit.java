@@ -0,0 +1,35 @@
+package dr.nlp.index;
+
+/**
+ * A sentence matching a query, with the positions in the sentence where the term or
+ * phrase starts. Documents are numbered in the order they were added to the index,
+ * and sentences in the order they appear in the document.
+ */
+public class IndexHit
+{
+	private int document;
+	private int sentence;
+	private int[] positions;
+
+	public IndexHit( int document, int sentence, int[] positions )
+	{
+		this.document = document;
+		this.sentence = sentence;
+		this.positions = positions;
+	}
+
+	public int getDocument()
+	{
+		return document;
+	}
+
+	public int getSentence()
+	{
+		return sentence;
+	}
+
+	public int[] getPositions()
+	{
+		return positions;
+	}
+}
@@ -0,0 +1,807 @@
+package dr.nlp.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.SentenceCursor;
+import dr.nlp.data.Vocabulary;
+import dr.nlp.io.DocumentWriter;
+import dr.nlp.io.VarInt;
+import dr.nlp.metrics.Counter;
+import dr.nlp.metrics.Metrics;
+
+/**
+ * Builds a positional inverted index from analysed documents. Documents are numbered in
+ * the order they are added, and for every word the postings list the sentences it
+ * occurs in with its positions there. Postings are delta and varint encoded as they are
+ * added, so the in-memory form is already the compressed on-disk form.
+ *
+ * The postings held in memory are bounded by maxBufferedBytes. Once they reach it, they
+ * are sorted by term and spilled to a segment file, and save() merges the segments term
+ * by term into the index, so the corpus indexed can be far larger than the heap. A
+ * document may be spread over several segments. Segments are merged into larger ones
+ * whenever there would be more than maxFanIn to merge at once, so the files open in a
+ * merge stay bounded however many there are.
+ *
+ * The index file is laid out as:
+ *
+ *   header:    magic, version, number of documents, number of terms, offsets of the
+ *              term and document tables
+ *   postings:  per term, one entry per sentence (see PostingsCursor)
+ *   terms:     fixed size entries sorted by the UTF-8 bytes of the term, holding the
+ *              offset and length of the term, the offset of its postings, the number of
+ *              sentence entries and the number of documents
+ *   strings:   the UTF-8 bytes of the terms
+ *   documents: the offset of each document name, followed by the names
+ *
+ * Since it is a DocumentWriter it can be handed straight to the analysis pipeline. Call
+ * close() once done, to delete the segments.
+ */
+public class IndexWriter implements DocumentWriter, Closeable
+{
+	static final int MAGIC = 0x44524958;	// "DRIX"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int TERM_ENTRY_SIZE = 28;
+
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	// The postings of a term are held in a byte array, so are limited to 2GB
+	private static final long MAX_BUFFERED_BYTES = 1L << 30;
+
+	// A rough heap cost of a term and its postings besides the encoded bytes
+	private static final int TERM_OVERHEAD = 128;
+
+	private static Vocabulary vocabulary = Vocabulary.getInstance();
+	private static Counter spills = Metrics.getInstance().counter( "index.spills" );
+
+	private long maxBufferedBytes;
+	private int maxFanIn;
+	private File spillDirectory;
+
+	private HashMap<String, Postings> postings;
+	private long bufferedBytes;
+	private List<String> documentNames;
+	private int numTerms;
+
+	// Segments in document order, with the number of merges behind each
+	private List<File> segments;
+	private List<Integer> levels;
+
+	public IndexWriter()
+	{
+		this( 64L * 1024 * 1024, null );
+	}
+
+	/**
+	 * Segments are written to the spill directory, or the default temporary directory
+	 * if it is null.
+	 */
+	public IndexWriter( long maxBufferedBytes, File spillDirectory )
+	{
+		if ( maxBufferedBytes > MAX_BUFFERED_BYTES )
+		{
+			throw new IllegalArgumentException( "At most " + MAX_BUFFERED_BYTES + " bytes can be buffered: " + maxBufferedBytes );
+		}
+
+		this.maxBufferedBytes = maxBufferedBytes;
+		this.maxFanIn = 64;
+		this.spillDirectory = spillDirectory;
+
+		postings = new HashMap<String, Postings>();
+		documentNames = new ArrayList<String>();
+		segments = new ArrayList<File>();
+		levels = new ArrayList<Integer>();
+	}
+
+	/**
+	 * The most segments merged at once, at least 2.
+	 */
+	public synchronized void setMaxFanIn( int maxFanIn )
+	{
+		this.maxFanIn = Math.max( maxFanIn, 2 );
+	}
+
+	@Override
+	public void write( Document doc ) throws IOException
+	{
+		add( doc );
+	}
+
+	/**
+	 * Adds the sentences of a document to the index and returns its document number.
+	 */
+	public synchronized int add( Document doc ) throws IOException
+	{
+		int document = documentNames.size();
+		documentNames.add( doc.getName() );
+
+		List<Postings> touched = new ArrayList<Postings>();
+		SentenceCursor cursor = new SentenceCursor();
+
+		for ( int sentence = 0; sentence < doc.getNumSentences(); sentence++ )
+		{
+			doc.openSentence( sentence, cursor );
+
+			for ( int position = 0; cursor.hasNext(); position++ )
+			{
+				String word = vocabulary.getWord( cursor.nextWordId() );
+				Postings termPostings = postings.get( word );
+				if ( termPostings == null )
+				{
+					termPostings = new Postings();
+					postings.put( word, termPostings );
+					bufferedBytes += TERM_OVERHEAD + 2 * word.length();
+				}
+
+				if ( termPostings.numPositions == 0 )
+				{
+					touched.add( termPostings );
+				}
+				termPostings.addPosition( position );
+			}
+
+			for ( Postings termPostings : touched )
+			{
+				bufferedBytes += termPostings.flush( document, sentence );
+			}
+			touched.clear();
+
+			if ( bufferedBytes >= maxBufferedBytes )
+			{
+				spill();
+			}
+		}
+
+		return document;
+	}
+
+	public synchronized int getNumDocuments()
+	{
+		return documentNames.size();
+	}
+
+	/**
+	 * The number of terms in the index last saved.
+	 */
+	public synchronized int getNumTerms()
+	{
+		return numTerms;
+	}
+
+	/**
+	 * The number of segments waiting to be merged.
+	 */
+	public synchronized int getNumSegments()
+	{
+		return segments.size();
+	}
+
+	/**
+	 * Writes the index to a file which can be opened with InvertedIndex. The postings
+	 * in memory are spilled first, so more documents can be added and the index saved
+	 * again.
+	 */
+	public synchronized void save( File file ) throws IOException
+	{
+		spill();
+		while ( segments.size() > maxFanIn )
+		{
+			// The newest segments are the smallest
+			mergeTail( segments.size() - maxFanIn + 1 );
+		}
+
+		File terms = createSpillFile( ".terms" );
+		File strings = createSpillFile( ".strings" );
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ), 64 * 1024 ) );
+		long termTableOffset;
+		long documentTableOffset;
+		IndexOutput output;
+
+		try
+		{
+			// Filled in once the offsets are known
+			out.write( new byte[HEADER_SIZE] );
+
+			output = new IndexOutput( out, terms, strings );
+			try
+			{
+				merge( segments, output );
+			}
+			finally
+			{
+				output.close();
+			}
+
+			// The term entries hold the offsets of their strings from the first
+			termTableOffset = output.position;
+			long stringTableOffset = termTableOffset + (long) output.numTerms * TERM_ENTRY_SIZE;
+			DataInputStream in = openSpillFile( terms );
+			try
+			{
+				byte[] entry = new byte[TERM_ENTRY_SIZE - 8];
+				for ( int i = 0; i < output.numTerms; i++ )
+				{
+					out.writeLong( stringTableOffset + in.readLong() );
+					in.readFully( entry );
+					out.write( entry );
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+
+			in = openSpillFile( strings );
+			try
+			{
+				copy( in, out, output.stringLength, new byte[64 * 1024] );
+			}
+			finally
+			{
+				in.close();
+			}
+
+			documentTableOffset = stringTableOffset + output.stringLength;
+			byte[][] names = new byte[documentNames.size()][];
+			long nameOffset = documentTableOffset + 8L * names.length;
+			for ( int i = 0; i < names.length; i++ )
+			{
+				names[i] = documentNames.get( i ).getBytes( UTF8 );
+				out.writeLong( nameOffset );
+				nameOffset += VarInt.size( names[i].length ) + names[i].length;
+			}
+			for ( byte[] name : names )
+			{
+				VarInt.write( out, name.length );
+				out.write( name );
+			}
+		}
+		finally
+		{
+			out.close();
+			terms.delete();
+			strings.delete();
+		}
+
+		RandomAccessFile header = new RandomAccessFile( file, "rw" );
+		try
+		{
+			header.writeInt( MAGIC );
+			header.writeInt( VERSION );
+			header.writeInt( documentNames.size() );
+			header.writeInt( output.numTerms );
+			header.writeLong( termTableOffset );
+			header.writeLong( documentTableOffset );
+		}
+		finally
+		{
+			header.close();
+		}
+		numTerms = output.numTerms;
+	}
+
+	/**
+	 * Deletes the segments.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		for ( File segment : segments )
+		{
+			segment.delete();
+		}
+		segments.clear();
+		levels.clear();
+	}
+
+	/**
+	 * Compares as unsigned bytes, which orders UTF-8 strings by code point.
+	 */
+	static int compareBytes( byte[] a, byte[] b )
+	{
+		int length = Math.min( a.length, b.length );
+
+		for ( int i = 0; i < length; i++ )
+		{
+			int diff = ( a[i] & 0xff ) - ( b[i] & 0xff );
+			if ( diff != 0 )
+			{
+				return diff;
+			}
+		}
+
+		return a.length - b.length;
+	}
+
+	/**
+	 * Writes the postings in memory to a segment sorted by term, and empties the table.
+	 * Each segment is laid out as the number of terms followed by, per term, its UTF-8
+	 * bytes, the number of sentence entries and documents, the last document and
+	 * sentence, and the length and bytes of its postings, which are encoded as though
+	 * the segment were the whole index.
+	 */
+	private void spill() throws IOException
+	{
+		if ( postings.isEmpty() )
+		{
+			return;
+		}
+
+		final byte[][] terms = new byte[postings.size()][];
+		final Postings[] termPostings = new Postings[terms.length];
+
+		Integer[] order = new Integer[terms.length];
+		int count = 0;
+		for ( Map.Entry<String, Postings> entry : postings.entrySet() )
+		{
+			terms[count] = entry.getKey().getBytes( UTF8 );
+			termPostings[count] = entry.getValue();
+			order[count] = count;
+			count++;
+		}
+
+		Arrays.sort( order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare( Integer a, Integer b )
+			{
+				return compareBytes( terms[a], terms[b] );
+			}
+		} );
+
+		File segment = createSpillFile( ".seg" );
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( segment ), 64 * 1024 ) );
+
+		try
+		{
+			out.writeInt( terms.length );
+			for ( Integer i : order )
+			{
+				Postings p = termPostings[i];
+				writeTermHeader( out, terms[i], p.numEntries, p.numDocuments, p.lastDocument, p.lastSentence, p.bytes.size() );
+				p.bytes.writeTo( out );
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+
+		segments.add( segment );
+		levels.add( 0 );
+		spills.increment();
+		postings.clear();
+		bufferedBytes = 0;
+
+		// Merges the newest segments while there are maxFanIn from as many merges, so
+		// each level holds fewer than maxFanIn
+		int size = segments.size();
+		while ( size >= maxFanIn && levels.get( size - 1 ).equals( levels.get( size - maxFanIn ) ) )
+		{
+			mergeTail( maxFanIn );
+			size = segments.size();
+		}
+	}
+
+	// Merges the last count segments into one in their place
+	private void mergeTail( int count ) throws IOException
+	{
+		int from = segments.size() - count;
+		List<File> tail = new ArrayList<File>( segments.subList( from, segments.size() ) );
+		int level = levels.get( from ) + 1;
+
+		File merged = createSpillFile( ".seg" );
+		SegmentOutput output = new SegmentOutput( merged );
+		try
+		{
+			merge( tail, output );
+		}
+		finally
+		{
+			output.close();
+		}
+
+		for ( File segment : tail )
+		{
+			segment.delete();
+		}
+		segments.subList( from, segments.size() ).clear();
+		levels.subList( from, levels.size() ).clear();
+		segments.add( merged );
+		levels.add( level );
+	}
+
+	/**
+	 * Merges segments, which must be in document order, term by term into the output.
+	 * The postings of a term are the concatenation of its postings in each segment, with
+	 * the first entry of each after the first encoded again relative to the last entry
+	 * before it.
+	 */
+	private void merge( List<File> inputs, TermOutput output ) throws IOException
+	{
+		PriorityQueue<SegmentCursor> queue = new PriorityQueue<SegmentCursor>( Math.max( inputs.size(), 1 ), new Comparator<SegmentCursor>()
+		{
+			@Override
+			public int compare( SegmentCursor a, SegmentCursor b )
+			{
+				int diff = compareBytes( a.term, b.term );
+				return ( diff != 0 ) ? diff : a.index - b.index;
+			}
+		} );
+		List<SegmentCursor> cursors = new ArrayList<SegmentCursor>( inputs.size() );
+		List<SegmentCursor> group = new ArrayList<SegmentCursor>( inputs.size() );
+		byte[] buffer = new byte[64 * 1024];
+
+		try
+		{
+			for ( int i = 0; i < inputs.size(); i++ )
+			{
+				SegmentCursor cursor = new SegmentCursor( inputs.get( i ), i );
+				cursors.add( cursor );
+				if ( cursor.next() )
+				{
+					queue.add( cursor );
+				}
+			}
+
+			while ( !queue.isEmpty() )
+			{
+				// Every segment with the term, in document order
+				group.add( queue.poll() );
+				while ( !queue.isEmpty() && compareBytes( queue.peek().term, group.get( 0 ).term ) == 0 )
+				{
+					group.add( queue.poll() );
+				}
+
+				int numEntries = 0;
+				int numDocuments = 0;
+				long length = 0;
+				int lastDocument = -1;
+				int lastSentence = 0;
+				for ( SegmentCursor cursor : group )
+				{
+					numEntries += cursor.numEntries;
+					numDocuments += cursor.numDocuments;
+					if ( cursor.firstDocument == lastDocument )
+					{
+						// The document continues from the last segment
+						numDocuments--;
+					}
+					length += firstEntrySize( cursor, lastDocument, lastSentence ) + cursor.remaining;
+					lastDocument = cursor.lastDocument;
+					lastSentence = cursor.lastSentence;
+				}
+
+				DataOutputStream out = output.startTerm( group.get( 0 ).term, numEntries, numDocuments, lastDocument, lastSentence, length );
+				lastDocument = -1;
+				lastSentence = 0;
+				for ( SegmentCursor cursor : group )
+				{
+					if ( cursor.firstDocument == lastDocument )
+					{
+						VarInt.write( out, 0 );
+						VarInt.write( out, cursor.firstSentence - lastSentence );
+					}
+					else
+					{
+						VarInt.write( out, cursor.firstDocument - lastDocument );
+						VarInt.write( out, cursor.firstSentence );
+					}
+					copy( cursor.in, out, cursor.remaining, buffer );
+					lastDocument = cursor.lastDocument;
+					lastSentence = cursor.lastSentence;
+
+					if ( cursor.next() )
+					{
+						queue.add( cursor );
+					}
+				}
+				group.clear();
+			}
+		}
+		finally
+		{
+			for ( SegmentCursor cursor : cursors )
+			{
+				cursor.close();
+			}
+		}
+	}
+
+	private static int firstEntrySize( SegmentCursor cursor, int lastDocument, int lastSentence )
+	{
+		if ( cursor.firstDocument == lastDocument )
+		{
+			return VarInt.size( 0 ) + VarInt.size( cursor.firstSentence - lastSentence );
+		}
+		return VarInt.size( cursor.firstDocument - lastDocument ) + VarInt.size( cursor.firstSentence );
+	}
+
+	private static void writeTermHeader( DataOutputStream out, byte[] term, int numEntries, int numDocuments, int lastDocument, int lastSentence, long length ) throws IOException
+	{
+		VarInt.write( out, term.length );
+		out.write( term );
+		VarInt.write( out, numEntries );
+		VarInt.write( out, numDocuments );
+		VarInt.write( out, lastDocument );
+		VarInt.write( out, lastSentence );
+		VarInt.write( out, length );
+	}
+
+	private static void copy( InputStream in, DataOutputStream out, long length, byte[] buffer ) throws IOException
+	{
+		while ( length > 0 )
+		{
+			int n = in.read( buffer, 0, (int) Math.min( length, buffer.length ) );
+			if ( n < 0 )
+			{
+				throw new IOException( "Spill file ended " + length + " bytes early" );
+			}
+			out.write( buffer, 0, n );
+			length -= n;
+		}
+	}
+
+	private File createSpillFile( String suffix ) throws IOException
+	{
+		File file = File.createTempFile( "index", suffix, spillDirectory );
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static DataInputStream openSpillFile( File file ) throws IOException
+	{
+		return new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 64 * 1024 ) );
+	}
+
+	/**
+	 * The encoded postings of a single term, with the positions of the sentence being
+	 * added held back until the sentence is finished.
+	 */
+	private static class Postings
+	{
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream( 16 );
+		private int lastDocument = -1;
+		private int lastSentence;
+		private int numEntries;
+		private int numDocuments;
+
+		private int[] positions = new int[4];
+		private int numPositions;
+
+		public void addPosition( int position )
+		{
+			if ( numPositions == positions.length )
+			{
+				positions = Arrays.copyOf( positions, positions.length * 2 );
+			}
+			positions[numPositions++] = position;
+		}
+
+		/**
+		 * Encodes the positions of the sentence, and returns the number of bytes added.
+		 */
+		public int flush( int document, int sentence )
+		{
+			int size = bytes.size();
+
+			try
+			{
+				if ( document == lastDocument )
+				{
+					VarInt.write( bytes, 0 );
+					VarInt.write( bytes, sentence - lastSentence );
+				}
+				else
+				{
+					VarInt.write( bytes, document - lastDocument );
+					VarInt.write( bytes, sentence );
+					numDocuments++;
+				}
+
+				VarInt.write( bytes, numPositions );
+				int last = 0;
+				for ( int i = 0; i < numPositions; i++ )
+				{
+					VarInt.write( bytes, positions[i] - last );
+					last = positions[i];
+				}
+			}
+			catch( IOException e )
+			{
+				// A ByteArrayOutputStream doesn't throw
+				throw new IllegalStateException( e );
+			}
+
+			lastDocument = document;
+			lastSentence = sentence;
+			numEntries++;
+			numPositions = 0;
+
+			return bytes.size() - size;
+		}
+	}
+
+	/**
+	 * The current term of a segment, read up to the rest of its postings after their
+	 * first entry's document and sentence.
+	 */
+	private static class SegmentCursor
+	{
+		private DataInputStream in;
+		private int index;
+		private int remainingTerms;
+
+		private byte[] term;
+		private int numEntries;
+		private int numDocuments;
+		private int lastDocument;
+		private int lastSentence;
+		private int firstDocument;
+		private int firstSentence;
+		private long remaining;
+
+		public SegmentCursor( File segment, int index ) throws IOException
+		{
+			this.in = openSpillFile( segment );
+			this.index = index;
+			remainingTerms = in.readInt();
+		}
+
+		public boolean next() throws IOException
+		{
+			if ( remainingTerms == 0 )
+			{
+				return false;
+			}
+
+			remainingTerms--;
+			term = new byte[VarInt.read( in )];
+			in.readFully( term );
+			numEntries = VarInt.read( in );
+			numDocuments = VarInt.read( in );
+			lastDocument = VarInt.read( in );
+			lastSentence = VarInt.read( in );
+			long length = VarInt.readLong( in );
+
+			// The first entry is relative to no document
+			int documentDelta = VarInt.read( in );
+			firstDocument = documentDelta - 1;
+			firstSentence = VarInt.read( in );
+			remaining = length - VarInt.size( documentDelta ) - VarInt.size( firstSentence );
+			return true;
+		}
+
+		public void close()
+		{
+			try
+			{
+				in.close();
+			}
+			catch( IOException e )
+			{
+				// The segment was only read
+			}
+		}
+	}
+
+	/**
+	 * Where merged terms go: the header of each term is written, and its postings are
+	 * then written to the stream returned.
+	 */
+	private static abstract class TermOutput
+	{
+		public abstract DataOutputStream startTerm( byte[] term, int numEntries, int numDocuments, int lastDocument, int lastSentence, long length ) throws IOException;
+
+		public abstract void close() throws IOException;
+	}
+
+	private static class SegmentOutput extends TermOutput
+	{
+		private File segment;
+		private DataOutputStream out;
+		private int numTerms;
+
+		public SegmentOutput( File segment ) throws IOException
+		{
+			this.segment = segment;
+			out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( segment ), 64 * 1024 ) );
+			out.writeInt( 0 );
+		}
+
+		@Override
+		public DataOutputStream startTerm( byte[] term, int numEntries, int numDocuments, int lastDocument, int lastSentence, long length ) throws IOException
+		{
+			writeTermHeader( out, term, numEntries, numDocuments, lastDocument, lastSentence, length );
+			numTerms++;
+			return out;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			out.close();
+
+			RandomAccessFile header = new RandomAccessFile( segment, "rw" );
+			try
+			{
+				header.writeInt( numTerms );
+			}
+			finally
+			{
+				header.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes the postings to the index as they are merged, and the term entries and
+	 * strings to files of their own, as the term table follows the postings.
+	 */
+	private static class IndexOutput extends TermOutput
+	{
+		private DataOutputStream out;
+		private DataOutputStream terms;
+		private DataOutputStream strings;
+		private long position;
+		private long stringLength;
+		private int numTerms;
+
+		public IndexOutput( DataOutputStream out, File terms, File strings ) throws IOException
+		{
+			this.out = out;
+			this.terms = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( terms ), 64 * 1024 ) );
+			this.strings = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( strings ), 64 * 1024 ) );
+			this.position = HEADER_SIZE;
+		}
+
+		@Override
+		public DataOutputStream startTerm( byte[] term, int numEntries, int numDocuments, int lastDocument, int lastSentence, long length ) throws IOException
+		{
+			terms.writeLong( stringLength );
+			terms.writeInt( term.length );
+			terms.writeLong( position );
+			terms.writeInt( numEntries );
+			terms.writeInt( numDocuments );
+			strings.write( term );
+
+			stringLength += term.length;
+			position += length;
+			numTerms++;
+			return out;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				terms.close();
+			}
+			finally
+			{
+				strings.close();
+			}
+		}
+	}
+}
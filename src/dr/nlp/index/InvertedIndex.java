@@ -0,0 +1,278 @@
+package dr.nlp.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import dr.nlp.io.MappedFile;
+
+/**
+ * Queries an index file written by IndexWriter. The file is memory mapped rather than
+ * loaded, so only the pages touched by a query are read in and the index can be far
+ * larger than the heap. Terms are found by a binary search of the term table, and
+ * postings are decoded as they are walked.
+ *
+ * Terms are matched as they appear in the analysed sentences, which are lower case.
+ * Queries are safe to run from several threads at once.
+ */
+public class InvertedIndex implements Closeable
+{
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private MappedFile file;
+	private int numDocuments;
+	private int numTerms;
+	private long termTableOffset;
+	private long documentTableOffset;
+
+	public InvertedIndex( File path ) throws IOException
+	{
+		file = new MappedFile( path );
+
+		if ( file.size() < IndexWriter.HEADER_SIZE || file.getInt( 0 ) != IndexWriter.MAGIC )
+		{
+			file.close();
+			throw new IOException( "Not an index file: " + path );
+		}
+		if ( file.getInt( 4 ) != IndexWriter.VERSION )
+		{
+			file.close();
+			throw new IOException( "Unsupported index version " + file.getInt( 4 ) + ": " + path );
+		}
+
+		numDocuments = file.getInt( 8 );
+		numTerms = file.getInt( 12 );
+		termTableOffset = file.getLong( 16 );
+		documentTableOffset = file.getLong( 24 );
+	}
+
+	public int getNumDocuments()
+	{
+		return numDocuments;
+	}
+
+	public int getNumTerms()
+	{
+		return numTerms;
+	}
+
+	public String getDocumentName( int document )
+	{
+		MappedFile.Reader reader = file.reader( file.getLong( documentTableOffset + 8L * document ) );
+		byte[] name = new byte[reader.readVarInt()];
+		file.get( reader.getPosition(), name, 0, name.length );
+		return new String( name, UTF8 );
+	}
+
+	/**
+	 * The number of documents the term occurs in.
+	 */
+	public int getDocumentFrequency( String term )
+	{
+		long entry = findTerm( term );
+		return ( entry < 0 ) ? 0 : file.getInt( entry + 24 );
+	}
+
+	/**
+	 * Every sentence containing the term, in document and sentence order.
+	 */
+	public List<IndexHit> search( String term )
+	{
+		List<IndexHit> hits = new ArrayList<IndexHit>();
+		PostingsCursor cursor = postings( term );
+
+		while ( cursor != null && cursor.next() )
+		{
+			hits.add( new IndexHit( cursor.getDocument(), cursor.getSentence(), cursor.getPositions() ) );
+		}
+
+		return hits;
+	}
+
+	/**
+	 * Every sentence containing all of the terms, with the positions of the first term.
+	 */
+	public List<IndexHit> searchAll( String... terms )
+	{
+		List<IndexHit> hits = new ArrayList<IndexHit>();
+		PostingsCursor[] cursors = intersect( terms );
+
+		while ( cursors != null )
+		{
+			hits.add( new IndexHit( cursors[0].getDocument(), cursors[0].getSentence(), cursors[0].getPositions() ) );
+			cursors = advance( cursors );
+		}
+
+		return hits;
+	}
+
+	/**
+	 * Every sentence containing the terms next to each other and in order, with the
+	 * positions where the phrase starts.
+	 */
+	public List<IndexHit> searchPhrase( String... terms )
+	{
+		List<IndexHit> hits = new ArrayList<IndexHit>();
+		PostingsCursor[] cursors = intersect( terms );
+
+		while ( cursors != null )
+		{
+			int[] starts = cursors[0].getPositions();
+			int numStarts = 0;
+
+			for ( int start : starts )
+			{
+				boolean match = true;
+				for ( int i = 1; i < cursors.length && match; i++ )
+				{
+					match = cursors[i].hasPosition( start + i );
+				}
+				if ( match )
+				{
+					starts[numStarts++] = start;
+				}
+			}
+
+			if ( numStarts > 0 )
+			{
+				int[] positions = new int[numStarts];
+				System.arraycopy( starts, 0, positions, 0, numStarts );
+				hits.add( new IndexHit( cursors[0].getDocument(), cursors[0].getSentence(), positions ) );
+			}
+
+			cursors = advance( cursors );
+		}
+
+		return hits;
+	}
+
+	/**
+	 * Convenience for a phrase given as a single string of space separated terms.
+	 */
+	public List<IndexHit> searchPhrase( String phrase )
+	{
+		return searchPhrase( phrase.trim().split( "\\s+" ) );
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		file.close();
+	}
+
+	/**
+	 * Opens a cursor for each term and moves them all to the first sentence they share,
+	 * or returns null if there is none.
+	 */
+	private PostingsCursor[] intersect( String[] terms )
+	{
+		if ( terms.length == 0 )
+		{
+			return null;
+		}
+
+		PostingsCursor[] cursors = new PostingsCursor[terms.length];
+		for ( int i = 0; i < terms.length; i++ )
+		{
+			cursors[i] = postings( terms[i] );
+			if ( cursors[i] == null || !cursors[i].next() )
+			{
+				return null;
+			}
+		}
+
+		return align( cursors );
+	}
+
+	private PostingsCursor[] advance( PostingsCursor[] cursors )
+	{
+		return cursors[0].next() ? align( cursors ) : null;
+	}
+
+	/**
+	 * Leapfrogs the cursors until they are all on the same sentence.
+	 */
+	private PostingsCursor[] align( PostingsCursor[] cursors )
+	{
+		int i = 1;
+		int matched = 1;
+
+		while ( matched < cursors.length )
+		{
+			PostingsCursor leader = cursors[( i + cursors.length - 1 ) % cursors.length];
+			PostingsCursor cursor = cursors[i];
+
+			if ( !cursor.advanceTo( leader.getDocument(), leader.getSentence() ) )
+			{
+				return null;
+			}
+
+			matched = ( cursor.compareTo( leader.getDocument(), leader.getSentence() ) == 0 ) ? matched + 1 : 1;
+			i = ( i + 1 ) % cursors.length;
+		}
+
+		return cursors;
+	}
+
+	private PostingsCursor postings( String term )
+	{
+		long entry = findTerm( term );
+		if ( entry < 0 )
+		{
+			return null;
+		}
+
+		return new PostingsCursor( file.reader( file.getLong( entry + 12 ) ), file.getInt( entry + 20 ) );
+	}
+
+	/**
+	 * Returns the offset of the term's entry in the term table, or -1 if it isn't there.
+	 */
+	private long findTerm( String term )
+	{
+		byte[] key = term.getBytes( UTF8 );
+		int low = 0;
+		int high = numTerms - 1;
+
+		while ( low <= high )
+		{
+			int middle = ( low + high ) >>> 1;
+			long entry = termTableOffset + (long) middle * IndexWriter.TERM_ENTRY_SIZE;
+			int cmp = compareTerm( file.getLong( entry ), file.getInt( entry + 8 ), key );
+
+			if ( cmp < 0 )
+			{
+				low = middle + 1;
+			}
+			else if ( cmp > 0 )
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return entry;
+			}
+		}
+
+		return -1;
+	}
+
+	private int compareTerm( long offset, int length, byte[] key )
+	{
+		int common = Math.min( length, key.length );
+
+		for ( int i = 0; i < common; i++ )
+		{
+			int diff = ( file.get( offset + i ) & 0xff ) - ( key[i] & 0xff );
+			if ( diff != 0 )
+			{
+				return diff;
+			}
+		}
+
+		return length - key.length;
+	}
+}
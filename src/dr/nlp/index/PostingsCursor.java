@@ -0,0 +1,115 @@
+package dr.nlp.index;
+
+import java.util.Arrays;
+
+import dr.nlp.io.MappedFile;
+
+/**
+ * Decodes the postings of a single term straight from the mapped index file, one
+ * sentence entry at a time. Each entry holds the document delta (0 for the same
+ * document), the sentence number (a delta within the same document), the number of
+ * positions, and the positions as deltas.
+ */
+class PostingsCursor
+{
+	private MappedFile.Reader reader;
+	private int remaining;
+	private int document;
+	private int sentence;
+	private int[] positions;
+	private int numPositions;
+
+	public PostingsCursor( MappedFile.Reader reader, int numEntries )
+	{
+		this.reader = reader;
+		this.remaining = numEntries;
+		this.document = -1;
+		this.positions = new int[8];
+	}
+
+	public boolean next()
+	{
+		if ( remaining == 0 )
+		{
+			return false;
+		}
+		remaining--;
+
+		int documentDelta = reader.readVarInt();
+		if ( documentDelta == 0 )
+		{
+			sentence += reader.readVarInt();
+		}
+		else
+		{
+			document += documentDelta;
+			sentence = reader.readVarInt();
+		}
+
+		numPositions = reader.readVarInt();
+		if ( numPositions > positions.length )
+		{
+			positions = new int[Math.max( numPositions, positions.length * 2 )];
+		}
+
+		int position = 0;
+		for ( int i = 0; i < numPositions; i++ )
+		{
+			position += reader.readVarInt();
+			positions[i] = position;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Moves forward to the first entry at or after the given sentence, returning false
+	 * if the postings run out first.
+	 */
+	public boolean advanceTo( int targetDocument, int targetSentence )
+	{
+		while ( compareTo( targetDocument, targetSentence ) < 0 )
+		{
+			if ( !next() )
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public int compareTo( int otherDocument, int otherSentence )
+	{
+		if ( document != otherDocument )
+		{
+			return ( document < otherDocument ) ? -1 : 1;
+		}
+		return ( sentence < otherSentence ) ? -1 : ( ( sentence == otherSentence ) ? 0 : 1 );
+	}
+
+	public int getDocument()
+	{
+		return document;
+	}
+
+	public int getSentence()
+	{
+		return sentence;
+	}
+
+	public int getNumPositions()
+	{
+		return numPositions;
+	}
+
+	public boolean hasPosition( int position )
+	{
+		return Arrays.binarySearch( positions, 0, numPositions, position ) >= 0;
+	}
+
+	public int[] getPositions()
+	{
+		return Arrays.copyOf( positions, numPositions );
+	}
+}
@@ -0,0 +1,245 @@
+package dr.nlp.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import dr.nlp.data.AnalysedSentence;
+import dr.nlp.data.Document;
+import dr.nlp.data.Vocabulary;
+import dr.nlp.data.WordStatistics;
+
+/**
+ * Reads a corpus file written by CorpusWriter, one Document at a time. Each record is
+ * read whole and decoded from memory, and words go straight to their vocabulary ids,
+ * so no Word or String is created per token.
+ *
+ * The sentences are replayed into the document with the entities of each word tagged
+ * on its first occurrence, which leaves the word statistics exactly as they were
+ * written, including their order. The counts in the record are checked against the
+ * statistics the sentences add up to.
+ */
+public class CorpusReader implements Closeable
+{
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private static Vocabulary vocabulary = Vocabulary.getInstance();
+
+	private DataInputStream in;
+	private byte[] record;
+
+	// Vocabulary ids and entity names by corpus id
+	private int[] words;
+	private int numWords;
+	private String[] entityNames;
+	private int numEntityNames;
+
+	// Per corpus word, the record it was last tagged in and its entities there
+	private int[] tagged;
+	private String[][] wordEntities;
+	private int numRecords;
+
+	// The statistics and entity matches of the current record
+	private int[] statWords;
+	private int[] statCounts;
+	private String[] matchEntities;
+	private int[] matchCounts;
+
+	private AnalysedSentence sentence;
+
+	public CorpusReader( File file ) throws IOException
+	{
+		in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 64 * 1024 ) );
+
+		try
+		{
+			if ( in.readInt() != CorpusWriter.MAGIC )
+			{
+				throw new IOException( "Not a corpus file: " + file );
+			}
+			if ( in.readInt() != CorpusWriter.VERSION )
+			{
+				throw new IOException( "Unsupported corpus version: " + file );
+			}
+		}
+		catch( IOException e )
+		{
+			in.close();
+			throw e;
+		}
+
+		record = new byte[64 * 1024];
+		words = new int[4096];
+		entityNames = new String[256];
+		tagged = new int[4096];
+		wordEntities = new String[4096][];
+		statWords = new int[4096];
+		statCounts = new int[4096];
+		matchEntities = new String[64];
+		matchCounts = new int[64];
+		sentence = new AnalysedSentence( 64 );
+	}
+
+	/**
+	 * Returns the next document, or null at the end of the corpus.
+	 */
+	public Document next() throws IOException
+	{
+		int length;
+		try
+		{
+			length = in.readInt();
+		}
+		catch( EOFException e )
+		{
+			return null;
+		}
+
+		if ( length > record.length )
+		{
+			record = new byte[Math.max( length, record.length * 2 )];
+		}
+		in.readFully( record, 0, length );
+		ByteBuffer buffer = ByteBuffer.wrap( record, 0, length );
+
+		try
+		{
+			return decode( buffer );
+		}
+		catch( RuntimeException e )
+		{
+			throw new IOException( "Corrupt corpus record " + numRecords + ": " + e, e );
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	private Document decode( ByteBuffer buffer ) throws IOException
+	{
+		int recordNumber = ++numRecords;
+		Document doc = new Document( readString( buffer ) );
+
+		for ( int i = VarInt.read( buffer ); i > 0; i-- )
+		{
+			addWord( vocabulary.getId( readString( buffer ) ) );
+		}
+		for ( int i = VarInt.read( buffer ); i > 0; i-- )
+		{
+			if ( numEntityNames == entityNames.length )
+			{
+				entityNames = Arrays.copyOf( entityNames, numEntityNames * 2 );
+			}
+			entityNames[numEntityNames++] = readString( buffer );
+		}
+
+		// The entities are tagged as the sentences are added, and the counts are kept to
+		// check the statistics the sentences add up to
+		int numStatistics = VarInt.read( buffer );
+		if ( numStatistics > statWords.length )
+		{
+			statWords = new int[Math.max( numStatistics, statWords.length * 2 )];
+			statCounts = new int[statWords.length];
+		}
+		for ( int i = 0; i < numStatistics; i++ )
+		{
+			int word = VarInt.read( buffer );
+			statWords[i] = word;
+			statCounts[i] = VarInt.read( buffer );
+
+			int numEntities = VarInt.read( buffer );
+			if ( numEntities > 0 )
+			{
+				String[] names = new String[numEntities];
+				for ( int e = 0; e < numEntities; e++ )
+				{
+					names[e] = entityNames[VarInt.read( buffer )];
+				}
+				tagged[word] = recordNumber;
+				wordEntities[word] = names;
+			}
+		}
+
+		int numMatched = VarInt.read( buffer );
+		if ( numMatched > matchEntities.length )
+		{
+			matchEntities = new String[Math.max( numMatched, matchEntities.length * 2 )];
+			matchCounts = new int[matchEntities.length];
+		}
+		for ( int i = 0; i < numMatched; i++ )
+		{
+			matchEntities[i] = entityNames[VarInt.read( buffer )];
+			matchCounts[i] = VarInt.read( buffer );
+		}
+
+		for ( int s = VarInt.read( buffer ); s > 0; s-- )
+		{
+			sentence.clear();
+			int length = VarInt.read( buffer );
+			for ( int i = 0; i < length; i++ )
+			{
+				int word = VarInt.read( buffer );
+				sentence.addWord( words[word] );
+				if ( tagged[word] == recordNumber )
+				{
+					for ( String entity : wordEntities[word] )
+					{
+						sentence.addEntity( i, entity );
+					}
+					tagged[word] = 0;
+					wordEntities[word] = null;
+				}
+			}
+			doc.addSentence( sentence );
+		}
+		for ( int i = 0; i < numMatched; i++ )
+		{
+			doc.addEntityMatches( matchEntities[i], matchCounts[i] );
+		}
+
+		WordStatistics statistics = doc.getWordStatistics();
+		if ( statistics.size() != numStatistics )
+		{
+			throw new IOException( "Document " + doc.getName() + " has " + statistics.size() + " words, expected " + numStatistics );
+		}
+		for ( int i = 0; i < numStatistics; i++ )
+		{
+			int word = words[statWords[i]];
+			if ( statistics.getCount( word ) != statCounts[i] )
+			{
+				throw new IOException( "Count of '" + vocabulary.getWord( word ) + "' in document " + doc.getName() + " is " + statistics.getCount( word ) + ", expected " + statCounts[i] );
+			}
+		}
+
+		return doc;
+	}
+
+	private void addWord( int id )
+	{
+		if ( numWords == words.length )
+		{
+			words = Arrays.copyOf( words, numWords * 2 );
+			tagged = Arrays.copyOf( tagged, numWords * 2 );
+			wordEntities = Arrays.copyOf( wordEntities, numWords * 2 );
+		}
+		words[numWords++] = id;
+	}
+
+	private static String readString( ByteBuffer buffer )
+	{
+		int length = VarInt.read( buffer );
+		String s = new String( buffer.array(), buffer.position(), length, UTF8 );
+		buffer.position( buffer.position() + length );
+		return s;
+	}
+}
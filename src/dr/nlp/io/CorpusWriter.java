@@ -0,0 +1,167 @@
+package dr.nlp.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.SentenceCursor;
+import dr.nlp.data.Vocabulary;
+import dr.nlp.data.WordStatistics;
+import dr.nlp.util.LongIntHashMap;
+
+/**
+ * Writes analysed documents to a single binary corpus file, a compact alternative to
+ * the XML which CorpusReader reads back into Document objects. The file is a header
+ * followed by one record per document, each prefixed with its length in bytes:
+ *
+ *   name:       varint length prefixed UTF-8, as are all strings
+ *   vocabulary: the words and entities first used by this document, which are given
+ *               the next corpus ids, so the vocabulary table is spread over the records
+ *               and each word is stored once per corpus
+ *   statistics: per distinct word in word map order, its id, count and entity ids
+ *   matches:    per entity of the document, its id and the number of times matched
+ *   sentences:  per sentence its length and its word ids
+ *
+ * All numbers are varints. Words are stored as the analysis leaves them, lower case,
+ * so a word is its own name in the statistics.
+ */
+public class CorpusWriter implements DocumentWriter, Closeable
+{
+	static final int MAGIC = 0x44524243;	// "DRBC"
+	static final int VERSION = 2;
+
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private static Vocabulary vocabulary = Vocabulary.getInstance();
+
+	private DataOutputStream out;
+	private ByteArrayOutputStream record;
+	private SentenceCursor cursor;
+	private int numDocuments;
+
+	// Corpus ids by vocabulary id, and by entity name
+	private LongIntHashMap words;
+	private Vocabulary entities;
+	private int numWords;
+
+	public CorpusWriter( File file ) throws IOException
+	{
+		out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ), 64 * 1024 ) );
+		out.writeInt( MAGIC );
+		out.writeInt( VERSION );
+
+		record = new ByteArrayOutputStream( 64 * 1024 );
+		cursor = new SentenceCursor();
+		words = new LongIntHashMap( 4096, -1 );
+		entities = new Vocabulary();
+	}
+
+	@Override
+	public synchronized void write( Document doc ) throws IOException
+	{
+		WordStatistics statistics = doc.getWordStatistics();
+		record.reset();
+
+		writeString( record, doc.getName() );
+
+		// New words, in the order the statistics will list them
+		int newWords = 0;
+		int newEntities = entities.size();
+		for ( int slot = 0; slot < statistics.capacity(); slot++ )
+		{
+			int word = statistics.wordIdAt( slot );
+			if ( word >= 0 )
+			{
+				if ( words.get( word ) < 0 )
+				{
+					newWords++;
+				}
+			}
+		}
+		for ( int id = 0; id < statistics.getNumEntities(); id++ )
+		{
+			entities.getId( statistics.entityAt( id ) );
+		}
+
+		VarInt.write( record, newWords );
+		for ( int slot = 0; slot < statistics.capacity(); slot++ )
+		{
+			int word = statistics.wordIdAt( slot );
+			if ( word >= 0 && words.get( word ) < 0 )
+			{
+				words.put( word, numWords++ );
+				writeString( record, vocabulary.getWord( word ) );
+			}
+		}
+
+		VarInt.write( record, entities.size() - newEntities );
+		for ( int id = newEntities; id < entities.size(); id++ )
+		{
+			writeString( record, entities.getWord( id ) );
+		}
+
+		VarInt.write( record, statistics.size() );
+		for ( int slot = 0; slot < statistics.capacity(); slot++ )
+		{
+			int word = statistics.wordIdAt( slot );
+			if ( word >= 0 )
+			{
+				List<String> wordEntities = statistics.entitiesAt( slot );
+				VarInt.write( record, words.get( word ) );
+				VarInt.write( record, statistics.countAt( slot ) );
+				VarInt.write( record, wordEntities.size() );
+				for ( String entity : wordEntities )
+				{
+					VarInt.write( record, entities.lookup( entity ) );
+				}
+			}
+		}
+
+		VarInt.write( record, statistics.getNumEntities() );
+		for ( int id = 0; id < statistics.getNumEntities(); id++ )
+		{
+			VarInt.write( record, entities.lookup( statistics.entityAt( id ) ) );
+			VarInt.write( record, statistics.matchesAt( id ) );
+		}
+
+		VarInt.write( record, doc.getNumSentences() );
+		for ( int s = 0; s < doc.getNumSentences(); s++ )
+		{
+			doc.openSentence( s, cursor );
+			VarInt.write( record, cursor.getNumWords() );
+			while ( cursor.hasNext() )
+			{
+				VarInt.write( record, words.get( cursor.nextWordId() ) );
+			}
+		}
+
+		out.writeInt( record.size() );
+		record.writeTo( out );
+		numDocuments++;
+	}
+
+	public synchronized int getNumDocuments()
+	{
+		return numDocuments;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		out.close();
+	}
+
+	private static void writeString( ByteArrayOutputStream out, String s ) throws IOException
+	{
+		byte[] bytes = s.getBytes( UTF8 );
+		VarInt.write( out, bytes.length );
+		out.write( bytes );
+	}
+}
@@ -0,0 +1,12 @@
+package dr.nlp.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface DocumentReader extends Closeable
+{
+	/**
+	 * Returns the next document, or null when there are no more documents.
+	 */
+	public SourceDocument next() throws IOException;
+}
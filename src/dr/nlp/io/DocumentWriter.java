@@ -0,0 +1,10 @@
+package dr.nlp.io;
+
+import java.io.IOException;
+
+import dr.nlp.data.Document;
+
+public interface DocumentWriter
+{
+	public void write( Document doc ) throws IOException;
+}
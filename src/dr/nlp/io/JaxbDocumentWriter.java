@@ -0,0 +1,23 @@
+package dr.nlp.io;
+
+import java.io.IOException;
+
+import javax.xml.bind.JAXBException;
+
+import dr.nlp.data.Document;
+
+public class JaxbDocumentWriter implements DocumentWriter
+{
+	@Override
+	public void write( Document doc ) throws IOException
+	{
+		try
+		{
+			doc.toXml();
+		}
+		catch( JAXBException e )
+		{
+			throw new IOException( "Unable to print XML document: " + e.getMessage(), e );
+		}
+	}
+}
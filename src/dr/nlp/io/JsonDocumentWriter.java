@@ -0,0 +1,151 @@
+package dr.nlp.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.SentenceCursor;
+import dr.nlp.data.Word;
+
+/**
+ * Writes documents to name.json in a compact form of the XML: the sentences as arrays of
+ * words, and the word map as an object keyed by word holding the count and, if there are
+ * any, the entities. For example
+ *
+ *   {"name":"d01","sentences":[["the","war"]],"words":{"the":{"count":1},
+ *    "war":{"count":1,"entities":["World War"]}}}
+ */
+public class JsonDocumentWriter implements DocumentWriter
+{
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	@Override
+	public void write( Document doc ) throws IOException
+	{
+		OutputStream out = new FileOutputStream( new File( doc.getName() + ".json" ) );
+		try
+		{
+			writeTo( doc, out );
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a finished document as JSON to the stream, which is flushed but left open.
+	 */
+	public static void writeTo( Document doc, final OutputStream out ) throws IOException
+	{
+		Writer json = new BufferedWriter( new OutputStreamWriter( new FilterOutputStream( out )
+		{
+			@Override
+			public void write( byte[] b, int off, int len ) throws IOException
+			{
+				out.write( b, off, len );
+			}
+		}, UTF8 ), 16 * 1024 );
+
+		json.write( "{\"name\":" );
+		writeString( json, doc.getName() );
+
+		json.write( ",\"sentences\":[" );
+		SentenceCursor cursor = new SentenceCursor();
+		for ( int s = 0; s < doc.getNumSentences(); s++ )
+		{
+			doc.openSentence( s, cursor );
+			json.write( ( s == 0 ) ? "[" : ",[" );
+			for ( int i = 0; cursor.hasNext(); i++ )
+			{
+				if ( i > 0 )
+				{
+					json.write( ',' );
+				}
+				writeString( json, doc.getVocabulary().getWord( cursor.nextWordId() ) );
+			}
+			json.write( ']' );
+		}
+
+		json.write( "],\"words\":{" );
+		boolean first = true;
+		for ( Map.Entry<String, Word> entry : doc.getWordMap().entrySet() )
+		{
+			if ( !first )
+			{
+				json.write( ',' );
+			}
+			first = false;
+
+			writeString( json, entry.getKey() );
+			json.write( ":{\"count\":" );
+			json.write( Integer.toString( entry.getValue().getCount() ) );
+
+			List<String> entities = entry.getValue().getNamedEntities();
+			if ( !entities.isEmpty() )
+			{
+				json.write( ",\"entities\":[" );
+				for ( int i = 0; i < entities.size(); i++ )
+				{
+					if ( i > 0 )
+					{
+						json.write( ',' );
+					}
+					writeString( json, entities.get( i ) );
+				}
+				json.write( ']' );
+			}
+			json.write( '}' );
+		}
+		json.write( "}}\n" );
+		json.flush();
+	}
+
+	private static void writeString( Writer json, String s ) throws IOException
+	{
+		json.write( '"' );
+
+		for ( int i = 0; i < s.length(); i++ )
+		{
+			char c = s.charAt( i );
+			switch ( c )
+			{
+			case '"':
+				json.write( "\\\"" );
+				break;
+			case '\\':
+				json.write( "\\\\" );
+				break;
+			case '\n':
+				json.write( "\\n" );
+				break;
+			case '\r':
+				json.write( "\\r" );
+				break;
+			case '\t':
+				json.write( "\\t" );
+				break;
+			default:
+				if ( c < 0x20 )
+				{
+					json.write( String.format( "\\u%04x", (int) c ) );
+				}
+				else
+				{
+					json.write( c );
+				}
+			}
+		}
+
+		json.write( '"' );
+	}
+}
@@ -0,0 +1,160 @@
+package dr.nlp.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a plain text file, or every text file under a directory, by memory mapping it
+ * and decoding the UTF-8 straight from the mapping into the CharBuffer handed to the
+ * analysis. There is no line splitting, so the text keeps its line breaks exactly. Each
+ * file's channel is closed once it is decoded, and only the CharBuffer is handed on.
+ *
+ * Directories are walked in name order and, as with zip files, only .txt files are read
+ * and names starting with an underscore are skipped. Documents are named by their path,
+ * so nlp_data/d01.txt is written to nlp_data/d01.txt.xml.
+ */
+public class MappedDocumentReader implements DocumentReader
+{
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private List<File> files;
+	private int next;
+	private CharsetDecoder decoder;
+
+	public MappedDocumentReader( String path ) throws IOException
+	{
+		this( new File( path ) );
+	}
+
+	public MappedDocumentReader( File path ) throws IOException
+	{
+		if ( !path.exists() )
+		{
+			throw new IOException( "No such file or directory: " + path );
+		}
+
+		files = new ArrayList<File>();
+		if ( path.isDirectory() )
+		{
+			addFiles( path );
+		}
+		else
+		{
+			files.add( path );
+		}
+
+		next = 0;
+		decoder = UTF8.newDecoder()
+				.onMalformedInput( CodingErrorAction.REPLACE )
+				.onUnmappableCharacter( CodingErrorAction.REPLACE );
+	}
+
+	public int getNumDocuments()
+	{
+		return files.size();
+	}
+
+	@Override
+	public SourceDocument next() throws IOException
+	{
+		if ( next == files.size() )
+		{
+			return null;
+		}
+
+		File file = files.get( next++ );
+		return new SourceDocument( file.getPath(), read( file ) );
+	}
+
+	@Override
+	public void close()
+	{
+		next = files.size();
+	}
+
+	private CharBuffer read( File file ) throws IOException
+	{
+		FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+
+		try
+		{
+			long size = channel.size();
+			if ( size > Integer.MAX_VALUE )
+			{
+				throw new IOException( "Too large to analyse as one document: " + file );
+			}
+
+			MappedByteBuffer bytes = channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+
+			// UTF-8 never decodes to more chars than it has bytes
+			CharBuffer text = CharBuffer.allocate( (int) size );
+			decoder.reset();
+			CoderResult result = decoder.decode( bytes, text, true );
+			if ( result.isError() )
+			{
+				result.throwException();
+			}
+			decoder.flush( text );
+			text.flip();
+
+			// Nothing refers to the mapping once it is decoded, so it is released when the
+			// buffer is collected rather than living as long as the document
+			bytes = null;
+
+			// Skip a byte order mark
+			if ( text.hasRemaining() && text.charAt( 0 ) == '\uFEFF' )
+			{
+				text.position( 1 );
+			}
+
+			return text;
+		}
+		catch( CharacterCodingException e )
+		{
+			throw new IOException( "Unable to decode " + file + ": " + e.getMessage(), e );
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private void addFiles( File directory ) throws IOException
+	{
+		File[] children = directory.listFiles();
+		if ( children == null )
+		{
+			throw new IOException( "Unable to list " + directory );
+		}
+		Arrays.sort( children );
+
+		for ( File child : children )
+		{
+			if ( child.getName().startsWith( "_" ) )
+			{
+				continue;
+			}
+
+			if ( child.isDirectory() )
+			{
+				addFiles( child );
+			}
+			else if ( child.getName().endsWith( ".txt" ) )
+			{
+				files.add( child );
+			}
+		}
+	}
+}
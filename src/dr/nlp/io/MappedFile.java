@@ -0,0 +1,147 @@
+package dr.nlp.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only memory mapping of a whole file. A single MappedByteBuffer can't exceed
+ * 2GB, so the file is mapped as a number of 1GB segments and addressed by long offsets.
+ * All reads are absolute, so one mapping can be shared by any number of threads.
+ */
+public class MappedFile implements Closeable
+{
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private RandomAccessFile file;
+	private MappedByteBuffer[] segments;
+	private long size;
+
+	public MappedFile( File path ) throws IOException
+	{
+		file = new RandomAccessFile( path, "r" );
+		FileChannel channel = file.getChannel();
+		size = channel.size();
+
+		segments = new MappedByteBuffer[(int) ( ( size + SEGMENT_SIZE - 1 ) >>> SEGMENT_BITS )];
+		for ( int i = 0; i < segments.length; i++ )
+		{
+			long start = (long) i << SEGMENT_BITS;
+			segments[i] = channel.map( FileChannel.MapMode.READ_ONLY, start, Math.min( SEGMENT_SIZE, size - start ) );
+		}
+	}
+
+	public long size()
+	{
+		return size;
+	}
+
+	public byte get( long position )
+	{
+		return segments[(int) ( position >>> SEGMENT_BITS )].get( (int) ( position & SEGMENT_MASK ) );
+	}
+
+	public int getInt( long position )
+	{
+		int offset = (int) ( position & SEGMENT_MASK );
+		if ( offset <= SEGMENT_SIZE - 4 )
+		{
+			return segments[(int) ( position >>> SEGMENT_BITS )].getInt( offset );
+		}
+
+		return ( ( get( position ) & 0xff ) << 24 ) | ( ( get( position + 1 ) & 0xff ) << 16 )
+				| ( ( get( position + 2 ) & 0xff ) << 8 ) | ( get( position + 3 ) & 0xff );
+	}
+
+	public char getChar( long position )
+	{
+		int offset = (int) ( position & SEGMENT_MASK );
+		if ( offset <= SEGMENT_SIZE - 2 )
+		{
+			return segments[(int) ( position >>> SEGMENT_BITS )].getChar( offset );
+		}
+
+		return (char) ( ( ( get( position ) & 0xff ) << 8 ) | ( get( position + 1 ) & 0xff ) );
+	}
+
+	public long getLong( long position )
+	{
+		return ( (long) getInt( position ) << 32 ) | ( getInt( position + 4 ) & 0xffffffffL );
+	}
+
+	public void get( long position, byte[] dst, int offset, int length )
+	{
+		for ( int i = 0; i < length; i++ )
+		{
+			dst[offset + i] = get( position + i );
+		}
+	}
+
+	public Reader reader( long position )
+	{
+		return new Reader( position );
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		// The mappings themselves are released when they are garbage collected
+		segments = new MappedByteBuffer[0];
+		file.close();
+	}
+
+	/**
+	 * A sequential reader over the mapping, for decoding variable length data.
+	 */
+	public class Reader
+	{
+		private long position;
+
+		private Reader( long position )
+		{
+			this.position = position;
+		}
+
+		public long getPosition()
+		{
+			return position;
+		}
+
+		public void seek( long position )
+		{
+			this.position = position;
+		}
+
+		public byte readByte()
+		{
+			return get( position++ );
+		}
+
+		public int readInt()
+		{
+			int value = getInt( position );
+			position += 4;
+			return value;
+		}
+
+		public int readVarInt()
+		{
+			int value = 0;
+
+			for ( int shift = 0; ; shift += 7 )
+			{
+				byte b = get( position++ );
+				value |= ( b & 0x7f ) << shift;
+				if ( b >= 0 )
+				{
+					return value;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package dr.nlp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the text entries of a zip file, inflating several entries at once. The entries
+ * are found through the central directory, so each can be opened independently, and a
+ * pool of threads inflates and decodes the entries ahead of the caller. Documents are
+ * still returned in the order of the archive.
+ *
+ * The number of entries read ahead is bounded, so a large archive isn't held in memory
+ * when the caller is slower than the readers. Entries are filtered as by
+ * ZipDocumentReader.
+ */
+public class ParallelZipDocumentReader implements DocumentReader
+{
+	private ZipFile zipFile;
+	private List<ZipEntry> entries;
+	private int nextEntry;
+	private int readAhead;
+
+	private ExecutorService pool;
+	private ArrayDeque<Future<SourceDocument>> pending;
+
+	public ParallelZipDocumentReader( String zipPath ) throws IOException
+	{
+		this( zipPath, Runtime.getRuntime().availableProcessors() );
+	}
+
+	public ParallelZipDocumentReader( String zipPath, int threads ) throws IOException
+	{
+		zipFile = new ZipFile( zipPath );
+		entries = new ArrayList<ZipEntry>();
+
+		for ( Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); )
+		{
+			ZipEntry zipEntry = e.nextElement();
+			if ( !zipEntry.isDirectory() && ZipDocumentReader.isTextEntry( zipEntry.getName() ) )
+			{
+				entries.add( zipEntry );
+			}
+		}
+
+		readAhead = 2 * threads;
+		pending = new ArrayDeque<Future<SourceDocument>>();
+		pool = Executors.newFixedThreadPool( threads, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( Runnable r )
+			{
+				Thread thread = new Thread( r, "zip-reader" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+	}
+
+	public int getNumDocuments()
+	{
+		return entries.size();
+	}
+
+	@Override
+	public SourceDocument next() throws IOException
+	{
+		while ( pending.size() < readAhead && nextEntry < entries.size() )
+		{
+			pending.add( pool.submit( new ReadTask( entries.get( nextEntry++ ) ) ) );
+		}
+
+		Future<SourceDocument> head = pending.poll();
+		if ( head == null )
+		{
+			return null;
+		}
+
+		try
+		{
+			return head.get();
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while reading " + zipFile.getName(), e );
+		}
+		catch( ExecutionException e )
+		{
+			Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+			{
+				throw (IOException) cause;
+			}
+			throw new IOException( "Unable to read " + zipFile.getName() + ": " + cause, cause );
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		pool.shutdownNow();
+		pending.clear();
+		zipFile.close();
+	}
+
+	private class ReadTask implements Callable<SourceDocument>
+	{
+		private ZipEntry zipEntry;
+
+		public ReadTask( ZipEntry zipEntry )
+		{
+			this.zipEntry = zipEntry;
+		}
+
+		@Override
+		public SourceDocument call() throws IOException
+		{
+			InputStream in = zipFile.getInputStream( zipEntry );
+
+			try
+			{
+				return new SourceDocument( zipEntry.getName(), ZipDocumentReader.readText( in, zipEntry ) );
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,457 @@
+package dr.nlp.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dr.nlp.data.AnalysedSentence;
+import dr.nlp.data.Document;
+import dr.nlp.data.SentenceCursor;
+import dr.nlp.data.Vocabulary;
+import dr.nlp.data.WordStatistics;
+import dr.nlp.metrics.Counter;
+import dr.nlp.metrics.Metrics;
+import dr.nlp.util.LongIntHashMap;
+
+/**
+ * A persistent cache of analysis results, so that documents which haven't changed since
+ * a previous run needn't be analysed again. Entries are keyed by a SHA-256 hash of the
+ * document text together with version strings for whatever produced the result, such
+ * as the analyser, the tokeniser and the gazetteer; changing any of them changes every
+ * key, and the old entries simply age out.
+ *
+ * Each entry is a file in the cache directory holding the distinct words of the
+ * document with their entities, the sentences as indexes into those words, and the
+ * number of matches of each entity. Loading
+ * an entry replays the sentences into a document, which leaves it exactly as the
+ * analysis did, and lets a streaming writer see the sentences as they are added.
+ *
+ * The directory is bounded in size. Entries are evicted least recently used first,
+ * where use is tracked across runs through the modification time of the files. Entries
+ * are written to a temporary file and renamed, so a crash never leaves a partial entry
+ * behind. A cache that can't be read or written only costs the analysis it would have
+ * saved, so such errors are counted rather than thrown.
+ */
+public class ResultCache
+{
+	static final int MAGIC = 0x44525243;	// "DRRC"
+	static final int VERSION = 2;
+
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+	private static final String SUFFIX = ".doc";
+
+	private static Counter hits     = Metrics.getInstance().counter( "cache.hits" );
+	private static Counter misses   = Metrics.getInstance().counter( "cache.misses" );
+	private static Counter failures = Metrics.getInstance().counter( "cache.failures" );
+
+	private static Vocabulary vocabulary = Vocabulary.getInstance();
+
+	private File directory;
+	private long maxBytes;
+	private long totalBytes;
+
+	// Entry sizes by key, in order of use
+	private LinkedHashMap<String, Long> entries;
+
+	public ResultCache( File directory, long maxBytes ) throws IOException
+	{
+		if ( !directory.isDirectory() && !directory.mkdirs() )
+		{
+			throw new IOException( "Unable to create cache directory " + directory );
+		}
+
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		entries = new LinkedHashMap<String, Long>( 16, 0.75f, true );
+
+		File[] files = directory.listFiles();
+		if ( files == null )
+		{
+			throw new IOException( "Unable to list " + directory );
+		}
+
+		Arrays.sort( files, new Comparator<File>()
+		{
+			@Override
+			public int compare( File a, File b )
+			{
+				return Long.compare( a.lastModified(), b.lastModified() );
+			}
+		} );
+
+		for ( File file : files )
+		{
+			String name = file.getName();
+			if ( name.endsWith( SUFFIX ) )
+			{
+				entries.put( name.substring( 0, name.length() - SUFFIX.length() ), file.length() );
+				totalBytes += file.length();
+			}
+			else if ( name.endsWith( ".tmp" ) )
+			{
+				// Left behind by a run that didn't finish writing it
+				file.delete();
+			}
+		}
+
+		evict();
+	}
+
+	/**
+	 * The cache key of the text as analysed by the given versions of the analysis.
+	 */
+	public static String key( CharSequence text, String... versions )
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance( "SHA-256" );
+		}
+		catch( NoSuchAlgorithmException e )
+		{
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException( e );
+		}
+
+		update( digest, "cache/" + VERSION );
+		for ( String version : versions )
+		{
+			update( digest, version );
+		}
+		update( digest, text );
+
+		StringBuilder key = new StringBuilder( 64 );
+		for ( byte b : digest.digest() )
+		{
+			key.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+		}
+
+		return key.toString();
+	}
+
+	/**
+	 * Adds the cached sentences to the document and returns true, or returns false if
+	 * there is no usable entry for the key.
+	 */
+	public boolean load( String key, Document doc )
+	{
+		File file;
+		synchronized ( this )
+		{
+			if ( entries.get( key ) == null )
+			{
+				misses.increment();
+				return false;
+			}
+			file = entryFile( key );
+		}
+
+		int[] ids;
+		String[][] entities;
+		int[][] sentences;
+		String[] matchEntities;
+		int[] matchCounts;
+
+		// The whole entry is decoded before anything is added to the document, so a
+		// damaged entry leaves it untouched
+		try
+		{
+			ByteBuffer in = ByteBuffer.wrap( Files.readAllBytes( file.toPath() ) );
+			if ( in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION )
+			{
+				throw new IOException( "Not a cache entry: " + file );
+			}
+
+			ids = new int[VarInt.read( in )];
+			entities = new String[ids.length][];
+			for ( int w = 0; w < ids.length; w++ )
+			{
+				ids[w] = vocabulary.getId( readString( in ) );
+				entities[w] = new String[VarInt.read( in )];
+				for ( int e = 0; e < entities[w].length; e++ )
+				{
+					entities[w][e] = readString( in );
+				}
+			}
+
+			sentences = new int[VarInt.read( in )][];
+			for ( int s = 0; s < sentences.length; s++ )
+			{
+				sentences[s] = new int[VarInt.read( in )];
+				for ( int i = 0; i < sentences[s].length; i++ )
+				{
+					sentences[s][i] = VarInt.read( in );
+				}
+			}
+
+			matchEntities = new String[VarInt.read( in )];
+			matchCounts = new int[matchEntities.length];
+			for ( int e = 0; e < matchEntities.length; e++ )
+			{
+				matchEntities[e] = readString( in );
+				matchCounts[e] = VarInt.read( in );
+			}
+		}
+		catch( IOException e )
+		{
+			return discard( key );
+		}
+		catch( RuntimeException e )
+		{
+			// A truncated or garbled entry
+			return discard( key );
+		}
+
+		// Tagging every entity of a word on its first occurrence leaves the statistics
+		// the same as tagging them where they were found
+		boolean[] seen = new boolean[ids.length];
+		AnalysedSentence sentence = new AnalysedSentence();
+		for ( int[] words : sentences )
+		{
+			sentence.clear();
+			for ( int i = 0; i < words.length; i++ )
+			{
+				sentence.addWord( ids[words[i]] );
+				if ( !seen[words[i]] )
+				{
+					seen[words[i]] = true;
+					for ( String entity : entities[words[i]] )
+					{
+						sentence.addEntity( i, entity );
+					}
+				}
+			}
+			doc.addSentence( sentence );
+		}
+		for ( int e = 0; e < matchEntities.length; e++ )
+		{
+			doc.addEntityMatches( matchEntities[e], matchCounts[e] );
+		}
+
+		// Marks the entry as used, here and for later runs
+		synchronized ( this )
+		{
+			entries.get( key );
+		}
+		file.setLastModified( System.currentTimeMillis() );
+		hits.increment();
+
+		return true;
+	}
+
+	/**
+	 * Stores the sentences and statistics of an analysed document under the key.
+	 */
+	public void store( String key, Document doc )
+	{
+		File tmp = null;
+
+		try
+		{
+			tmp = File.createTempFile( key.substring( 0, 8 ), ".tmp", directory );
+			DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 64 * 1024 ) );
+			try
+			{
+				write( doc, out );
+			}
+			finally
+			{
+				out.close();
+			}
+
+			long size = tmp.length();
+			Files.move( tmp.toPath(), entryFile( key ).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+			synchronized ( this )
+			{
+				Long old = entries.put( key, size );
+				totalBytes += size - ( ( old != null ) ? old : 0 );
+				evict();
+			}
+		}
+		catch( IOException e )
+		{
+			failures.increment();
+			if ( tmp != null )
+			{
+				tmp.delete();
+			}
+		}
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	public synchronized long getTotalBytes()
+	{
+		return totalBytes;
+	}
+
+	private void write( Document doc, DataOutputStream out ) throws IOException
+	{
+		SentenceCursor cursor = new SentenceCursor();
+
+		// The distinct words in order of first occurrence
+		LongIntHashMap indexes = new LongIntHashMap( 1024, -1 );
+		List<String> words = new ArrayList<String>();
+		for ( int s = 0; s < doc.getNumSentences(); s++ )
+		{
+			doc.openSentence( s, cursor );
+			while ( cursor.hasNext() )
+			{
+				int id = cursor.nextWordId();
+				if ( indexes.get( id ) < 0 )
+				{
+					indexes.put( id, words.size() );
+					words.add( vocabulary.getWord( id ) );
+				}
+			}
+		}
+
+		Map<String, List<String>> entities = new HashMap<String, List<String>>();
+		WordStatistics statistics = doc.getWordStatistics();
+		for ( int slot = 0; slot < statistics.capacity(); slot++ )
+		{
+			String word = statistics.wordAt( slot );
+			if ( word != null && !statistics.entitiesAt( slot ).isEmpty() )
+			{
+				entities.put( word, statistics.entitiesAt( slot ) );
+			}
+		}
+
+		out.writeInt( MAGIC );
+		out.writeInt( VERSION );
+
+		VarInt.write( out, words.size() );
+		for ( String word : words )
+		{
+			writeString( out, word );
+			List<String> wordEntities = entities.containsKey( word ) ? entities.get( word ) : Collections.<String>emptyList();
+			VarInt.write( out, wordEntities.size() );
+			for ( String entity : wordEntities )
+			{
+				writeString( out, entity );
+			}
+		}
+
+		VarInt.write( out, doc.getNumSentences() );
+		for ( int s = 0; s < doc.getNumSentences(); s++ )
+		{
+			doc.openSentence( s, cursor );
+			VarInt.write( out, cursor.getNumWords() );
+			while ( cursor.hasNext() )
+			{
+				VarInt.write( out, indexes.get( cursor.nextWordId() ) );
+			}
+		}
+
+		VarInt.write( out, statistics.getNumEntities() );
+		for ( int id = 0; id < statistics.getNumEntities(); id++ )
+		{
+			writeString( out, statistics.entityAt( id ) );
+			VarInt.write( out, statistics.matchesAt( id ) );
+		}
+	}
+
+	private void evict()
+	{
+		Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+
+		while ( totalBytes > maxBytes && eldest.hasNext() )
+		{
+			Map.Entry<String, Long> entry = eldest.next();
+			entryFile( entry.getKey() ).delete();
+			totalBytes -= entry.getValue();
+			eldest.remove();
+		}
+	}
+
+	private boolean discard( String key )
+	{
+		failures.increment();
+		misses.increment();
+		remove( key );
+		return false;
+	}
+
+	private synchronized void remove( String key )
+	{
+		Long size = entries.remove( key );
+		if ( size != null )
+		{
+			totalBytes -= size;
+			entryFile( key ).delete();
+		}
+	}
+
+	private File entryFile( String key )
+	{
+		return new File( directory, key + SUFFIX );
+	}
+
+	private static void update( MessageDigest digest, CharSequence text )
+	{
+		CharsetEncoder encoder = UTF8.newEncoder()
+				.onMalformedInput( CodingErrorAction.REPLACE )
+				.onUnmappableCharacter( CodingErrorAction.REPLACE );
+		CharBuffer chars = CharBuffer.wrap( text );
+		ByteBuffer bytes = ByteBuffer.allocate( 64 * 1024 );
+
+		// Encoded a block at a time so a large document isn't copied whole
+		while ( true )
+		{
+			boolean done = !encoder.encode( chars, bytes, true ).isOverflow();
+			if ( done )
+			{
+				encoder.flush( bytes );
+			}
+			bytes.flip();
+			digest.update( bytes );
+			bytes.clear();
+			if ( done )
+			{
+				break;
+			}
+		}
+
+		// Separates the parts, so moving text from one to the next changes the key
+		digest.update( (byte) 0 );
+	}
+
+	private static void writeString( DataOutputStream out, String s ) throws IOException
+	{
+		byte[] bytes = s.getBytes( UTF8 );
+		VarInt.write( out, bytes.length );
+		out.write( bytes );
+	}
+
+	private static String readString( ByteBuffer in )
+	{
+		int length = VarInt.read( in );
+		String s = new String( in.array(), in.position(), length, UTF8 );
+		in.position( in.position() + length );
+		return s;
+	}
+}
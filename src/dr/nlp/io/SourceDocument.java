@@ -0,0 +1,23 @@
+package dr.nlp.io;
+
+public class SourceDocument
+{
+	private String name;
+	private CharSequence text;
+
+	public SourceDocument( String name, CharSequence text )
+	{
+		this.name = name;
+		this.text = text;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public CharSequence getText()
+	{
+		return text;
+	}
+}
@@ -0,0 +1,415 @@
+package dr.nlp.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.SentenceCursor;
+import dr.nlp.data.Word;
+
+/**
+ * Writes documents to name.xml with a StAX writer, using the same schema and layout as
+ * the JAXB output of Document.toXml(). The output factory is created once, and when the
+ * writer is opened on a document ahead of its analysis, the analysis threads can write
+ * the sentences committed so far with writeSentences(), outside any lock on the
+ * document, so a finished document only needs the rest and its word map written. An
+ * aborted or failed document has its partial file deleted.
+ *
+ * Echoing to the console is optional. When enabled, the finished file is copied to
+ * System.out rather than generating the XML a second time. writeTo() writes the same
+ * XML to any stream instead of a file.
+ */
+public class StaxDocumentWriter implements StreamingDocumentWriter
+{
+	private static final String INDENT = "    ";
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+	private static final byte[] DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>".getBytes( UTF8 );
+
+	private static XMLOutputFactory factory = XMLOutputFactory.newInstance();
+
+	private boolean echo;
+	private PrintStream console;
+	private Map<Document, DocumentStream> streams;
+
+	public StaxDocumentWriter( boolean echo )
+	{
+		this.echo = echo;
+		this.console = System.out;
+		this.streams = new ConcurrentHashMap<Document, DocumentStream>();
+	}
+
+	@Override
+	public void open( Document doc ) throws IOException
+	{
+		streams.put( doc, new DocumentStream( doc ) );
+	}
+
+	@Override
+	public void writeSentences( Document doc )
+	{
+		DocumentStream stream = streams.get( doc );
+		if ( stream != null )
+		{
+			stream.writeSentences( doc, false );
+		}
+	}
+
+	@Override
+	public void abort( Document doc )
+	{
+		DocumentStream stream = streams.remove( doc );
+		if ( stream != null )
+		{
+			stream.abort();
+		}
+	}
+
+	@Override
+	public void write( Document doc ) throws IOException
+	{
+		DocumentStream stream = streams.remove( doc );
+
+		if ( stream == null )
+		{
+			stream = new DocumentStream( doc );
+		}
+
+		stream.finish( doc );
+
+		if ( echo )
+		{
+			Files.copy( stream.getFile().toPath(), console );
+		}
+	}
+
+	/**
+	 * Writes a finished document as XML to the stream, which is flushed but left open.
+	 */
+	public static void writeTo( Document doc, final OutputStream out ) throws IOException
+	{
+		OutputStream unclosed = new FilterOutputStream( out )
+		{
+			@Override
+			public void write( byte[] b, int off, int len ) throws IOException
+			{
+				out.write( b, off, len );
+			}
+
+			@Override
+			public void close() throws IOException
+			{
+				flush();
+			}
+		};
+
+		DocumentStream stream = new DocumentStream( doc, new BufferedOutputStream( unclosed, 64 * 1024 ), doc.getName(), null );
+		stream.finish( doc );
+	}
+
+	/**
+	 * The output of a single document, which writes the sentences the document has when
+	 * asked. The lock is held while writing, so any thread can catch the output up, but
+	 * only one at a time.
+	 */
+	private static class DocumentStream
+	{
+		private File file;
+		private String target;
+		private OutputStream out;
+		private XMLStreamWriter xml;
+		private boolean hasSentences;
+		private XMLStreamException failure;
+		private SentenceCursor cursor;
+
+		private ReentrantLock lock;
+		private int numWritten;
+		private boolean closed;
+
+		public DocumentStream( Document doc ) throws IOException
+		{
+			this( doc, new File( doc.getName() + ".xml" ) );
+		}
+
+		private DocumentStream( Document doc, File file ) throws IOException
+		{
+			this( doc, new BufferedOutputStream( new FileOutputStream( file ), 64 * 1024 ), file.getPath(), file );
+		}
+
+		/**
+		 * The file, if there is one, is deleted if the document isn't written in full.
+		 */
+		public DocumentStream( Document doc, OutputStream out, String target, File file ) throws IOException
+		{
+			this.out = out;
+			this.target = target;
+			this.file = file;
+			cursor = new SentenceCursor();
+			lock = new ReentrantLock();
+
+			try
+			{
+				out.write( DECLARATION );
+				synchronized ( factory )
+				{
+					xml = factory.createXMLStreamWriter( out, "UTF-8" );
+				}
+				newLine( 0 );
+				xml.writeStartElement( "document" );
+				xml.writeAttribute( "name", doc.getName() );
+			}
+			catch( XMLStreamException e )
+			{
+				discard();
+				throw new IOException( "Unable to write " + target + ": " + e.getMessage(), e );
+			}
+		}
+
+		public File getFile()
+		{
+			return file;
+		}
+
+		/**
+		 * Writes the sentences added since the last call. Unless told to wait, it leaves
+		 * them to the thread which is already writing, if there is one.
+		 */
+		public void writeSentences( Document doc, boolean wait )
+		{
+			if ( wait )
+			{
+				lock.lock();
+			}
+			else if ( !lock.tryLock() )
+			{
+				return;
+			}
+
+			try
+			{
+				// Once closed the document may already have been released
+				if ( !closed )
+				{
+					for ( int count = doc.getNumSentences(); numWritten < count; numWritten++ )
+					{
+						writeSentence( doc, numWritten );
+					}
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Closes the output and deletes the file.
+		 */
+		public void abort()
+		{
+			lock.lock();
+			try
+			{
+				if ( !closed )
+				{
+					discard();
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Writes a sentence read in place from the document, which creates no objects
+		 * besides the XML.
+		 */
+		private void writeSentence( Document doc, int index )
+		{
+			if ( failure != null )
+			{
+				return;
+			}
+
+			try
+			{
+				if ( !hasSentences )
+				{
+					newLine( 1 );
+					xml.writeStartElement( "sentences" );
+					hasSentences = true;
+				}
+
+				newLine( 2 );
+				xml.writeStartElement( "sentence" );
+				newLine( 3 );
+				xml.writeStartElement( "words" );
+				doc.openSentence( index, cursor );
+				while ( cursor.hasNext() )
+				{
+					newLine( 4 );
+					writeElement( "word", doc.getVocabulary().getWord( cursor.nextWordId() ) );
+				}
+				newLine( 3 );
+				xml.writeEndElement();
+				newLine( 2 );
+				xml.writeEndElement();
+			}
+			catch( XMLStreamException e )
+			{
+				// Reported when the document is finished
+				failure = e;
+			}
+		}
+
+		public void finish( Document doc ) throws IOException
+		{
+			writeSentences( doc, true );
+
+			lock.lock();
+			boolean finished = false;
+			try
+			{
+				if ( failure != null )
+				{
+					throw failure;
+				}
+
+				if ( hasSentences )
+				{
+					newLine( 1 );
+					xml.writeEndElement();
+				}
+				else
+				{
+					newLine( 1 );
+					xml.writeEmptyElement( "sentences" );
+				}
+
+				writeWordMap( doc.getWordMap() );
+
+				newLine( 0 );
+				xml.writeEndElement();
+				xml.writeCharacters( "\n" );
+				xml.writeEndDocument();
+				xml.close();
+				out.close();
+				finished = true;
+			}
+			catch( XMLStreamException e )
+			{
+				throw new IOException( "Unable to write " + target + ": " + e.getMessage(), e );
+			}
+			finally
+			{
+				if ( !finished )
+				{
+					discard();
+				}
+				closed = true;
+				lock.unlock();
+			}
+		}
+
+		private void discard()
+		{
+			closed = true;
+			try
+			{
+				out.close();
+			}
+			catch( IOException e )
+			{
+				// The output is being thrown away
+			}
+			if ( file != null )
+			{
+				file.delete();
+			}
+		}
+
+		private void writeWordMap( Map<String, Word> wordMap ) throws XMLStreamException
+		{
+			newLine( 1 );
+			if ( wordMap.isEmpty() )
+			{
+				xml.writeEmptyElement( "wordMap" );
+				return;
+			}
+
+			xml.writeStartElement( "wordMap" );
+			for ( Map.Entry<String, Word> entry : wordMap.entrySet() )
+			{
+				Word word = entry.getValue();
+
+				newLine( 2 );
+				xml.writeStartElement( "entry" );
+				newLine( 3 );
+				writeElement( "key", entry.getKey() );
+				newLine( 3 );
+				xml.writeStartElement( "value" );
+				newLine( 4 );
+				writeElement( "name", word.getName() );
+				newLine( 4 );
+				writeEntities( word.getNamedEntities() );
+				newLine( 4 );
+				writeElement( "count", Integer.toString( word.getCount() ) );
+				newLine( 3 );
+				xml.writeEndElement();
+				newLine( 2 );
+				xml.writeEndElement();
+			}
+			newLine( 1 );
+			xml.writeEndElement();
+		}
+
+		private void writeEntities( List<String> entities ) throws XMLStreamException
+		{
+			if ( entities.isEmpty() )
+			{
+				xml.writeEmptyElement( "entities" );
+				return;
+			}
+
+			xml.writeStartElement( "entities" );
+			for ( String entity : entities )
+			{
+				newLine( 5 );
+				writeElement( "entity", entity );
+			}
+			newLine( 4 );
+			xml.writeEndElement();
+		}
+
+		private void writeElement( String name, String value ) throws XMLStreamException
+		{
+			xml.writeStartElement( name );
+			xml.writeCharacters( value );
+			xml.writeEndElement();
+		}
+
+		private void newLine( int depth ) throws XMLStreamException
+		{
+			xml.writeCharacters( "\n" );
+			for ( int i = 0; i < depth; i++ )
+			{
+				xml.writeCharacters( INDENT );
+			}
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package dr.nlp.io;
+
+import java.io.IOException;
+
+import dr.nlp.data.Document;
+
+/**
+ * A writer which can start writing a document before its analysis has finished. The
+ * document is opened before any sentences are added to it, writeSentences() writes
+ * those added so far, and write() completes the output once the document is finished.
+ * A document opened but never written must be aborted, which discards its output.
+ */
+public interface StreamingDocumentWriter extends DocumentWriter
+{
+	public void open( Document doc ) throws IOException;
+
+	/**
+	 * Writes the sentences added since the last call. It may be called from any thread,
+	 * but not while holding a lock on the document, and may leave the sentences for a
+	 * later call if another thread is already writing.
+	 */
+	public void writeSentences( Document doc );
+
+	public void abort( Document doc );
+}
@@ -0,0 +1,95 @@
+package dr.nlp.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of non-negative integers, seven bits per byte with the high
+ * bit set on every byte but the last. Small values, such as deltas between sorted ids,
+ * take a single byte.
+ */
+public class VarInt
+{
+	public static void write( OutputStream out, int value ) throws IOException
+	{
+		while ( ( value & ~0x7f ) != 0 )
+		{
+			out.write( ( value & 0x7f ) | 0x80 );
+			value >>>= 7;
+		}
+		out.write( value );
+	}
+
+	public static void write( OutputStream out, long value ) throws IOException
+	{
+		while ( ( value & ~0x7fL ) != 0 )
+		{
+			out.write( (int) ( value & 0x7f ) | 0x80 );
+			value >>>= 7;
+		}
+		out.write( (int) value );
+	}
+
+	public static void write( ByteBuffer buffer, int value )
+	{
+		while ( ( value & ~0x7f ) != 0 )
+		{
+			buffer.put( (byte) ( ( value & 0x7f ) | 0x80 ) );
+			value >>>= 7;
+		}
+		buffer.put( (byte) value );
+	}
+
+	public static int read( ByteBuffer buffer )
+	{
+		int value = 0;
+
+		for ( int shift = 0; ; shift += 7 )
+		{
+			byte b = buffer.get();
+			value |= ( b & 0x7f ) << shift;
+			if ( b >= 0 )
+			{
+				return value;
+			}
+		}
+	}
+
+	public static int read( InputStream in ) throws IOException
+	{
+		return (int) readLong( in );
+	}
+
+	public static long readLong( InputStream in ) throws IOException
+	{
+		long value = 0;
+
+		for ( int shift = 0; ; shift += 7 )
+		{
+			int b = in.read();
+			if ( b < 0 )
+			{
+				throw new EOFException();
+			}
+			value |= (long) ( b & 0x7f ) << shift;
+			if ( b < 0x80 )
+			{
+				return value;
+			}
+		}
+	}
+
+	public static int size( int value )
+	{
+		int size = 1;
+		while ( ( value & ~0x7f ) != 0 )
+		{
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+}
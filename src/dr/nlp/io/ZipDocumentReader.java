@@ -0,0 +1,69 @@
+package dr.nlp.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the text entries of a zip file in order, skipping anything that isn't a .txt
+ * file as well as entries starting with an underscore (e.g. __MACOSX).
+ */
+public class ZipDocumentReader implements DocumentReader
+{
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private ZipInputStream zin;
+
+	public ZipDocumentReader( String zipPath ) throws IOException
+	{
+		zin = new ZipInputStream( new FileInputStream( zipPath ) );
+	}
+
+	@Override
+	public SourceDocument next() throws IOException
+	{
+		for ( ZipEntry zipEntry; ( zipEntry = zin.getNextEntry() ) != null; )
+		{
+			String entryName = zipEntry.getName();
+
+			if ( isTextEntry( entryName ) )
+			{
+				return new SourceDocument( entryName, readText( zin, zipEntry ) );
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		zin.close();
+	}
+
+	static boolean isTextEntry( String entryName )
+	{
+		return entryName.endsWith( ".txt" ) && !entryName.startsWith( "_" );
+	}
+
+	/**
+	 * Decodes an entry as a whole, keeping its line breaks so that words on either side
+	 * of one aren't glued together.
+	 */
+	static String readText( InputStream in, ZipEntry zipEntry ) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( ( zipEntry.getSize() > 0 ) ? (int) zipEntry.getSize() : 8192 );
+		byte[] buffer = new byte[8192];
+
+		for ( int n; ( n = in.read( buffer ) ) > 0; )
+		{
+			bytes.write( buffer, 0, n );
+		}
+
+		return new String( bytes.toByteArray(), UTF8 );
+	}
+}
@@ -0,0 +1,45 @@
+package dr.nlp.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events, such as sentences processed. Increments from many threads don't
+ * contend with each other.
+ */
+public class Counter implements CounterMBean
+{
+	private LongAdder count;
+	private long startTime;
+
+	public Counter()
+	{
+		count = new LongAdder();
+		startTime = System.nanoTime();
+	}
+
+	public void increment()
+	{
+		count.increment();
+	}
+
+	public void add( long n )
+	{
+		count.add( n );
+	}
+
+	@Override
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	/**
+	 * The average rate since the counter was created.
+	 */
+	@Override
+	public double getRatePerSecond()
+	{
+		double seconds = ( System.nanoTime() - startTime ) / 1e9;
+		return ( seconds > 0 ) ? getCount() / seconds : 0;
+	}
+}
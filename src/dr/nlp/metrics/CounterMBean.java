@@ -0,0 +1,7 @@
+package dr.nlp.metrics;
+
+public interface CounterMBean
+{
+	public long getCount();
+	public double getRatePerSecond();
+}
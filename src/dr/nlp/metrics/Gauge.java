@@ -0,0 +1,9 @@
+package dr.nlp.metrics;
+
+/**
+ * A value which is read when it is reported, such as the depth of a queue.
+ */
+public interface Gauge
+{
+	public long getValue();
+}
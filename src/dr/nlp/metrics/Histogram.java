@@ -0,0 +1,139 @@
+package dr.nlp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds. Values are counted in log-linear buckets,
+ * eight per power of two, so a percentile is accurate to within about 12% whatever
+ * its magnitude and recording is a couple of atomic adds.
+ */
+public class Histogram implements HistogramMBean
+{
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private AtomicLongArray buckets;
+	private LongAdder count;
+	private LongAdder sum;
+	private AtomicLong max;
+
+	public Histogram()
+	{
+		buckets = new AtomicLongArray( 64 * SUB_BUCKETS );
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	public void record( long nanos )
+	{
+		if ( nanos < 0 )
+		{
+			nanos = 0;
+		}
+
+		buckets.incrementAndGet( bucket( nanos ) );
+		count.increment();
+		sum.add( nanos );
+
+		long current = max.get();
+		while ( nanos > current && !max.compareAndSet( current, nanos ) )
+		{
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Records the time since the given System.nanoTime() and returns the current time,
+	 * so consecutive stages can be timed with one call each.
+	 */
+	public long recordSince( long startNanos )
+	{
+		long now = System.nanoTime();
+		record( now - startNanos );
+		return now;
+	}
+
+	@Override
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	/**
+	 * The value below which the given fraction of the recorded values fall, in
+	 * nanoseconds.
+	 */
+	public long getPercentile( double fraction )
+	{
+		long total = getCount();
+		if ( total == 0 )
+		{
+			return 0;
+		}
+
+		long rank = (long) Math.ceil( fraction * total );
+		long seen = 0;
+
+		for ( int i = 0; i < buckets.length(); i++ )
+		{
+			seen += buckets.get( i );
+			if ( seen >= Math.max( rank, 1 ) )
+			{
+				return Math.min( lowerBound( i + 1 ) - 1, max.get() );
+			}
+		}
+
+		return max.get();
+	}
+
+	@Override
+	public double getMeanMillis()
+	{
+		long total = getCount();
+		return ( total > 0 ) ? sum.sum() / 1e6 / total : 0;
+	}
+
+	@Override
+	public double getP50Millis()
+	{
+		return getPercentile( 0.5 ) / 1e6;
+	}
+
+	@Override
+	public double getP99Millis()
+	{
+		return getPercentile( 0.99 ) / 1e6;
+	}
+
+	@Override
+	public double getMaxMillis()
+	{
+		return max.get() / 1e6;
+	}
+
+	static int bucket( long value )
+	{
+		if ( value < SUB_BUCKETS )
+		{
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros( value );
+		int subBucket = (int) ( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+		return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket;
+	}
+
+	static long lowerBound( int bucket )
+	{
+		if ( bucket < SUB_BUCKETS )
+		{
+			return bucket;
+		}
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return (long) ( SUB_BUCKETS + bucket % SUB_BUCKETS ) << ( exponent - SUB_BUCKET_BITS );
+	}
+}
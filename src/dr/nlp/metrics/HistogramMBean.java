@@ -0,0 +1,10 @@
+package dr.nlp.metrics;
+
+public interface HistogramMBean
+{
+	public long getCount();
+	public double getMeanMillis();
+	public double getP50Millis();
+	public double getP99Millis();
+	public double getMaxMillis();
+}
@@ -0,0 +1,160 @@
+package dr.nlp.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * The registry of counters, gauges and latency histograms for a run. Metrics are looked
+ * up by name once, typically into a static field, and updated from any thread.
+ *
+ * Once registerMBeans() has been called, every metric is also exposed on the platform
+ * MBean server as dr.nlp:type=Counter|Gauge|Histogram,name=..., including metrics
+ * created afterwards.
+ */
+public class Metrics
+{
+	public static final String DOMAIN = "dr.nlp";
+
+	private static Metrics instance = null;
+
+	private ConcurrentHashMap<String, Counter> counters;
+	private ConcurrentHashMap<String, Gauge> gauges;
+	private ConcurrentHashMap<String, Histogram> histograms;
+	private MBeanServer server;
+
+	protected Metrics()
+	{
+		counters = new ConcurrentHashMap<String, Counter>();
+		gauges = new ConcurrentHashMap<String, Gauge>();
+		histograms = new ConcurrentHashMap<String, Histogram>();
+	}
+
+	public static synchronized Metrics getInstance()
+	{
+		if ( instance == null )
+		{
+			instance = new Metrics();
+		}
+
+		return instance;
+	}
+
+	public Counter counter( String name )
+	{
+		Counter counter = counters.get( name );
+		if ( counter == null )
+		{
+			Counter created = new Counter();
+			counter = counters.putIfAbsent( name, created );
+			if ( counter == null )
+			{
+				counter = created;
+				register( "Counter", name, counter, CounterMBean.class );
+			}
+		}
+
+		return counter;
+	}
+
+	public Histogram histogram( String name )
+	{
+		Histogram histogram = histograms.get( name );
+		if ( histogram == null )
+		{
+			Histogram created = new Histogram();
+			histogram = histograms.putIfAbsent( name, created );
+			if ( histogram == null )
+			{
+				histogram = created;
+				register( "Histogram", name, histogram, HistogramMBean.class );
+			}
+		}
+
+		return histogram;
+	}
+
+	/**
+	 * Adds a gauge, replacing any earlier gauge of the same name, e.g. the queue depth
+	 * of a previous pipeline run.
+	 */
+	public void gauge( String name, Gauge gauge )
+	{
+		gauges.put( name, gauge );
+		register( "Gauge", name, gauge, Gauge.class );
+	}
+
+	public Map<String, Counter> getCounters()
+	{
+		return new TreeMap<String, Counter>( counters );
+	}
+
+	public Map<String, Gauge> getGauges()
+	{
+		return new TreeMap<String, Gauge>( gauges );
+	}
+
+	public Map<String, Histogram> getHistograms()
+	{
+		return new TreeMap<String, Histogram>( histograms );
+	}
+
+	/**
+	 * Exposes all metrics, present and future, as MBeans on the platform MBean server.
+	 */
+	public synchronized void registerMBeans() throws JMException
+	{
+		if ( server != null )
+		{
+			return;
+		}
+		server = ManagementFactory.getPlatformMBeanServer();
+
+		for ( Map.Entry<String, Counter> entry : counters.entrySet() )
+		{
+			register( "Counter", entry.getKey(), entry.getValue(), CounterMBean.class );
+		}
+		for ( Map.Entry<String, Gauge> entry : gauges.entrySet() )
+		{
+			register( "Gauge", entry.getKey(), entry.getValue(), Gauge.class );
+		}
+		for ( Map.Entry<String, Histogram> entry : histograms.entrySet() )
+		{
+			register( "Histogram", entry.getKey(), entry.getValue(), HistogramMBean.class );
+		}
+	}
+
+	public static ObjectName getObjectName( String type, String name ) throws JMException
+	{
+		return new ObjectName( DOMAIN + ":type=" + type + ",name=" + ObjectName.quote( name ) );
+	}
+
+	private synchronized <T> void register( String type, String name, T metric, Class<T> mbeanInterface )
+	{
+		if ( server == null )
+		{
+			return;
+		}
+
+		try
+		{
+			ObjectName objectName = getObjectName( type, name );
+			if ( server.isRegistered( objectName ) )
+			{
+				server.unregisterMBean( objectName );
+			}
+			server.registerMBean( new StandardMBean( metric, mbeanInterface ), objectName );
+		}
+		catch( JMException e )
+		{
+			// Metrics must never stop the analysis, so the metric is only left out of JMX
+			System.err.println( "Unable to register metric " + name + ": " + e.getMessage() );
+		}
+	}
+}
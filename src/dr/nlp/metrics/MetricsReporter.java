@@ -0,0 +1,104 @@
+package dr.nlp.metrics;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints the metrics as text, either on demand or periodically on a daemon thread.
+ * Counter rates are over the time since the previous report, so a periodic report shows
+ * current throughput rather than the average over the whole run.
+ */
+public class MetricsReporter
+{
+	private Metrics metrics;
+	private PrintStream out;
+	private ScheduledExecutorService scheduler;
+
+	private Map<String, Long> lastCounts;
+	private long lastTime;
+
+	public MetricsReporter( Metrics metrics, PrintStream out )
+	{
+		this.metrics = metrics;
+		this.out = out;
+		this.lastCounts = new HashMap<String, Long>();
+		this.lastTime = System.nanoTime();
+	}
+
+	public synchronized void start( long period, TimeUnit unit )
+	{
+		if ( scheduler != null )
+		{
+			return;
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( Runnable r )
+			{
+				Thread thread = new Thread( r, "metrics-reporter" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+
+		scheduler.scheduleAtFixedRate( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				report();
+			}
+		}, period, period, unit );
+	}
+
+	public synchronized void stop()
+	{
+		if ( scheduler != null )
+		{
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	public synchronized void report()
+	{
+		long now = System.nanoTime();
+		double seconds = Math.max( ( now - lastTime ) / 1e9, 1e-9 );
+		lastTime = now;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append( "-- metrics " ).append( new SimpleDateFormat( "HH:mm:ss" ).format( new Date() ) ).append( " --\n" );
+
+		for ( Map.Entry<String, Counter> entry : metrics.getCounters().entrySet() )
+		{
+			long count = entry.getValue().getCount();
+			Long last = lastCounts.put( entry.getKey(), count );
+			double rate = ( count - ( ( last != null ) ? last : 0 ) ) / seconds;
+			sb.append( String.format( "  %-24s %12d  %10.1f/s%n", entry.getKey(), count, rate ) );
+		}
+
+		for ( Map.Entry<String, Gauge> entry : metrics.getGauges().entrySet() )
+		{
+			sb.append( String.format( "  %-24s %12d%n", entry.getKey(), entry.getValue().getValue() ) );
+		}
+
+		for ( Map.Entry<String, Histogram> entry : metrics.getHistograms().entrySet() )
+		{
+			Histogram histogram = entry.getValue();
+			sb.append( String.format( "  %-24s %12d  p50 %.3fms  p99 %.3fms  max %.3fms%n", entry.getKey(),
+					histogram.getCount(), histogram.getP50Millis(), histogram.getP99Millis(), histogram.getMaxMillis() ) );
+		}
+
+		out.print( sb );
+		out.flush();
+	}
+}
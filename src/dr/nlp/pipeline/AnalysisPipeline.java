@@ -0,0 +1,509 @@
+package dr.nlp.pipeline;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.SentenceStore;
+import dr.nlp.io.DocumentReader;
+import dr.nlp.io.DocumentWriter;
+import dr.nlp.io.ResultCache;
+import dr.nlp.io.SourceDocument;
+import dr.nlp.io.StreamingDocumentWriter;
+import dr.nlp.metrics.Counter;
+import dr.nlp.metrics.Gauge;
+import dr.nlp.metrics.Histogram;
+import dr.nlp.metrics.Metrics;
+import dr.nlp.sketch.CorpusSketches;
+import dr.nlp.tools.AnalysisExecution;
+import dr.nlp.tools.AnalysisListener;
+import dr.nlp.tools.ChunkedAnalysisExecution;
+import dr.nlp.tools.ExecutionUnit;
+import dr.nlp.tools.NGramCounter;
+import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.SentenceAnalyser;
+import dr.nlp.tools.Tokeniser;
+
+/**
+ * Runs the analysis as a staged pipeline:
+ *
+ *   read -> split -> tokenise/tag -> aggregate -> write
+ *
+ * A reader thread pulls documents from the DocumentReader into a bounded queue. The
+ * split stage cuts each document into chunks at safe sentence boundaries and hands
+ * them to a work-stealing pool sized to the machine, where sentence detection,
+ * tokenisation and entity tagging run. Chunks commit their sentences to the document
+ * in order (the aggregate stage), and a completed document is queued for the writer,
+ * which runs on the calling thread. A StreamingDocumentWriter is opened on each
+ * document before its analysis starts, and each chunk task writes the sentences
+ * committed so far once it has finished, outside the locks taken to commit them. Any
+ * document opened but not written when the pipeline stops is aborted.
+ *
+ * The read queue and a limit on the number of documents in flight provide backpressure,
+ * so reading never runs arbitrarily far ahead of analysis and writing. Completion is
+ * signalled through the queues rather than by polling.
+ *
+ * Each stage records its latency in Metrics, and the queue depths are registered as
+ * gauges, so a full queue in front of a slow stage shows up while the pipeline runs.
+ *
+ * With a ResultCache set, the split stage looks every document up before analysing it.
+ * A cached document is filled from the cache and queued for the writer directly, and
+ * an analysed one is stored in the cache once it is complete.
+ *
+ * With CorpusSketches set, the analysis adds every token to them, and cached documents
+ * are added from their statistics. The analysed documents then aren't counted exactly,
+ * so they have no word map and aren't stored in the cache. With an NGramCounter set, each document's n-grams
+ * are counted by the thread which completes it.
+ *
+ * With a SentenceStore set, documents keep their sentences in the store, and release
+ * them once written, so the sentences in flight are held off the heap.
+ */
+public class AnalysisPipeline
+{
+	private static final SourceDocument END_OF_INPUT = new SourceDocument( "", "" );
+	private static final Document WAKE_UP = new Document( "" );
+
+	private static Counter documentsRead    = Metrics.getInstance().counter( "documents.read" );
+	private static Counter documentsWritten = Metrics.getInstance().counter( "documents" );
+	private static Histogram readTime       = Metrics.getInstance().histogram( "pipeline.read" );
+	private static Histogram chunkTime      = Metrics.getInstance().histogram( "pipeline.chunk" );
+	private static Histogram writeTime      = Metrics.getInstance().histogram( "pipeline.write" );
+
+	private SentenceAnalyser analyser;
+	private Tokeniser tokeniser;
+	private NamedEntities ner;
+
+	private int parallelism;
+	private int maxDocumentsInFlight;
+	private int chunkSize;
+	private ResultCache cache;
+	private CorpusSketches sketches;
+	private NGramCounter ngrams;
+	private SentenceStore store;
+
+	private ForkJoinPool pool;
+	private BlockingQueue<SourceDocument> readQueue;
+	private BlockingQueue<Document> writeQueue;
+	private Semaphore inFlight;
+	private AtomicReference<Throwable> failure;
+	private Set<Document> opened;
+
+	public AnalysisPipeline( SentenceAnalyser analyser, Tokeniser tokeniser, NamedEntities ner )
+	{
+		this( analyser, tokeniser, ner, Runtime.getRuntime().availableProcessors() );
+	}
+
+	public AnalysisPipeline( SentenceAnalyser analyser, Tokeniser tokeniser, NamedEntities ner, int parallelism )
+	{
+		this.analyser = analyser;
+		this.tokeniser = tokeniser;
+		this.ner = ner;
+		this.parallelism = parallelism;
+		this.maxDocumentsInFlight = 4 * parallelism;
+		this.chunkSize = 64 * 1024;
+	}
+
+	public void setMaxDocumentsInFlight( int maxDocumentsInFlight )
+	{
+		this.maxDocumentsInFlight = maxDocumentsInFlight;
+	}
+
+	public void setChunkSize( int chunkSize )
+	{
+		this.chunkSize = chunkSize;
+	}
+
+	public void setCache( ResultCache cache )
+	{
+		this.cache = cache;
+	}
+
+	public void setSketches( CorpusSketches sketches )
+	{
+		this.sketches = sketches;
+	}
+
+	public void setNGramCounter( NGramCounter ngrams )
+	{
+		this.ngrams = ngrams;
+	}
+
+	public void setSentenceStore( SentenceStore store )
+	{
+		this.store = store;
+	}
+
+	/**
+	 * Analyses every document from the reader and passes it to the writer once all its
+	 * sentences are in. Returns the number of documents written.
+	 */
+	public int run( DocumentReader reader, DocumentWriter writer ) throws IOException, InterruptedException
+	{
+		pool = new ForkJoinPool( parallelism );
+		readQueue = new ArrayBlockingQueue<SourceDocument>( maxDocumentsInFlight );
+		writeQueue = new LinkedBlockingQueue<Document>();
+		inFlight = new Semaphore( maxDocumentsInFlight );
+		failure = new AtomicReference<Throwable>();
+		opened = Collections.newSetFromMap( new ConcurrentHashMap<Document, Boolean>() );
+		registerGauges();
+
+		Thread readStage = new Thread( new ReadStage( reader ), "pipeline-read" );
+		SplitStage split = new SplitStage( writer );
+		Thread splitStage = new Thread( split, "pipeline-split" );
+		readStage.start();
+		splitStage.start();
+
+		try
+		{
+			return write( writer, split );
+		}
+		finally
+		{
+			readStage.interrupt();
+			splitStage.interrupt();
+			pool.shutdownNow();
+			abortOpened( writer, splitStage );
+			reader.close();
+		}
+	}
+
+	// Discards the output of documents which were opened but never written, once the
+	// split stage can't open any more
+	private void abortOpened( DocumentWriter writer, Thread splitStage )
+	{
+		boolean interrupted = false;
+		while ( splitStage.isAlive() )
+		{
+			try
+			{
+				splitStage.join();
+			}
+			catch( InterruptedException e )
+			{
+				interrupted = true;
+			}
+		}
+
+		for ( Document doc : opened )
+		{
+			( (StreamingDocumentWriter) writer ).abort( doc );
+		}
+		opened.clear();
+
+		if ( interrupted )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private int write( DocumentWriter writer, SplitStage split ) throws IOException, InterruptedException
+	{
+		int written = 0;
+
+		while ( split.getDispatched() < 0 || written < split.getDispatched() )
+		{
+			Document doc = writeQueue.take();
+			if ( doc == WAKE_UP )
+			{
+				rethrowFailure();
+				continue;
+			}
+
+			long start = System.nanoTime();
+			writer.write( doc );
+			opened.remove( doc );
+			writeTime.recordSince( start );
+			doc.release();
+			documentsWritten.increment();
+			written++;
+			inFlight.release();
+		}
+
+		return written;
+	}
+
+	private void registerGauges()
+	{
+		final BlockingQueue<SourceDocument> read = readQueue;
+		final BlockingQueue<Document> write = writeQueue;
+		final Semaphore permits = inFlight;
+		final int maxInFlight = maxDocumentsInFlight;
+
+		Metrics metrics = Metrics.getInstance();
+		metrics.gauge( "pipeline.readQueue", new Gauge()
+		{
+			@Override
+			public long getValue()
+			{
+				return read.size();
+			}
+		} );
+		metrics.gauge( "pipeline.writeQueue", new Gauge()
+		{
+			@Override
+			public long getValue()
+			{
+				return write.size();
+			}
+		} );
+		metrics.gauge( "pipeline.inFlight", new Gauge()
+		{
+			@Override
+			public long getValue()
+			{
+				return maxInFlight - permits.availablePermits();
+			}
+		} );
+
+		final SentenceStore sentences = store;
+		if ( sentences != null )
+		{
+			metrics.gauge( "store.pages", new Gauge()
+			{
+				@Override
+				public long getValue()
+				{
+					return sentences.getNumPages() - sentences.getNumFreePages();
+				}
+			} );
+		}
+	}
+
+	private void fail( Throwable t )
+	{
+		failure.compareAndSet( null, t );
+		writeQueue.offer( WAKE_UP );
+	}
+
+	private void rethrowFailure() throws IOException
+	{
+		Throwable t = failure.get();
+		if ( t == null )
+		{
+			return;
+		}
+		if ( t instanceof IOException )
+		{
+			throw (IOException) t;
+		}
+		if ( t instanceof RuntimeException )
+		{
+			throw (RuntimeException) t;
+		}
+		if ( t instanceof Error )
+		{
+			throw (Error) t;
+		}
+		throw new IOException( t );
+	}
+
+	private class ReadStage implements Runnable
+	{
+		private DocumentReader reader;
+
+		public ReadStage( DocumentReader reader )
+		{
+			this.reader = reader;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				long start = System.nanoTime();
+				for ( SourceDocument source; ( source = reader.next() ) != null; )
+				{
+					readTime.recordSince( start );
+					documentsRead.increment();
+					readQueue.put( source );
+					start = System.nanoTime();
+				}
+				readQueue.put( END_OF_INPUT );
+			}
+			catch( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch( Throwable t )
+			{
+				fail( t );
+			}
+		}
+	}
+
+	private class SplitStage implements Runnable, AnalysisListener
+	{
+		// The number of documents handed on, or -1 while there is more input to come
+		private volatile int dispatched = -1;
+		private DocumentWriter writer;
+
+		public SplitStage( DocumentWriter writer )
+		{
+			this.writer = writer;
+		}
+
+		public int getDispatched()
+		{
+			return dispatched;
+		}
+
+		@Override
+		public void run()
+		{
+			int count = 0;
+
+			try
+			{
+				for ( SourceDocument source; ( source = readQueue.take() ) != END_OF_INPUT; count++ )
+				{
+					dispatch( source );
+
+					// The chunks hold the text for as long as they need it, so it isn't
+					// kept here while waiting for the next document
+					source = null;
+				}
+
+				dispatched = count;
+				// Wake the writer in case every document has already been written
+				writeQueue.offer( WAKE_UP );
+			}
+			catch( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch( Throwable t )
+			{
+				fail( t );
+			}
+		}
+
+		private void dispatch( SourceDocument source ) throws InterruptedException, IOException
+		{
+			inFlight.acquire();
+
+			Document doc = new Document( source.getName(), store );
+			if ( writer instanceof StreamingDocumentWriter )
+			{
+				// Sentences are written out as chunks are committed
+				( (StreamingDocumentWriter) writer ).open( doc );
+				opened.add( doc );
+			}
+
+			String key = null;
+			if ( cache != null )
+			{
+				key = ResultCache.key( source.getText(), AnalysisExecution.VERSION, analyser.getClass().getName(),
+						tokeniser.getClass().getName(), ner.getVersion() );
+				if ( cache.load( key, doc ) )
+				{
+					if ( sketches != null )
+					{
+						sketches.add( doc );
+					}
+					countNGrams( doc );
+					writeQueue.offer( doc );
+					return;
+				}
+			}
+
+			// A cached document is added to the sketches from its statistics, but an analysed
+			// one is only sketched
+			doc.setCountWords( sketches == null );
+
+			ChunkedAnalysisExecution execution = new ChunkedAnalysisExecution( source.getText(), doc, analyser, tokeniser, ner, chunkSize );
+			execution.setListener( ( key != null && doc.isCountingWords() ) ? new CacheStore( key ) : this );
+			execution.setSketches( sketches );
+
+			StreamingDocumentWriter streaming = ( writer instanceof StreamingDocumentWriter ) ? (StreamingDocumentWriter) writer : null;
+			for ( ExecutionUnit chunk : execution.getChunks() )
+			{
+				pool.execute( new ChunkTask( chunk, doc, streaming ) );
+			}
+		}
+
+		@Override
+		public void analysisCompleted( Document doc )
+		{
+			countNGrams( doc );
+			writeQueue.offer( doc );
+		}
+
+		private void countNGrams( Document doc )
+		{
+			if ( ngrams != null )
+			{
+				try
+				{
+					ngrams.add( doc );
+				}
+				catch( IOException e )
+				{
+					fail( e );
+				}
+			}
+		}
+
+		/**
+		 * Stores a document in the cache when its analysis completes.
+		 */
+		private class CacheStore implements AnalysisListener
+		{
+			private String key;
+
+			public CacheStore( String key )
+			{
+				this.key = key;
+			}
+
+			@Override
+			public void analysisCompleted( Document doc )
+			{
+				cache.store( key, doc );
+				SplitStage.this.analysisCompleted( doc );
+			}
+		}
+	}
+
+	private class ChunkTask implements Runnable
+	{
+		private ExecutionUnit chunk;
+		private Document doc;
+		private StreamingDocumentWriter writer;
+
+		public ChunkTask( ExecutionUnit chunk, Document doc, StreamingDocumentWriter writer )
+		{
+			this.chunk = chunk;
+			this.doc = doc;
+			this.writer = writer;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				long start = System.nanoTime();
+				chunk.execute();
+				chunkTime.recordSince( start );
+
+				if ( writer != null )
+				{
+					writer.writeSentences( doc );
+				}
+			}
+			catch( Throwable t )
+			{
+				fail( t );
+			}
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package dr.nlp.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import dr.nlp.data.Document;
+import dr.nlp.io.JsonDocumentWriter;
+import dr.nlp.io.StaxDocumentWriter;
+import dr.nlp.metrics.Histogram;
+import dr.nlp.metrics.Metrics;
+import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.ScanningAnalyser;
+import dr.nlp.tools.ScanningTokeniser;
+import dr.nlp.tools.SentenceAnalyser;
+import dr.nlp.tools.Tokeniser;
+
+/**
+ * A local HTTP service which keeps the gazetteer and the analysers loaded between
+ * requests, so analysing a short text costs milliseconds rather than a JVM start. Run
+ * it as
+ *
+ *   java dr.nlp.service.AnalysisService [port] [entity file]
+ *
+ * and POST the text to /analyse, with format=json in the query for the compact JSON
+ * form instead of the XML written by StaxDocumentWriter, and optionally a document
+ * name. GET /health answers "ok" once the service is up.
+ *
+ * Requests are handled on virtual threads where the JVM has them (Java 21 and later),
+ * found by reflection so the service still runs on older JVMs with a cached thread pool.
+ * The analysis itself runs on AnalysisWorkers, one per processor. A request which finds
+ * too many others waiting for them is answered 503, as is one cut short by stop().
+ */
+public class AnalysisService
+{
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private static Histogram requestTime = Metrics.getInstance().histogram( "service.request" );
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private AnalysisWorkers workers;
+
+	public AnalysisService( SentenceAnalyser analyser, Tokeniser tokeniser, NamedEntities ner, int port ) throws IOException
+	{
+		int processors = Runtime.getRuntime().availableProcessors();
+		workers = new AnalysisWorkers( analyser, tokeniser, ner, processors, 16 * processors );
+		executor = newRequestExecutor();
+
+		// Local use only, so the service isn't reachable from other machines
+		server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+		server.createContext( "/analyse", new AnalyseHandler() );
+		server.createContext( "/health", new HealthHandler() );
+		server.setExecutor( executor );
+	}
+
+	public static void main( String[] args ) throws IOException
+	{
+		int port = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 8080;
+		String entities = ( args.length > 1 ) ? args[1] : "NER.txt";
+
+		final AnalysisService service = new AnalysisService( new ScanningAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entities ), port );
+		service.start();
+		Runtime.getRuntime().addShutdownHook( new Thread()
+		{
+			@Override
+			public void run()
+			{
+				service.stop();
+			}
+		} );
+
+		System.out.println( "Listening on http://localhost:" + service.getPort() + "/analyse" );
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	public void stop()
+	{
+		server.stop( 0 );
+		workers.shutdown();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * The port the service listens on, which is chosen by the system if 0 was asked for.
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * A virtual thread per request if the JVM has them, otherwise pooled threads.
+	 */
+	static ExecutorService newRequestExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+		}
+		catch( ReflectiveOperationException e )
+		{
+			return Executors.newCachedThreadPool( new ThreadFactory()
+			{
+				@Override
+				public Thread newThread( Runnable r )
+				{
+					Thread thread = new Thread( r, "service-request" );
+					thread.setDaemon( true );
+					return thread;
+				}
+			} );
+		}
+	}
+
+	private class AnalyseHandler implements HttpHandler
+	{
+		@Override
+		public void handle( HttpExchange exchange ) throws IOException
+		{
+			long start = System.nanoTime();
+
+			try
+			{
+				if ( !"POST".equals( exchange.getRequestMethod() ) )
+				{
+					sendText( exchange, 405, "Use POST with the text as the body\n" );
+					return;
+				}
+
+				Map<String, String> query = parseQuery( exchange.getRequestURI().getRawQuery() );
+				String format = query.containsKey( "format" ) ? query.get( "format" ) : "xml";
+				if ( !format.equals( "xml" ) && !format.equals( "json" ) )
+				{
+					sendText( exchange, 400, "Unknown format " + format + ", use xml or json\n" );
+					return;
+				}
+				String name = query.containsKey( "name" ) ? query.get( "name" ) : "request";
+
+				Document doc = workers.submit( name, readBody( exchange ) ).get();
+
+				boolean json = format.equals( "json" );
+				exchange.getResponseHeaders().set( "Content-Type", json ? "application/json; charset=utf-8" : "application/xml; charset=utf-8" );
+				exchange.sendResponseHeaders( 200, 0 );
+				OutputStream out = exchange.getResponseBody();
+				if ( json )
+				{
+					JsonDocumentWriter.writeTo( doc, out );
+				}
+				else
+				{
+					StaxDocumentWriter.writeTo( doc, out );
+				}
+				out.close();
+			}
+			catch( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				sendText( exchange, 503, "Shutting down\n" );
+			}
+			catch( CancellationException e )
+			{
+				sendText( exchange, 503, "Shutting down\n" );
+			}
+			catch( RejectedExecutionException e )
+			{
+				sendText( exchange, 503, "Too many requests waiting, try again later\n" );
+			}
+			catch( ExecutionException e )
+			{
+				sendText( exchange, 500, "Analysis failed: " + e.getCause() + "\n" );
+			}
+			finally
+			{
+				exchange.close();
+				requestTime.recordSince( start );
+			}
+		}
+	}
+
+	private static class HealthHandler implements HttpHandler
+	{
+		@Override
+		public void handle( HttpExchange exchange ) throws IOException
+		{
+			try
+			{
+				sendText( exchange, 200, "ok\n" );
+			}
+			finally
+			{
+				exchange.close();
+			}
+		}
+	}
+
+	private static String readBody( HttpExchange exchange ) throws IOException
+	{
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream( 4096 );
+		byte[] buffer = new byte[8192];
+
+		for ( int n; ( n = in.read( buffer ) ) > 0; )
+		{
+			body.write( buffer, 0, n );
+		}
+
+		return new String( body.toByteArray(), UTF8 );
+	}
+
+	private static void sendText( HttpExchange exchange, int status, String text ) throws IOException
+	{
+		byte[] bytes = text.getBytes( UTF8 );
+		exchange.getResponseHeaders().set( "Content-Type", "text/plain; charset=utf-8" );
+		exchange.sendResponseHeaders( status, bytes.length );
+		exchange.getResponseBody().write( bytes );
+	}
+
+	private static Map<String, String> parseQuery( String query ) throws UnsupportedEncodingException
+	{
+		Map<String, String> parameters = new HashMap<String, String>();
+		if ( query == null )
+		{
+			return parameters;
+		}
+
+		for ( String pair : query.split( "&" ) )
+		{
+			int equals = pair.indexOf( '=' );
+			if ( equals > 0 )
+			{
+				parameters.put( URLDecoder.decode( pair.substring( 0, equals ), "UTF-8" ), URLDecoder.decode( pair.substring( equals + 1 ), "UTF-8" ) );
+			}
+		}
+
+		return parameters;
+	}
+}
@@ -0,0 +1,165 @@
+package dr.nlp.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.Vocabulary;
+import dr.nlp.metrics.Counter;
+import dr.nlp.metrics.Metrics;
+import dr.nlp.tools.AnalysisExecution;
+import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.SentenceAnalyser;
+import dr.nlp.tools.Tokeniser;
+
+/**
+ * Analyses texts submitted from any number of threads on a small, fixed set of workers.
+ * The texts are independent, so each goes to the next free worker on its own and no
+ * request waits behind others taken with it. The number of workers bounds the CPU spent
+ * on analysis however many requests are in flight.
+ *
+ * The queue of texts waiting for a worker is bounded, and a text which doesn't fit is
+ * refused with a RejectedExecutionException, so a burst the workers can't keep up with
+ * is turned away rather than held on the heap. The words of each text are given ids in
+ * a vocabulary of its own, which is dropped along with its document, so the shared
+ * Vocabulary doesn't grow with whatever a long running service is sent.
+ *
+ * After shutdown() every request not yet analysed is cancelled, including any submitted
+ * later, so no caller waits on a result that will never come.
+ */
+public class AnalysisWorkers
+{
+	private static Counter requests = Metrics.getInstance().counter( "service.requests" );
+	private static Counter rejected = Metrics.getInstance().counter( "service.rejected" );
+
+	private SentenceAnalyser analyser;
+	private Tokeniser tokeniser;
+	private NamedEntities ner;
+
+	private BlockingQueue<Request> queue;
+	private Thread[] workers;
+	private volatile boolean shutdown;
+
+	public AnalysisWorkers( SentenceAnalyser analyser, Tokeniser tokeniser, NamedEntities ner, int numWorkers, int maxQueued )
+	{
+		this.analyser = analyser;
+		this.tokeniser = tokeniser;
+		this.ner = ner;
+
+		queue = new ArrayBlockingQueue<Request>( maxQueued );
+		workers = new Thread[numWorkers];
+		for ( int i = 0; i < numWorkers; i++ )
+		{
+			workers[i] = new Thread( new Worker(), "service-analysis-" + i );
+			workers[i].setDaemon( true );
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Queues the text for analysis. The future completes with the analysed document.
+	 * Throws RejectedExecutionException if too many texts are already waiting.
+	 */
+	public Future<Document> submit( String name, String text )
+	{
+		Request request = new Request( name, text );
+		if ( !queue.offer( request ) )
+		{
+			rejected.increment();
+			throw new RejectedExecutionException( queue.size() + " requests already waiting" );
+		}
+		requests.increment();
+
+		// Queued after shutdown() drained the queue
+		if ( shutdown )
+		{
+			cancelPending();
+		}
+
+		return request.result;
+	}
+
+	/**
+	 * Stops the workers and cancels every request that hasn't been analysed.
+	 */
+	public void shutdown()
+	{
+		shutdown = true;
+		for ( Thread worker : workers )
+		{
+			worker.interrupt();
+		}
+		cancelPending();
+	}
+
+	private void cancelPending()
+	{
+		List<Request> pending = new ArrayList<Request>();
+		queue.drainTo( pending );
+
+		for ( Request request : pending )
+		{
+			request.result.cancel( false );
+		}
+	}
+
+	private static class Request
+	{
+		private String name;
+		private String text;
+		private CompletableFuture<Document> result;
+
+		public Request( String name, String text )
+		{
+			this.name = name;
+			this.text = text;
+			this.result = new CompletableFuture<Document>();
+		}
+	}
+
+	private class Worker implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				while ( true )
+				{
+					Request request = queue.take();
+					if ( shutdown )
+					{
+						request.result.cancel( false );
+					}
+					else
+					{
+						analyse( request );
+					}
+				}
+			}
+			catch( InterruptedException e )
+			{
+				// Shut down
+			}
+		}
+
+		private void analyse( Request request )
+		{
+			try
+			{
+				Document doc = new Document( request.name, null, new Vocabulary() );
+				new AnalysisExecution( request.text, doc, analyser, tokeniser, ner ).execute();
+				request.result.complete( doc );
+			}
+			catch( Throwable t )
+			{
+				request.result.completeExceptionally( t );
+			}
+		}
+	}
+}
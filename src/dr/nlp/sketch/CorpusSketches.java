@@ -0,0 +1,144 @@
+package dr.nlp.sketch;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.Vocabulary;
+import dr.nlp.data.WordStatistics;
+
+/**
+ * Corpus wide word and entity frequencies in bounded memory, as an alternative to
+ * merging exact word maps (see Corpus). Words and entities each have a FrequencySketch,
+ * keyed by a hash of the lower case word or of the entity name, so the memory used is
+ * fixed however many distinct words the corpus has. Nothing is added to the Vocabulary,
+ * and only the names of the top K are kept.
+ *
+ * The analysis adds every token it produces to the word sketch straight from its span,
+ * and every entity match to that entity once however many tokens it spans, through the
+ * local sketches of the analysing thread. A document which isn't analysed, e.g. one
+ * taken from a ResultCache, can be added from its statistics instead, which count the
+ * same.
+ */
+public class CorpusSketches
+{
+	private static Vocabulary vocabulary = Vocabulary.getInstance();
+
+	private FrequencySketch words;
+	private FrequencySketch entities;
+
+	public CorpusSketches( int width, int depth, int k )
+	{
+		words = new FrequencySketch( width, depth, k, true );
+		entities = new FrequencySketch( width, depth, k );
+	}
+
+	public FrequencySketch getWords()
+	{
+		return words;
+	}
+
+	public FrequencySketch getEntities()
+	{
+		return entities;
+	}
+
+	/**
+	 * Adds the counts of a document from its word statistics, and flushes them.
+	 */
+	public void add( Document doc )
+	{
+		LocalSketch wordSketch = words.local();
+		LocalSketch entitySketch = entities.local();
+		WordStatistics statistics = doc.getWordStatistics();
+
+		for ( int slot = 0; slot < statistics.capacity(); slot++ )
+		{
+			int word = statistics.wordIdAt( slot );
+			if ( word >= 0 )
+			{
+				wordSketch.add( vocabulary.getWord( word ), statistics.countAt( slot ) );
+			}
+		}
+		for ( int id = 0; id < statistics.getNumEntities(); id++ )
+		{
+			if ( statistics.matchesAt( id ) > 0 )
+			{
+				entitySketch.add( statistics.entityAt( id ), statistics.matchesAt( id ) );
+			}
+		}
+
+		wordSketch.flush();
+		entitySketch.flush();
+	}
+
+	/**
+	 * The estimated number of times the lower case word occurs.
+	 */
+	public long getWordCount( String word )
+	{
+		return words.estimate( word );
+	}
+
+	public long getEntityCount( String entity )
+	{
+		return entities.estimate( entity );
+	}
+
+	/**
+	 * The most frequent words with their estimated counts, most frequent first.
+	 */
+	public LinkedHashMap<String, Long> getTopWords()
+	{
+		return toMap( words.getTop() );
+	}
+
+	public LinkedHashMap<String, Long> getTopEntities()
+	{
+		return toMap( entities.getTop() );
+	}
+
+	public long getMemoryBytes()
+	{
+		return words.getMemoryBytes() + entities.getMemoryBytes();
+	}
+
+	/**
+	 * Prints the top words and entities with their share of the total, in the format of
+	 * MetricsReporter.
+	 */
+	public void report( PrintStream out )
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append( "-- top words --\n" );
+		append( sb, getTopWords(), words.getTotal() );
+		sb.append( "-- top entities --\n" );
+		append( sb, getTopEntities(), entities.getTotal() );
+
+		out.print( sb );
+		out.flush();
+	}
+
+	private static void append( StringBuilder sb, LinkedHashMap<String, Long> top, long total )
+	{
+		for ( Map.Entry<String, Long> entry : top.entrySet() )
+		{
+			double share = ( total > 0 ) ? 100.0 * entry.getValue() / total : 0;
+			sb.append( String.format( "  %-24s %12d  %9.2f%%%n", entry.getKey(), entry.getValue(), share ) );
+		}
+	}
+
+	private static LinkedHashMap<String, Long> toMap( List<HeavyHitter> top )
+	{
+		LinkedHashMap<String, Long> map = new LinkedHashMap<String, Long>( top.size() * 2 );
+
+		for ( HeavyHitter hitter : top )
+		{
+			map.put( hitter.getName(), hitter.getCount() );
+		}
+
+		return map;
+	}
+}
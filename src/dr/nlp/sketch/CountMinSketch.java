@@ -0,0 +1,145 @@
+package dr.nlp.sketch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Count-Min sketch of long keys: depth rows of width counters, where each key adds to
+ * one counter per row and is estimated by the smallest of them. An estimate is never
+ * below the true count, and exceeds it by more than e / width of the total count only
+ * with probability e^-depth. The memory used is fixed when the sketch is created,
+ * however many distinct keys are added.
+ *
+ * The counters are atomic, so adding to the sketch and merging other sketches into it
+ * are lock-free.
+ */
+public class CountMinSketch
+{
+	private int width;
+	private int depth;
+	private int mask;
+	private AtomicLongArray counters;
+	private AtomicLong total;
+
+	/**
+	 * The width is rounded up to a power of two.
+	 */
+	public CountMinSketch( int width, int depth )
+	{
+		if ( width < 1 || depth < 1 )
+		{
+			throw new IllegalArgumentException( "Invalid sketch size: " + width + " x " + depth );
+		}
+
+		this.width = 1;
+		while ( this.width < width )
+		{
+			this.width <<= 1;
+		}
+		this.depth = depth;
+		this.mask = this.width - 1;
+		counters = new AtomicLongArray( this.width * depth );
+		total = new AtomicLong();
+	}
+
+	public void add( long key, long count )
+	{
+		long hash = hash( key );
+
+		for ( int row = 0; row < depth; row++ )
+		{
+			counters.addAndGet( cell( hash, row ), count );
+		}
+		total.addAndGet( count );
+	}
+
+	public long estimate( long key )
+	{
+		long hash = hash( key );
+		long estimate = Long.MAX_VALUE;
+
+		for ( int row = 0; row < depth; row++ )
+		{
+			estimate = Math.min( estimate, counters.get( cell( hash, row ) ) );
+		}
+
+		return estimate;
+	}
+
+	/**
+	 * Adds the counts of another sketch of the same size.
+	 */
+	public void merge( CountMinSketch other )
+	{
+		if ( other.width != width || other.depth != depth )
+		{
+			throw new IllegalArgumentException( "Sketch sizes differ: " + other.width + " x " + other.depth + ", " + width + " x " + depth );
+		}
+
+		for ( int i = 0; i < counters.length(); i++ )
+		{
+			long count = other.counters.get( i );
+			if ( count != 0 )
+			{
+				counters.addAndGet( i, count );
+			}
+		}
+		total.addAndGet( other.total.get() );
+	}
+
+	/**
+	 * The sum of all counts added.
+	 */
+	public long getTotal()
+	{
+		return total.get();
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	public long getMemoryBytes()
+	{
+		return 8L * counters.length();
+	}
+
+	/**
+	 * Adds to a single counter, for merging a LocalSketch of the same size.
+	 */
+	void addToCell( int cell, long count )
+	{
+		counters.addAndGet( cell, count );
+	}
+
+	void addToTotal( long count )
+	{
+		total.addAndGet( count );
+	}
+
+	/**
+	 * The counter of the key in the row, by double hashing the two halves of its hash.
+	 */
+	int cell( long hash, int row )
+	{
+		int h1 = (int) hash;
+		int h2 = (int) ( hash >>> 32 ) | 1;
+		return row * width + ( ( h1 + row * h2 ) & mask );
+	}
+
+	static long hash( long key )
+	{
+		key ^= ( key >>> 33 );
+		key *= 0xff51afd7ed558ccdL;
+		key ^= ( key >>> 33 );
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= ( key >>> 33 );
+		return key;
+	}
+}
@@ -0,0 +1,263 @@
+package dr.nlp.sketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Approximate frequencies of long keys in a fixed amount of memory: a Count-Min sketch
+ * of the counts, and the K keys with the highest estimates seen so far.
+ *
+ * Words and other names are keyed by a 64 bit hash of their characters (see keyOf), lower
+ * cased if the sketch was created to ignore case, so a token is counted straight from
+ * its span. Only the K heavy hitters keep their name as a String.
+ *
+ * Each thread adds to its own LocalSketch (see local()), which is merged into the shared
+ * sketch lock-free when it is flushed. The keys it added are then offered to the top K
+ * with their merged estimates. Most keys are turned away by comparing with the smallest
+ * count in the top K, which is read without locking; only keys which make it in take
+ * the lock, and the list is only K long.
+ *
+ * Estimates and the top K include what has been flushed, not what threads still hold.
+ */
+public class FrequencySketch
+{
+	private static final int MAX_CANDIDATES = 4096;
+
+	// FNV-1a
+	private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	private CountMinSketch sketch;
+	private int k;
+	private boolean lowerCase;
+	private ThreadLocal<LocalSketch> locals;
+
+	// The top K, unordered, and the smallest count in it once it is full
+	private long[] keys;
+	private long[] counts;
+	private String[] names;
+	private int size;
+	private volatile long threshold;
+
+	public FrequencySketch( int width, int depth, int k )
+	{
+		this( width, depth, k, false );
+	}
+
+	/**
+	 * A sketch which lower cases names before keying them, if asked to.
+	 */
+	public FrequencySketch( int width, int depth, int k, boolean lowerCase )
+	{
+		this.sketch = new CountMinSketch( width, depth );
+		this.k = k;
+		this.lowerCase = lowerCase;
+
+		keys = new long[k];
+		counts = new long[k];
+		names = new String[k];
+		updateThreshold();
+		locals = new ThreadLocal<LocalSketch>()
+		{
+			@Override
+			protected LocalSketch initialValue()
+			{
+				return new LocalSketch( FrequencySketch.this, MAX_CANDIDATES );
+			}
+		};
+	}
+
+	/**
+	 * The calling thread's sketch, which must only be used from that thread.
+	 */
+	public LocalSketch local()
+	{
+		return locals.get();
+	}
+
+	public long estimate( long key )
+	{
+		return sketch.estimate( key );
+	}
+
+	public long estimate( CharSequence name )
+	{
+		return sketch.estimate( keyOf( name, 0, name.length() ) );
+	}
+
+	/**
+	 * The key of the name in text[start, end), which is the same for any span with the
+	 * same characters, once lower cased if the sketch ignores case.
+	 */
+	public long keyOf( CharSequence text, int start, int end )
+	{
+		long hash = OFFSET_BASIS;
+		for ( int i = start; i < end; i++ )
+		{
+			char c = text.charAt( i );
+			if ( lowerCase )
+			{
+				c = Character.toLowerCase( c );
+			}
+			hash = ( hash ^ c ) * PRIME;
+		}
+
+		// The smallest long marks a free slot in the local sketches
+		return ( hash == Long.MIN_VALUE ) ? 0 : hash;
+	}
+
+	public boolean isLowerCase()
+	{
+		return lowerCase;
+	}
+
+	public long getTotal()
+	{
+		return sketch.getTotal();
+	}
+
+	public CountMinSketch getSketch()
+	{
+		return sketch;
+	}
+
+	/**
+	 * The memory used by the shared sketch, not counting the names of the top K. Each
+	 * thread's local sketch adds under a megabyte at a depth of 4, whatever the width.
+	 */
+	public long getMemoryBytes()
+	{
+		return sketch.getMemoryBytes() + 24L * k;
+	}
+
+	/**
+	 * The keys with the highest estimated counts, most frequent first.
+	 */
+	public synchronized List<HeavyHitter> getTop()
+	{
+		Integer[] order = new Integer[size];
+		for ( int i = 0; i < size; i++ )
+		{
+			order[i] = i;
+		}
+		Arrays.sort( order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare( Integer a, Integer b )
+			{
+				return Long.compare( counts[b], counts[a] );
+			}
+		} );
+
+		List<HeavyHitter> top = new ArrayList<HeavyHitter>( size );
+		for ( Integer i : order )
+		{
+			top.add( new HeavyHitter( keys[i], names[i], counts[i] ) );
+		}
+
+		return top;
+	}
+
+	/**
+	 * Merges another sketch of the same size, such as one from another run, and offers
+	 * its top keys.
+	 */
+	public void merge( FrequencySketch other )
+	{
+		sketch.merge( other.sketch );
+
+		for ( HeavyHitter hitter : other.getTop() )
+		{
+			long count = sketch.estimate( hitter.getKey() );
+			if ( count > threshold )
+			{
+				synchronized ( this )
+				{
+					int slot = admit( hitter.getKey(), count );
+					if ( slot >= 0 )
+					{
+						names[slot] = hitter.getName();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Offers a key to the top K with its current estimate. If it makes it in, its name
+	 * is made from chars[offset, offset + length), unless length is negative for a key
+	 * without a name.
+	 */
+	void offer( long key, char[] chars, int offset, int length )
+	{
+		long count = sketch.estimate( key );
+		if ( count <= threshold )
+		{
+			return;
+		}
+
+		synchronized ( this )
+		{
+			int slot = admit( key, count );
+			if ( slot >= 0 )
+			{
+				names[slot] = ( length < 0 ) ? null : new String( chars, offset, length );
+			}
+		}
+	}
+
+	// Updates the count of a key in the top K, or puts it in place of the smallest.
+	// Returns the slot of a key which wasn't there before, or -1
+	private int admit( long key, long count )
+	{
+		int min = 0;
+		for ( int i = 0; i < size; i++ )
+		{
+			if ( keys[i] == key )
+			{
+				counts[i] = Math.max( counts[i], count );
+				updateThreshold();
+				return -1;
+			}
+			if ( counts[i] < counts[min] )
+			{
+				min = i;
+			}
+		}
+
+		int slot = -1;
+		if ( size < k )
+		{
+			slot = size++;
+		}
+		else if ( count > counts[min] )
+		{
+			slot = min;
+		}
+		if ( slot >= 0 )
+		{
+			keys[slot] = key;
+			counts[slot] = count;
+		}
+		updateThreshold();
+
+		return slot;
+	}
+
+	private void updateThreshold()
+	{
+		if ( size < k )
+		{
+			return;
+		}
+
+		long min = Long.MAX_VALUE;
+		for ( int i = 0; i < size; i++ )
+		{
+			min = Math.min( min, counts[i] );
+		}
+		threshold = min;
+	}
+}
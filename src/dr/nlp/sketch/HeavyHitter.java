@@ -0,0 +1,34 @@
+package dr.nlp.sketch;
+
+/**
+ * A key among the most frequent in a FrequencySketch, with its name, if it was added
+ * with one, and its estimated count.
+ */
+public class HeavyHitter
+{
+	private long key;
+	private String name;
+	private long count;
+
+	public HeavyHitter( long key, String name, long count )
+	{
+		this.key = key;
+		this.name = name;
+		this.count = count;
+	}
+
+	public long getKey()
+	{
+		return key;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+}
@@ -0,0 +1,186 @@
+package dr.nlp.sketch;
+
+import java.util.Arrays;
+
+import dr.nlp.util.LongIntHashMap;
+
+/**
+ * A single thread's sketch of the counts it is adding to a FrequencySketch. It is kept
+ * sparse: only the counters which have been touched are held, by their index in the
+ * shared sketch, along with the keys added as candidates for the top K. A flush adds
+ * those counters to the shared sketch and offers the candidates, so flushing costs in
+ * proportion to what was added rather than to the size of the sketch.
+ *
+ * The name of a candidate added from a span is copied into a character buffer the first
+ * time it is seen, and only becomes a String if it makes it into the top K.
+ *
+ * It flushes itself once it has collected maxCandidates keys, or a buffer full of names,
+ * so its memory is bounded and small. Call flush() when done, e.g. at the end of a
+ * document.
+ */
+public class LocalSketch
+{
+	private static final int NO_NAME = -1;
+	private static final int MAX_NAME_LENGTH = 256;
+	private static final int NAME_BUFFER_SIZE = 64 * 1024;
+
+	private FrequencySketch target;
+	private CountMinSketch layout;
+	private int depth;
+	private int maxCandidates;
+	private boolean lowerCase;
+
+	private LongIntHashMap counters;
+	private long total;
+
+	// The candidates with the offset of their name in the buffer, where the name is
+	// preceded by its length
+	private LongIntHashMap candidates;
+	private char[] names;
+	private int namesLength;
+
+	LocalSketch( FrequencySketch target, int maxCandidates )
+	{
+		this.target = target;
+		this.layout = target.getSketch();
+		this.depth = layout.getDepth();
+		this.maxCandidates = maxCandidates;
+		this.lowerCase = target.isLowerCase();
+
+		counters = new LongIntHashMap( maxCandidates * depth, 0 );
+		candidates = new LongIntHashMap( maxCandidates, NO_NAME );
+		names = new char[1024];
+	}
+
+	public void add( long key )
+	{
+		add( key, 1 );
+	}
+
+	/**
+	 * Adds to a key without a name.
+	 */
+	public void add( long key, int count )
+	{
+		addCounts( key, count );
+
+		if ( !candidates.containsKey( key ) )
+		{
+			candidates.put( key, NO_NAME );
+			flushIfFull();
+		}
+	}
+
+	public void add( CharSequence text, int start, int end )
+	{
+		add( text, start, end, 1 );
+	}
+
+	/**
+	 * Adds to the name in text[start, end).
+	 */
+	public void add( CharSequence text, int start, int end, int count )
+	{
+		long key = target.keyOf( text, start, end );
+		addCounts( key, count );
+
+		if ( candidates.get( key ) == NO_NAME )
+		{
+			candidates.put( key, appendName( text, start, end ) );
+			flushIfFull();
+		}
+	}
+
+	public void add( String name, int count )
+	{
+		add( name, 0, name.length(), count );
+	}
+
+	/**
+	 * Merges the counts into the shared sketch and offers the keys to its top K.
+	 */
+	public void flush()
+	{
+		if ( candidates.size() == 0 )
+		{
+			return;
+		}
+
+		for ( int slot = 0; slot < counters.capacity(); slot++ )
+		{
+			long cell = counters.keyAt( slot );
+			if ( cell != LongIntHashMap.FREE_KEY )
+			{
+				layout.addToCell( (int) cell, counters.valueAt( slot ) );
+			}
+		}
+		layout.addToTotal( total );
+
+		for ( int slot = 0; slot < candidates.capacity(); slot++ )
+		{
+			long key = candidates.keyAt( slot );
+			if ( key != LongIntHashMap.FREE_KEY )
+			{
+				int offset = candidates.valueAt( slot );
+				if ( offset == NO_NAME )
+				{
+					target.offer( key, names, 0, -1 );
+				}
+				else
+				{
+					target.offer( key, names, offset + 1, names[offset] );
+				}
+			}
+		}
+
+		total = 0;
+		counters.clear();
+		candidates.clear();
+		namesLength = 0;
+	}
+
+	private void addCounts( long key, int count )
+	{
+		if ( count < 0 )
+		{
+			throw new IllegalArgumentException( "Negative count: " + count );
+		}
+
+		long hash = CountMinSketch.hash( key );
+
+		for ( int row = 0; row < depth; row++ )
+		{
+			int cell = layout.cell( hash, row );
+			counters.put( cell, counters.get( cell ) + count );
+		}
+		total += count;
+	}
+
+	// Copies the name to the buffer, cut short if it is very long, and returns its offset
+	private int appendName( CharSequence text, int start, int end )
+	{
+		int length = Math.min( end - start, MAX_NAME_LENGTH );
+		if ( namesLength + length + 1 > names.length )
+		{
+			names = Arrays.copyOf( names, Math.max( names.length * 2, namesLength + length + 1 ) );
+		}
+
+		int offset = namesLength;
+		names[namesLength++] = (char) length;
+		for ( int i = start; i < start + length; i++ )
+		{
+			char c = text.charAt( i );
+			names[namesLength++] = lowerCase ? Character.toLowerCase( c ) : c;
+		}
+
+		return offset;
+	}
+
+	private void flushIfFull()
+	{
+		if ( candidates.size() >= maxCandidates || namesLength >= NAME_BUFFER_SIZE )
+		{
+			flush();
+		}
+	}
+}
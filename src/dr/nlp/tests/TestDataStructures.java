@@ -2,7 +2,12 @@ package dr.nlp.tests;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 import javax.xml.bind.JAXBException;
 
@@ -10,9 +15,17 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import dr.nlp.data.Corpus;
 import dr.nlp.data.Document;
 import dr.nlp.data.Sentence;
+import dr.nlp.data.SentenceCursor;
+import dr.nlp.data.SentenceStore;
+import dr.nlp.data.Vocabulary;
+import dr.nlp.data.WordStatistics;
 import dr.nlp.data.Word;
+import dr.nlp.sketch.FrequencySketch;
+import dr.nlp.sketch.HeavyHitter;
+import dr.nlp.sketch.LocalSketch;
 
 public class TestDataStructures
 {
@@ -45,6 +58,81 @@ public class TestDataStructures
 		assertEquals( 0, s.getNumWords() );
 	}
 
+	@Test
+	public void testVocabulary()
+	{
+		Vocabulary vocabulary = new Vocabulary();
+		int cat = vocabulary.getId( "cat" );
+
+		assertEquals( cat, vocabulary.getId( new String( "cat" ) ) );
+		assertNotEquals( cat, vocabulary.getId( "hat" ) );
+		assertEquals( -1, vocabulary.lookup( "dog" ) );
+		assertEquals( "cat", vocabulary.getWord( cat ) );
+		assertEquals( 2, vocabulary.size() );
+
+		// Spans are found without a String, through the index which grows with the words
+		for ( int i = 0; i < 5000; i++ )
+		{
+			vocabulary.getId( "w" + i );
+		}
+		String text = "The Cat sat";
+		assertEquals( cat, vocabulary.getLowerCaseId( text, 4, 7 ) );
+		assertEquals( -1, vocabulary.lookup( text, 4, 7 ) );
+		assertEquals( vocabulary.getId( "w4999" ), vocabulary.lookup( "xw4999", 1, 6 ) );
+		assertEquals( vocabulary.getId( "sat" ), vocabulary.getLowerCaseId( text, 8, 11 ) );
+		assertEquals( vocabulary.getId( "café" ), vocabulary.getLowerCaseId( "CAFÉ", 0, 4 ) );
+
+		Sentence a = new Sentence();
+		a.addWord( "the" );
+		a.addWord( "cat" );
+		Sentence b = new Sentence( 1 );
+		b.addWord( new String( "the" ) );
+		b.addWord( new String( "cat" ) );
+
+		assertEquals( a, b );
+		assertSame( a.getWord( 1 ), b.getWord( 1 ) );
+		assertEquals( 2, b.getWords().size() );
+	}
+
+	@Test
+	public void testWordStatistics()
+	{
+		Vocabulary vocabulary = Vocabulary.getInstance();
+		WordStatistics statistics = new WordStatistics();
+		List<String> none = new ArrayList<String>();
+
+		for ( int i = 0; i < 1000; i++ )
+		{
+			statistics.add( vocabulary.getId( "word" + ( i % 100 ) ), "Word" + ( i % 100 ), none );
+		}
+		statistics.add( vocabulary.getId( "word7" ), "word7", Arrays.asList( "A", "B" ) );
+		statistics.add( vocabulary.getId( "word7" ), "word7", Arrays.asList( "B", "C", "A" ) );
+
+		assertEquals( 100, statistics.size() );
+		assertEquals( 10, statistics.getCount( "word3" ) );
+		assertEquals( 12, statistics.getCount( "word7" ) );
+		assertEquals( 0, statistics.getCount( "word100" ) );
+		assertEquals( "Word7", statistics.toMap().get( "word7" ).getName() );
+		assertEquals( Arrays.asList( "A", "B", "C" ), statistics.toMap().get( "word7" ).getNamedEntities() );
+		assertEquals( 0, statistics.toMap().get( "word8" ).getNamedEntities().size() );
+
+		// Names are kept as they are, without adding them to the vocabulary
+		statistics.add( vocabulary.getId( "wordstatisticsname" ), "WordStatisticsName", none );
+		assertEquals( "WordStatisticsName", statistics.toMap().get( "wordstatisticsname" ).getName() );
+		assertEquals( -1, vocabulary.lookup( "WordStatisticsName" ) );
+
+		WordStatistics other = new WordStatistics();
+		other.add( vocabulary.getId( "word7" ), "WORD7", Arrays.asList( "D", "A" ) );
+		other.add( vocabulary.getId( "word100" ), "Word100", none );
+		statistics.merge( other );
+
+		assertEquals( 102, statistics.size() );
+		assertEquals( 13, statistics.getCount( "word7" ) );
+		assertEquals( 1, statistics.getCount( "word100" ) );
+		assertEquals( "Word7", statistics.toMap().get( "word7" ).getName() );
+		assertEquals( Arrays.asList( "A", "B", "C", "D" ), statistics.toMap().get( "word7" ).getNamedEntities() );
+	}
+
 	@Test
 	public void testDocument() throws JAXBException
 	{
@@ -62,4 +150,261 @@ public class TestDataStructures
 
 		assertEquals( 2, d.getNumberOfWordInstances( "the" ) );
 	}
+
+	@Test
+	public void testConcurrentDocument() throws InterruptedException
+	{
+		final Document d = new Document( "test_concurrent.txt" );
+		final int numThreads = 8;
+		final int numSentences = 2000;
+		Thread[] threads = new Thread[numThreads];
+
+		for ( int t = 0; t < numThreads; t++ )
+		{
+			final String own = "thread" + t;
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					for ( int i = 0; i < numSentences; i++ )
+					{
+						List<Word> words = new ArrayList<Word>();
+						words.add( new Word( "The" ) );
+						words.add( new Word( "cat" ) );
+						words.add( new Word( own ) );
+						Word hat = new Word( "hat" );
+						hat.addNamedEntity( own );
+						words.add( hat );
+						d.addSentence( words );
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for ( Thread thread : threads )
+		{
+			thread.join();
+		}
+
+		assertEquals( numThreads * numSentences, d.getSentences().size() );
+		assertEquals( numThreads * numSentences, d.getNumberOfWordInstances( "the" ) );
+		assertEquals( numThreads * numSentences, d.getNumberOfWordInstances( "hat" ) );
+		assertEquals( numSentences, d.getNumberOfWordInstances( "thread3" ) );
+		assertEquals( numThreads, d.getWordMap().get( "hat" ).getNamedEntities().size() );
+	}
+
+	@Test
+	public void testCorpus()
+	{
+		Corpus corpus = new Corpus();
+		List<Document> evenDocuments = new ArrayList<Document>();
+
+		for ( int i = 0; i < 100; i++ )
+		{
+			Document d = new Document( "doc" + i );
+
+			ArrayList<Word> words = new ArrayList<Word>();
+			words.add( new Word( "The" ) );
+			words.add( new Word( "cat" + ( i % 10 ) ) );
+			words.add( new Word( "the" ) );
+			Word hat = new Word( "hat" );
+			if ( i % 4 == 0 )
+			{
+				hat.addNamedEntity( "Hat" );
+			}
+			words.add( hat );
+			d.addSentence( words );
+
+			corpus.addDocument( d );
+			if ( i % 2 == 0 )
+			{
+				evenDocuments.add( d );
+			}
+		}
+
+		assertEquals( 100, corpus.getNumberOfDocuments() );
+		assertEquals( 200, corpus.getNumberOfWordInstances( "THE" ) );
+		assertEquals( 10, corpus.getNumberOfWordInstances( "cat7" ) );
+		assertEquals( 0, corpus.getNumberOfWordInstances( "dog" ) );
+		assertEquals( 12, corpus.getNumberOfDistinctWords() );
+		assertEquals( 25, corpus.getNumberOfDocumentsWithEntity( "Hat" ) );
+		assertEquals( 100, corpus.getNumberOfWordInstances( "the", evenDocuments ) );
+		assertEquals( 0, corpus.getNumberOfWordInstances( "cat7", evenDocuments ) );
+
+		Document extra = new Document( "extra" );
+		ArrayList<Word> words = new ArrayList<Word>();
+		words.add( new Word( "the" ) );
+		extra.addSentence( words );
+		corpus.addDocument( extra );
+		assertEquals( 201, corpus.getNumberOfWordInstances( "the" ) );
+	}
+
+	@Test
+	public void testSentenceStore() throws IOException
+	{
+		// Pages small enough that the sentences are spread over several, and the long
+		// sentence needs a page of its own
+		SentenceStore store = new SentenceStore( 64 );
+		Document stored = new Document( "stored", store );
+		Document plain = new Document( "plain" );
+
+		for ( int i = 0; i < 20; i++ )
+		{
+			ArrayList<Word> words = new ArrayList<Word>();
+			for ( int w = 0; w <= ( ( i == 7 ) ? 100 : i % 5 ); w++ )
+			{
+				words.add( new Word( "word" + ( i * w ) ) );
+			}
+			stored.addSentence( words );
+			plain.addSentence( words );
+		}
+
+		assertEquals( 20, stored.getNumSentences() );
+		assertEquals( plain.getSentences(), stored.getSentences() );
+		assertEquals( plain.getWordMap().keySet(), stored.getWordMap().keySet() );
+		assertTrue( store.getNumPages() > 2 );
+
+		Iterator<Sentence> iterator = stored.sentenceIterator();
+		SentenceCursor cursor = store.cursor();
+		for ( int i = 0; i < 20; i++ )
+		{
+			Sentence expected = plain.getSentences().get( i );
+			assertEquals( expected, iterator.next() );
+
+			cursor.open( stored.getSentenceAddress( i ) );
+			assertEquals( expected.getNumWords(), cursor.getNumWords() );
+			for ( int w = 0; cursor.hasNext(); w++ )
+			{
+				assertEquals( expected.getWordId( w ), cursor.nextWordId() );
+			}
+		}
+		assertFalse( iterator.hasNext() );
+
+		// Documents with and without a store are read the same way
+		SentenceCursor storedCursor = new SentenceCursor();
+		SentenceCursor plainCursor = new SentenceCursor();
+		for ( int i = 0; i < 20; i++ )
+		{
+			stored.openSentence( i, storedCursor );
+			plain.openSentence( i, plainCursor );
+			assertEquals( plainCursor.getNumWords(), storedCursor.getNumWords() );
+			while ( plainCursor.hasNext() )
+			{
+				assertEquals( plainCursor.nextWordId(), storedCursor.nextWordId() );
+			}
+			assertFalse( storedCursor.hasNext() );
+		}
+
+		// Released pages are reused by the next document
+		int pages = store.getNumPages();
+		stored.release();
+		assertEquals( 0, stored.getNumSentences() );
+		assertTrue( store.getNumFreePages() > 0 );
+		Document next = new Document( "next", store );
+		for ( Sentence sentence : plain.getSentences().subList( 0, 5 ) )
+		{
+			ArrayList<Word> words = new ArrayList<Word>();
+			for ( String word : sentence.getWords() )
+			{
+				words.add( new Word( word ) );
+			}
+			next.addSentence( words );
+		}
+		assertEquals( plain.getSentences().subList( 0, 5 ), next.getSentences() );
+		assertEquals( pages, store.getNumPages() );
+		store.close();
+
+		// Pages mapped from a file
+		File file = File.createTempFile( "nlp", ".store" );
+		SentenceStore mapped = new SentenceStore( file, 64 );
+		Document mappedDoc = new Document( "mapped", mapped );
+		for ( Sentence sentence : plain.getSentences() )
+		{
+			ArrayList<Word> words = new ArrayList<Word>();
+			for ( String word : sentence.getWords() )
+			{
+				words.add( new Word( word ) );
+			}
+			mappedDoc.addSentence( words );
+		}
+		assertEquals( plain.getSentences(), mappedDoc.getSentences() );
+		mapped.close();
+		assertFalse( file.exists() );
+	}
+
+	@Test
+	public void testFrequencySketch() throws InterruptedException
+	{
+		final FrequencySketch sketch = new FrequencySketch( 1024, 4, 5 );
+		final int numThreads = 8;
+		Thread[] threads = new Thread[numThreads];
+
+		// Key k is added 1000 / k times by every thread, over many more keys than counters
+		for ( int t = 0; t < numThreads; t++ )
+		{
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					LocalSketch local = sketch.local();
+					for ( int key = 1; key <= 20000; key++ )
+					{
+						for ( int i = 0; i < 1000 / key; i++ )
+						{
+							local.add( key );
+						}
+						local.add( 100000 + key );
+					}
+					local.flush();
+				}
+			};
+			threads[t].start();
+		}
+		for ( Thread thread : threads )
+		{
+			thread.join();
+		}
+
+		long total = 0;
+		for ( int key = 1; key <= 20000; key++ )
+		{
+			long count = numThreads * ( 1000 / key );
+			total += count + numThreads;
+			assertTrue( sketch.estimate( key ) >= count );
+			assertTrue( sketch.estimate( 100000 + key ) >= numThreads );
+		}
+		assertEquals( total, sketch.getTotal() );
+		assertTrue( sketch.estimate( 1 ) - numThreads * 1000 < total / 100 );
+
+		List<HeavyHitter> top = sketch.getTop();
+		assertEquals( 5, top.size() );
+		for ( int i = 0; i < 5; i++ )
+		{
+			assertEquals( i + 1, top.get( i ).getKey() );
+			assertTrue( top.get( i ).getCount() >= numThreads * ( 1000 / ( i + 1 ) ) );
+		}
+
+		// Merging doubles the counts
+		FrequencySketch other = new FrequencySketch( 1024, 4, 5 );
+		other.merge( sketch );
+		other.merge( sketch );
+		assertEquals( 2 * total, other.getTotal() );
+		assertEquals( 2 * sketch.estimate( 3 ), other.estimate( 3 ) );
+		assertEquals( 1, other.getTop().get( 0 ).getKey() );
+
+		// Names are keyed by their lower case characters, wherever the span is
+		FrequencySketch names = new FrequencySketch( 1024, 4, 2, true );
+		LocalSketch local = names.local();
+		String text = "The cat saw THE dog";
+		local.add( text, 0, 3 );
+		local.add( text, 4, 7 );
+		local.add( text, 12, 15 );
+		local.add( "the", 1 );
+		local.flush();
+		assertEquals( 3, names.estimate( "tHe" ) );
+		assertEquals( "the", names.getTop().get( 0 ).getName() );
+		assertEquals( "cat", names.getTop().get( 1 ).getName() );
+	}
 }
@@ -0,0 +1,210 @@
+package dr.nlp.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.Sentence;
+import dr.nlp.index.IndexHit;
+import dr.nlp.index.IndexWriter;
+import dr.nlp.index.InvertedIndex;
+import dr.nlp.tools.AnalysisExecution;
+import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.ScanningTokeniser;
+import dr.nlp.tools.SimpleAnalyser;
+
+public class TestIndex
+{
+	private static String nlpDataFilePath = "nlp_data.txt";
+	private static String entityFilename  = "NER.txt";
+
+	private List<Document> documents;
+	private File indexFile;
+	private InvertedIndex index;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		NamedEntities entities = NamedEntities.getInstance( entityFilename );
+
+		documents = new ArrayList<Document>();
+		IndexWriter writer = new IndexWriter();
+
+		// The same text twice, and once with only its second half
+		String[] texts = { contents, contents.substring( contents.length() / 2 ), contents };
+		for ( int i = 0; i < texts.length; i++ )
+		{
+			Document doc = new Document( "doc" + i );
+			new AnalysisExecution( texts[i], doc, new SimpleAnalyser(), new ScanningTokeniser(), entities ).execute();
+			documents.add( doc );
+			assertEquals( i, writer.add( doc ) );
+		}
+
+		indexFile = File.createTempFile( "nlp", ".idx" );
+		writer.save( indexFile );
+		writer.close();
+		index = new InvertedIndex( indexFile );
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		index.close();
+		indexFile.delete();
+	}
+
+	@Test
+	public void testTermQuery()
+	{
+		assertEquals( documents.size(), index.getNumDocuments() );
+		assertEquals( "doc1", index.getDocumentName( 1 ) );
+
+		for ( String term : new String[] { "war", "the", "haeckel", "austria-hungary", "1914" } )
+		{
+			assertHits( scan( term ), index.search( term ) );
+		}
+
+		assertTrue( index.search( "war" ).size() > 0 );
+		assertEquals( 0, index.search( "no-such-word" ).size() );
+		assertEquals( 3, index.getDocumentFrequency( "war" ) );
+	}
+
+	@Test
+	public void testSpilledSegments() throws IOException
+	{
+		// Spills after every sentence, and merges segments two at a time
+		IndexWriter writer = new IndexWriter( 1, null );
+		writer.setMaxFanIn( 2 );
+		for ( Document doc : documents )
+		{
+			writer.add( doc );
+		}
+		assertTrue( writer.getNumSegments() > 1 );
+
+		File spilled = File.createTempFile( "nlp", ".idx" );
+		try
+		{
+			writer.save( spilled );
+			assertTrue( Arrays.equals( Files.readAllBytes( indexFile.toPath() ), Files.readAllBytes( spilled.toPath() ) ) );
+		}
+		finally
+		{
+			writer.close();
+			spilled.delete();
+		}
+		assertEquals( 0, writer.getNumSegments() );
+	}
+
+	@Test
+	public void testAndQuery()
+	{
+		List<IndexHit> hits = index.searchAll( "war", "austria-hungary" );
+		assertTrue( hits.size() > 0 );
+
+		for ( IndexHit hit : hits )
+		{
+			List<String> words = getWords( hit );
+			assertTrue( words.contains( "war" ) && words.contains( "austria-hungary" ) );
+		}
+
+		int expected = 0;
+		for ( IndexHit hit : index.search( "war" ) )
+		{
+			expected += getWords( hit ).contains( "austria-hungary" ) ? 1 : 0;
+		}
+		assertEquals( expected, hits.size() );
+		assertEquals( 0, index.searchAll( "war", "no-such-word" ).size() );
+	}
+
+	@Test
+	public void testPhraseQuery()
+	{
+		List<IndexHit> hits = index.searchPhrase( "first world war" );
+		assertEquals( scanPhrase( "first", "world", "war" ), hits.size() );
+		assertTrue( hits.size() > 0 );
+
+		for ( IndexHit hit : hits )
+		{
+			List<String> words = getWords( hit );
+			for ( int start : hit.getPositions() )
+			{
+				assertEquals( "first", words.get( start ) );
+				assertEquals( "world", words.get( start + 1 ) );
+				assertEquals( "war", words.get( start + 2 ) );
+			}
+		}
+
+		assertEquals( scanPhrase( "war", "first" ), index.searchPhrase( "war", "first" ).size() );
+	}
+
+	private List<String> getWords( IndexHit hit )
+	{
+		return documents.get( hit.getDocument() ).getSentences().get( hit.getSentence() ).getWords();
+	}
+
+	private List<int[]> scan( String term )
+	{
+		List<int[]> hits = new ArrayList<int[]>();
+
+		for ( int d = 0; d < documents.size(); d++ )
+		{
+			List<Sentence> sentences = documents.get( d ).getSentences();
+			for ( int s = 0; s < sentences.size(); s++ )
+			{
+				if ( sentences.get( s ).getWords().contains( term ) )
+				{
+					hits.add( new int[] { d, s, sentences.get( s ).getWords().indexOf( term ) } );
+				}
+			}
+		}
+
+		return hits;
+	}
+
+	private int scanPhrase( String... terms )
+	{
+		int count = 0;
+
+		for ( Document doc : documents )
+		{
+			for ( Sentence sentence : doc.getSentences() )
+			{
+				List<String> words = sentence.getWords();
+				for ( int i = 0; i + terms.length <= words.size(); i++ )
+				{
+					if ( words.subList( i, i + terms.length ).equals( Arrays.asList( terms ) ) )
+					{
+						count++;
+						break;
+					}
+				}
+			}
+		}
+
+		return count;
+	}
+
+	private void assertHits( List<int[]> expected, List<IndexHit> actual )
+	{
+		assertEquals( expected.size(), actual.size() );
+
+		for ( int i = 0; i < expected.size(); i++ )
+		{
+			assertEquals( expected.get( i )[0], actual.get( i ).getDocument() );
+			assertEquals( expected.get( i )[1], actual.get( i ).getSentence() );
+			assertEquals( expected.get( i )[2], actual.get( i ).getPositions()[0] );
+		}
+	}
+}
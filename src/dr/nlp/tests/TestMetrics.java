@@ -0,0 +1,81 @@
+package dr.nlp.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+
+import org.junit.Test;
+
+import dr.nlp.data.Document;
+import dr.nlp.metrics.Counter;
+import dr.nlp.metrics.Gauge;
+import dr.nlp.metrics.Histogram;
+import dr.nlp.metrics.Metrics;
+import dr.nlp.metrics.MetricsReporter;
+import dr.nlp.tools.AnalysisExecution;
+import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.SimpleAnalyser;
+import dr.nlp.tools.SimpleTokeniser;
+
+public class TestMetrics
+{
+	private static String entityFilename  = "NER.txt";
+
+	@Test
+	public void testHistogram()
+	{
+		Histogram histogram = new Histogram();
+		for ( int i = 1; i <= 1000; i++ )
+		{
+			histogram.record( i * 1000L );
+		}
+
+		assertEquals( 1000, histogram.getCount() );
+		assertEquals( 1.0, histogram.getMaxMillis(), 1e-9 );
+		assertEquals( 0.5, histogram.getP50Millis(), 0.5 * 0.13 );
+		assertEquals( 0.99, histogram.getP99Millis(), 0.99 * 0.13 );
+		assertEquals( 0.5005, histogram.getMeanMillis(), 1e-9 );
+		assertEquals( 0, new Histogram().getPercentile( 0.5 ) );
+	}
+
+	@Test
+	public void testAnalysisMetrics() throws JMException
+	{
+		Metrics metrics = Metrics.getInstance();
+		metrics.registerMBeans();
+
+		Counter sentences = metrics.counter( "sentences" );
+		long before = sentences.getCount();
+
+		Document doc = new Document( "metrics" );
+		String text = "The term First World War was first used in September 1914 by Ernst Haeckel. Why did the war begin?";
+		new AnalysisExecution( text, doc, new SimpleAnalyser(), new SimpleTokeniser(), NamedEntities.getInstance( entityFilename ) ).execute();
+
+		assertEquals( 2, sentences.getCount() - before );
+		assertTrue( metrics.histogram( "analysis.tokenise" ).getCount() >= 2 );
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertEquals( sentences.getCount(), server.getAttribute( Metrics.getObjectName( "Counter", "sentences" ), "Count" ) );
+		assertTrue( server.isRegistered( Metrics.getObjectName( "Histogram", "analysis.tag" ) ) );
+
+		metrics.gauge( "test.gauge", new Gauge()
+		{
+			@Override
+			public long getValue()
+			{
+				return 42;
+			}
+		} );
+		assertEquals( 42L, server.getAttribute( Metrics.getObjectName( "Gauge", "test.gauge" ), "Value" ) );
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new MetricsReporter( metrics, new PrintStream( out ) ).report();
+		assertTrue( out.toString().contains( "analysis.tokenise" ) );
+		assertTrue( out.toString().contains( "test.gauge" ) );
+	}
+}
@@ -0,0 +1,449 @@
+package dr.nlp.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.Word;
+import dr.nlp.data.WordStatistics;
+import dr.nlp.io.CorpusReader;
+import dr.nlp.io.CorpusWriter;
+import dr.nlp.io.DocumentReader;
+import dr.nlp.io.DocumentWriter;
+import dr.nlp.io.JaxbDocumentWriter;
+import dr.nlp.io.MappedDocumentReader;
+import dr.nlp.io.ParallelZipDocumentReader;
+import dr.nlp.io.ResultCache;
+import dr.nlp.io.SourceDocument;
+import dr.nlp.io.StaxDocumentWriter;
+import dr.nlp.io.ZipDocumentReader;
+import dr.nlp.pipeline.AnalysisPipeline;
+import dr.nlp.tools.AnalysisExecution;
+import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.SentenceAnalyser;
+import dr.nlp.tools.ScanningTokeniser;
+import dr.nlp.tools.SimpleAnalyser;
+
+public class TestPipeline
+{
+	private static String nlpDataFilePath = "nlp_data.txt";
+	private static String entityFilename  = "NER.txt";
+
+	@Test
+	public void testPipeline() throws IOException, InterruptedException
+	{
+		final String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		SimpleAnalyser analyser = new SimpleAnalyser();
+		ScanningTokeniser tokeniser = new ScanningTokeniser();
+		NamedEntities entities = NamedEntities.getInstance( entityFilename );
+
+		Document expected = new Document( "expected" );
+		new AnalysisExecution( contents, expected, analyser, tokeniser, entities ).execute();
+
+		final int numDocuments = 50;
+		DocumentReader reader = new DocumentReader()
+		{
+			private int count = 0;
+
+			@Override
+			public SourceDocument next()
+			{
+				return ( count < numDocuments ) ? new SourceDocument( "doc" + count++, contents ) : null;
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		};
+
+		final List<Document> written = new ArrayList<Document>();
+		DocumentWriter writer = new DocumentWriter()
+		{
+			@Override
+			public void write( Document doc )
+			{
+				written.add( doc );
+			}
+		};
+
+		AnalysisPipeline pipeline = new AnalysisPipeline( analyser, tokeniser, entities, 4 );
+		pipeline.setChunkSize( 100 );
+		pipeline.setMaxDocumentsInFlight( 3 );
+
+		assertEquals( numDocuments, pipeline.run( reader, writer ) );
+		assertEquals( numDocuments, written.size() );
+
+		for ( Document doc : written )
+		{
+			assertEquals( expected.getSentences().size(), doc.getSentences().size() );
+			for ( int i = 0; i < expected.getSentences().size(); i++ )
+			{
+				assertEquals( expected.getSentences().get( i ).getWords(), doc.getSentences().get( i ).getWords() );
+			}
+		}
+	}
+
+	@Test
+	public void testEmptyInput() throws IOException, InterruptedException
+	{
+		DocumentReader reader = new DocumentReader()
+		{
+			@Override
+			public SourceDocument next()
+			{
+				return null;
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		};
+
+		DocumentWriter writer = new DocumentWriter()
+		{
+			@Override
+			public void write( Document doc )
+			{
+				fail( "Nothing should be written" );
+			}
+		};
+
+		AnalysisPipeline pipeline = new AnalysisPipeline( new SimpleAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entityFilename ) );
+		assertEquals( 0, pipeline.run( reader, writer ) );
+	}
+
+	@Test
+	public void testStaxWriter() throws IOException, InterruptedException
+	{
+		final String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		final Path dir = Files.createTempDirectory( "nlp" );
+
+		DocumentReader reader = new DocumentReader()
+		{
+			private boolean done = false;
+
+			@Override
+			public SourceDocument next()
+			{
+				if ( done )
+				{
+					return null;
+				}
+				done = true;
+				return new SourceDocument( new File( dir.toFile(), "streamed" ).getPath(), contents );
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		};
+
+		final List<Document> written = new ArrayList<Document>();
+		final StaxDocumentWriter stax = new StaxDocumentWriter( false );
+		DocumentWriter writer = new StaxDocumentWriter( false )
+		{
+			@Override
+			public void write( Document doc ) throws IOException
+			{
+				super.write( doc );
+				written.add( doc );
+			}
+		};
+
+		AnalysisPipeline pipeline = new AnalysisPipeline( new SimpleAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entityFilename ) );
+		pipeline.setChunkSize( 100 );
+		pipeline.run( reader, writer );
+		Document doc = written.get( 0 );
+
+		// The streamed output, a non-streamed write and JAXB must all agree
+		String streamed = new String( Files.readAllBytes( dir.resolve( "streamed.xml" ) ), "UTF-8" );
+		stax.write( doc );
+		assertEquals( streamed, new String( Files.readAllBytes( dir.resolve( "streamed.xml" ) ), "UTF-8" ) );
+
+		new JaxbDocumentWriter().write( doc );
+		assertEquals( streamed, new String( Files.readAllBytes( dir.resolve( "streamed.xml" ) ), "UTF-8" ) );
+		assertTrue( streamed.contains( "<entity>Ernst Haeckel</entity>" ) );
+	}
+
+	@Test
+	public void testStaxWriterAbort() throws IOException, InterruptedException
+	{
+		final String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		final Path dir = Files.createTempDirectory( "nlp" );
+
+		DocumentReader reader = new DocumentReader()
+		{
+			private int count = 0;
+
+			@Override
+			public SourceDocument next()
+			{
+				if ( count == 8 )
+				{
+					return null;
+				}
+				return new SourceDocument( new File( dir.toFile(), "doc" + count++ ).getPath(), contents );
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		};
+
+		// Fails on the first document, with the others opened and partly written
+		DocumentWriter writer = new StaxDocumentWriter( false )
+		{
+			@Override
+			public void write( Document doc ) throws IOException
+			{
+				throw new IOException( "Disk full" );
+			}
+		};
+
+		AnalysisPipeline pipeline = new AnalysisPipeline( new SimpleAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entityFilename ) );
+		pipeline.setChunkSize( 100 );
+		try
+		{
+			pipeline.run( reader, writer );
+			fail( "The write should have failed" );
+		}
+		catch( IOException e )
+		{
+			assertEquals( "Disk full", e.getMessage() );
+		}
+
+		// No partial output is left behind
+		assertEquals( 0, dir.toFile().list().length );
+		dir.toFile().delete();
+	}
+
+	@Test
+	public void testMappedDocumentReader() throws IOException
+	{
+		Path dir = Files.createTempDirectory( "nlp" );
+		Files.createDirectory( dir.resolve( "sub" ) );
+		Files.write( dir.resolve( "b.txt" ), "The first line\nand the second. Caf\u00e9 au lait.\n".getBytes( "UTF-8" ) );
+		Files.write( dir.resolve( "sub/a.txt" ), "Nested.".getBytes( "UTF-8" ) );
+		Files.write( dir.resolve( "_hidden.txt" ), "Skipped.".getBytes( "UTF-8" ) );
+		Files.write( dir.resolve( "notes.md" ), "Skipped.".getBytes( "UTF-8" ) );
+
+		MappedDocumentReader reader = new MappedDocumentReader( dir.toFile() );
+		assertEquals( 2, reader.getNumDocuments() );
+
+		SourceDocument first = reader.next();
+		assertEquals( dir.resolve( "b.txt" ).toString(), first.getName() );
+		assertEquals( "The first line\nand the second. Caf\u00e9 au lait.\n", first.getText().toString() );
+		assertEquals( dir.resolve( "sub/a.txt" ).toString(), reader.next().getName() );
+		assertNull( reader.next() );
+		reader.close();
+
+		// Words either side of a line break stay separate words
+		Document doc = new Document( "mapped" );
+		new AnalysisExecution( first.getText().toString(), doc, new SimpleAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entityFilename ) ).execute();
+		assertEquals( 1, doc.getNumberOfWordInstances( "line" ) );
+		assertEquals( 1, doc.getNumberOfWordInstances( "and" ) );
+		assertEquals( 1, doc.getNumberOfWordInstances( "lait" ) );
+
+		// The zip reader keeps line breaks too
+		ZipDocumentReader zip = new ZipDocumentReader( "nlp_data.zip" );
+		boolean hasLineBreaks = false;
+		for ( SourceDocument source; ( source = zip.next() ) != null; )
+		{
+			hasLineBreaks |= source.getText().toString().contains( "\n" );
+		}
+		zip.close();
+		assertTrue( hasLineBreaks );
+	}
+
+	@Test
+	public void testParallelZipDocumentReader() throws IOException
+	{
+		ZipDocumentReader sequential = new ZipDocumentReader( "nlp_data.zip" );
+		ParallelZipDocumentReader parallel = new ParallelZipDocumentReader( "nlp_data.zip", 3 );
+		assertEquals( 10, parallel.getNumDocuments() );
+
+		for ( SourceDocument expected; ( expected = sequential.next() ) != null; )
+		{
+			SourceDocument actual = parallel.next();
+			assertEquals( expected.getName(), actual.getName() );
+			assertEquals( expected.getText(), actual.getText() );
+		}
+		assertNull( parallel.next() );
+
+		sequential.close();
+		parallel.close();
+	}
+
+	@Test
+	public void testCorpus() throws IOException
+	{
+		String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		NamedEntities entities = NamedEntities.getInstance( entityFilename );
+		File file = File.createTempFile( "nlp", ".corpus" );
+		file.deleteOnExit();
+
+		// The second document shares most of its vocabulary with the first
+		Document first = new Document( "first" );
+		new AnalysisExecution( contents, first, new SimpleAnalyser(), new ScanningTokeniser(), entities ).execute();
+		Document second = new Document( "second" );
+		new AnalysisExecution( contents.substring( 0, contents.length() / 2 ), second, new SimpleAnalyser(), new ScanningTokeniser(), entities ).execute();
+
+		CorpusWriter writer = new CorpusWriter( file );
+		writer.write( first );
+		writer.write( second );
+		writer.write( new Document( "empty" ) );
+		writer.close();
+		assertEquals( 3, writer.getNumDocuments() );
+
+		CorpusReader reader = new CorpusReader( file );
+		try
+		{
+			Document doc = reader.next();
+			assertEquals( "first", doc.getName() );
+			assertDocumentsEqual( first, doc );
+			doc = reader.next();
+			assertEquals( "second", doc.getName() );
+			assertDocumentsEqual( second, doc );
+			doc = reader.next();
+			assertEquals( "empty", doc.getName() );
+			assertTrue( doc.getSentences().isEmpty() );
+			assertNull( reader.next() );
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		// Anything else is refused
+		try
+		{
+			new CorpusReader( new File( nlpDataFilePath ) );
+			fail( "Read a text file as a corpus" );
+		}
+		catch( IOException e )
+		{
+		}
+	}
+
+	@Test
+	public void testResultCache() throws IOException, InterruptedException
+	{
+		final String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		NamedEntities entities = NamedEntities.getInstance( entityFilename );
+		Path dir = Files.createTempDirectory( "nlp" );
+
+		Document expected = new Document( "expected" );
+		new AnalysisExecution( contents, expected, new SimpleAnalyser(), new ScanningTokeniser(), entities ).execute();
+
+		ResultCache cache = new ResultCache( dir.toFile(), 1 << 20 );
+		String key = ResultCache.key( contents, "test" );
+		assertNotEquals( key, ResultCache.key( contents, "test2" ) );
+		assertFalse( cache.load( key, new Document( "missing" ) ) );
+		cache.store( key, expected );
+
+		// A new cache over the same directory finds the entry again
+		cache = new ResultCache( dir.toFile(), 1 << 20 );
+		assertEquals( 1, cache.size() );
+		Document loaded = new Document( "loaded" );
+		assertTrue( cache.load( key, loaded ) );
+		assertDocumentsEqual( expected, loaded );
+
+		// A cached document goes through the pipeline without being analysed
+		DocumentReader reader = new DocumentReader()
+		{
+			private boolean done = false;
+
+			@Override
+			public SourceDocument next()
+			{
+				if ( done )
+				{
+					return null;
+				}
+				done = true;
+				return new SourceDocument( "cached", contents );
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		};
+		SentenceAnalyser failing = new SentenceAnalyser()
+		{
+			@Override
+			public String[] detectSentences( String text )
+			{
+				throw new IllegalStateException( "Analysed a cached document" );
+			}
+		};
+		final List<Document> written = new ArrayList<Document>();
+		DocumentWriter writer = new DocumentWriter()
+		{
+			@Override
+			public void write( Document doc )
+			{
+				written.add( doc );
+			}
+		};
+
+		Files.move( dir.resolve( key + ".doc" ), dir.resolve( ResultCache.key( contents, AnalysisExecution.VERSION, failing.getClass().getName(),
+				ScanningTokeniser.class.getName(), entities.getVersion() ) + ".doc" ) );
+		AnalysisPipeline pipeline = new AnalysisPipeline( failing, new ScanningTokeniser(), entities, 2 );
+		pipeline.setCache( new ResultCache( dir.toFile(), 1 << 20 ) );
+		assertEquals( 1, pipeline.run( reader, writer ) );
+		assertDocumentsEqual( expected, written.get( 0 ) );
+
+		// Entries beyond the size bound are evicted oldest first
+		long entrySize = cache.getTotalBytes();
+		cache = new ResultCache( dir.toFile(), 2 * entrySize );
+		for ( int i = 0; i < 5; i++ )
+		{
+			cache.store( ResultCache.key( contents, "test" + i ), expected );
+		}
+		assertEquals( 2, cache.size() );
+		assertTrue( cache.getTotalBytes() <= 2 * entrySize );
+		assertTrue( cache.load( ResultCache.key( contents, "test4" ), new Document( "newest" ) ) );
+		assertFalse( cache.load( ResultCache.key( contents, "test0" ), new Document( "oldest" ) ) );
+		assertEquals( 2, dir.toFile().list().length );
+	}
+
+	private static void assertDocumentsEqual( Document expected, Document actual )
+	{
+		assertEquals( expected.getSentences(), actual.getSentences() );
+		assertEquals( new ArrayList<String>( expected.getWordMap().keySet() ), new ArrayList<String>( actual.getWordMap().keySet() ) );
+		for ( Map.Entry<String, Word> entry : expected.getWordMap().entrySet() )
+		{
+			Word word = actual.getWordMap().get( entry.getKey() );
+			assertEquals( entry.getValue().getCount(), word.getCount() );
+			assertEquals( entry.getValue().getNamedEntities(), word.getNamedEntities() );
+		}
+		assertEquals( entityMatches( expected ), entityMatches( actual ) );
+	}
+
+	private static Map<String, Integer> entityMatches( Document doc )
+	{
+		WordStatistics statistics = doc.getWordStatistics();
+		Map<String, Integer> matches = new HashMap<String, Integer>();
+		for ( int id = 0; id < statistics.getNumEntities(); id++ )
+		{
+			matches.put( statistics.entityAt( id ), statistics.matchesAt( id ) );
+		}
+		return matches;
+	}
+}
@@ -0,0 +1,177 @@
+package dr.nlp.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dr.nlp.data.Document;
+import dr.nlp.data.Vocabulary;
+import dr.nlp.io.StaxDocumentWriter;
+import dr.nlp.service.AnalysisService;
+import dr.nlp.service.AnalysisWorkers;
+import dr.nlp.tools.AnalysisExecution;
+import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.ScanningAnalyser;
+import dr.nlp.tools.ScanningTokeniser;
+
+public class TestService
+{
+	private static String nlpDataFilePath = "nlp_data.txt";
+	private static String entityFilename  = "NER.txt";
+
+	private AnalysisService service;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		service = new AnalysisService( new ScanningAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entityFilename ), 0 );
+		service.start();
+	}
+
+	@After
+	public void tearDown()
+	{
+		service.stop();
+	}
+
+	@Test
+	public void testAnalyse() throws IOException
+	{
+		String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+
+		// Analysed as the service does, with a vocabulary of its own, which gives the word
+		// map the same order
+		Document expected = new Document( "posted", null, new Vocabulary() );
+		new AnalysisExecution( contents, expected, new ScanningAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entityFilename ) ).execute();
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		StaxDocumentWriter.writeTo( expected, xml );
+
+		assertEquals( xml.toString( "UTF-8" ), post( "/analyse?name=posted", contents, 200 ) );
+
+		String json = post( "/analyse?format=json&name=a%22b", "Franz Ferdinand visited Sarajevo.", 200 );
+		assertTrue( json.startsWith( "{\"name\":\"a\\\"b\",\"sentences\":[[\"franz\",\"ferdinand\",\"visited\",\"sarajevo\"]]" ) );
+		assertTrue( json.contains( "\"sarajevo\":{\"count\":1,\"entities\":[\"Sarajevo\"]}" ) );
+		assertTrue( json.contains( "\"visited\":{\"count\":1}" ) );
+
+		post( "/analyse?format=yaml", "Text.", 400 );
+	}
+
+	@Test
+	public void testAnalysisWorkers() throws Exception
+	{
+		AnalysisWorkers workers = new AnalysisWorkers( new ScanningAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entityFilename ), 2, 100 );
+		List<Future<Document>> results = new ArrayList<Future<Document>>();
+
+		for ( int i = 0; i < 100; i++ )
+		{
+			results.add( workers.submit( "doc" + i, "Sentence number " + i + ". And another." ) );
+		}
+		for ( int i = 0; i < 100; i++ )
+		{
+			Document doc = results.get( i ).get();
+			assertEquals( "doc" + i, doc.getName() );
+			assertEquals( 2, doc.getSentences().size() );
+			assertEquals( 1, doc.getNumberOfWordInstances( Integer.toString( i ) ) );
+		}
+
+		// The words of a request don't go into the shared vocabulary
+		Document doc = workers.submit( "unshared", "Zyxwvutsrq was here." ).get();
+		assertEquals( "zyxwvutsrq", doc.getSentences().get( 0 ).getWord( 0 ) );
+		assertEquals( -1, Vocabulary.getInstance().lookup( "zyxwvutsrq" ) );
+
+		workers.shutdown();
+	}
+
+	@Test
+	public void testAnalysisWorkersRejection() throws Exception
+	{
+		String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		AnalysisWorkers workers = new AnalysisWorkers( new ScanningAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entityFilename ), 1, 2 );
+
+		// One text being analysed and two waiting, so the rest are turned away
+		int rejected = 0;
+		for ( int i = 0; i < 10; i++ )
+		{
+			try
+			{
+				workers.submit( "doc" + i, contents );
+			}
+			catch( RejectedExecutionException e )
+			{
+				rejected++;
+			}
+		}
+		assertTrue( rejected >= 5 );
+
+		workers.shutdown();
+	}
+
+	@Test
+	public void testAnalysisWorkersShutdown() throws Exception
+	{
+		AnalysisWorkers workers = new AnalysisWorkers( new ScanningAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entityFilename ), 1, 1000 );
+		List<Future<Document>> results = new ArrayList<Future<Document>>();
+
+		for ( int i = 0; i < 1000; i++ )
+		{
+			results.add( workers.submit( "doc" + i, "Sentence number " + i + ". And another." ) );
+		}
+		workers.shutdown();
+		results.add( workers.submit( "late", "Too late." ) );
+
+		// Every request is either analysed or cancelled, none is left waiting
+		int cancelled = 0;
+		for ( Future<Document> result : results )
+		{
+			try
+			{
+				assertNotNull( result.get( 10, TimeUnit.SECONDS ) );
+			}
+			catch( CancellationException e )
+			{
+				cancelled++;
+			}
+		}
+		assertTrue( cancelled > 0 );
+		assertTrue( results.get( results.size() - 1 ).isCancelled() );
+	}
+
+	private String post( String path, String text, int status ) throws IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection) new URL( "http://localhost:" + service.getPort() + path ).openConnection();
+		connection.setRequestMethod( "POST" );
+		connection.setDoOutput( true );
+		OutputStream out = connection.getOutputStream();
+		out.write( text.getBytes( "UTF-8" ) );
+		out.close();
+
+		assertEquals( status, connection.getResponseCode() );
+		InputStream in = ( status == 200 ) ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for ( int n; ( n = in.read( buffer ) ) > 0; )
+		{
+			body.write( buffer, 0, n );
+		}
+		in.close();
+
+		return body.toString( "UTF-8" );
+	}
+}
@@ -2,17 +2,42 @@ package dr.nlp.tests;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 
+import dr.nlp.data.Document;
+import dr.nlp.data.Sentence;
+import dr.nlp.data.Vocabulary;
+import dr.nlp.data.Word;
+import dr.nlp.sketch.CorpusSketches;
+import dr.nlp.tools.AnalysisExecution;
+import dr.nlp.tools.ChunkedAnalysisExecution;
+import dr.nlp.tools.EntityMatchHandler;
+import dr.nlp.tools.EntityTrie;
+import dr.nlp.tools.ExecutionUnit;
+import dr.nlp.tools.Gazetteer;
+import dr.nlp.tools.GazetteerCompiler;
+import dr.nlp.tools.MappedEntityTrie;
+import dr.nlp.tools.NGramCounter;
 import dr.nlp.tools.NGramHandler;
+import dr.nlp.tools.NGramVisitor;
 import dr.nlp.tools.NamedEntities;
+import dr.nlp.tools.ScanningAnalyser;
+import dr.nlp.tools.ScanningTokeniser;
 import dr.nlp.tools.SimpleAnalyser;
 import dr.nlp.tools.SimpleTokeniser;
+import dr.nlp.tools.SpanList;
+import dr.nlp.tools.SpanSink;
+import dr.nlp.tools.StreamingAdapters;
+import dr.nlp.tools.TextSpanList;
 
 public class TestTools
 {
@@ -42,6 +67,189 @@ public class TestTools
 		assertEquals( 36, tokens.length );
 	}
 
+	@Test
+	public void testScanningTokeniser() throws IOException
+	{
+		String testString = "'We'll have to see', said John's dog to the mistress's goat-likeness and "
+				+ "they'd reckon that there isn't a 5cm bone in sight, e.g. on the 21/02/2004 containing "
+				+ "%2.5f. units of hard grafting tuna";
+
+		SimpleTokeniser simple = new SimpleTokeniser();
+		ScanningTokeniser tokeniser = new ScanningTokeniser();
+		String[] tokens = tokeniser.tokenise( testString );
+
+		assertEquals( 36, tokens.length );
+		assertArrayEquals( simple.tokenise( testString ), tokens );
+
+		String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		for ( String sentence : new SimpleAnalyser().detectSentences( contents ) )
+		{
+			assertArrayEquals( simple.tokenise( sentence ), tokeniser.tokenise( sentence ) );
+		}
+
+		assertTrue( tokeniser.match( "Prince of Wales", "wales" ) );
+		assertTrue( tokeniser.match( "Sun Microsystems", "SUN" ) );
+		assertEquals( simple.match( "Austria-Hungary", "Austria" ), tokeniser.match( "Austria-Hungary", "Austria" ) );
+	}
+
+	@Test
+	public void testScanningAnalyser() throws IOException
+	{
+		ScanningAnalyser analyser = new ScanningAnalyser();
+		String text = "  First one. Wait... what?! The end.\nNo \"terminator\" here\n";
+
+		String[] sentences = analyser.detectSentences( text );
+		assertEquals( 3, sentences.length );
+		assertEquals( "First one", sentences[0] );
+		assertEquals( "Wait... what?! The end", sentences[1] );
+		assertEquals( "No \"terminator\" here", sentences[2] );
+
+		SpanList spans = new SpanList();
+		analyser.detectSentences( text, 0, text.length(), spans );
+		assertEquals( 2, spans.start( 0 ) );
+		assertEquals( 11, spans.end( 0 ) );
+
+		// The same words as SimpleAnalyser, sentence by sentence
+		String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		String[] expected = new SimpleAnalyser().detectSentences( contents );
+		String[] actual = analyser.detectSentences( contents );
+		SimpleTokeniser tokeniser = new SimpleTokeniser();
+
+		assertEquals( expected.length, actual.length );
+		for ( int i = 0; i < expected.length; i++ )
+		{
+			assertArrayEquals( tokeniser.tokenise( expected[i] ), tokeniser.tokenise( actual[i] ) );
+		}
+	}
+
+	@Test
+	public void testStreamingAdapters() throws IOException
+	{
+		ScanningTokeniser scanning = new ScanningTokeniser();
+		assertSame( scanning, StreamingAdapters.adapt( scanning ) );
+
+		// An adapted tokeniser reports its tokens as spans over the strings it returned
+		final List<String> tokens = new ArrayList<String>();
+		String text = "xx John's dog isn't here xx";
+		StreamingAdapters.adapt( new SimpleTokeniser() ).tokenise( text, 3, text.length() - 3, new SpanSink()
+		{
+			@Override
+			public void span( CharSequence text, int start, int end )
+			{
+				tokens.add( text.subSequence( start, end ).toString() );
+			}
+		} );
+		assertArrayEquals( new String[] { "John", "dog", "is", "n't", "here" }, tokens.toArray() );
+
+		// The String based and the streaming implementations make the same document
+		String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		NamedEntities entities = NamedEntities.getInstance( entityFilename );
+
+		Document simple = new Document( "simple" );
+		new AnalysisExecution( contents, simple, new SimpleAnalyser(), new SimpleTokeniser(), entities ).execute();
+		Document streaming = new Document( "streaming" );
+		new AnalysisExecution( contents, streaming, new ScanningAnalyser(), scanning, entities ).execute();
+
+		assertEquals( simple.getSentences(), streaming.getSentences() );
+		assertEquals( simple.getWordMap().keySet(), streaming.getWordMap().keySet() );
+		assertEquals( simple.getWordMap().get( "serbia" ).getNamedEntities(), streaming.getWordMap().get( "serbia" ).getNamedEntities() );
+		assertFalse( streaming.getWordMap().get( "serbia" ).getNamedEntities().isEmpty() );
+	}
+
+	@Test
+	public void testEntityTagging()
+	{
+		NamedEntities entities = NamedEntities.getInstance( entityFilename );
+		String text = "Franz Ferdinand visited Sarajevo in Austria-Hungary, and Franz stayed.";
+
+		List<List<Word>> sentences = new AnalysisExecution( text, new Document( "tagging" ), new ScanningAnalyser(), new ScanningTokeniser(), entities ).analyse();
+		List<Word> words = sentences.get( 0 );
+
+		// Only the tokens an entity was matched on are tagged
+		assertEquals( "[Franz Ferdinand]", words.get( 0 ).getNamedEntities().toString() );
+		assertEquals( "[Franz Ferdinand]", words.get( 1 ).getNamedEntities().toString() );
+		assertTrue( words.get( 2 ).getNamedEntities().isEmpty() );
+		assertEquals( "[Sarajevo]", words.get( 3 ).getNamedEntities().toString() );
+		assertEquals( "[Austria-Hungary]", words.get( 5 ).getNamedEntities().toString() );
+		assertEquals( "franz", words.get( 7 ).getName() );
+		assertTrue( words.get( 7 ).getNamedEntities().isEmpty() );
+	}
+
+	@Test
+	public void testCorpusSketches() throws IOException
+	{
+		String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		NamedEntities entities = NamedEntities.getInstance( entityFilename );
+
+		CorpusSketches analysed = new CorpusSketches( 1 << 12, 4, 10 );
+		Document doc = new Document( "sketched" );
+		AnalysisExecution execution = new AnalysisExecution( contents, doc, new SimpleAnalyser(), new ScanningTokeniser(), entities );
+		execution.setSketches( analysed );
+		execution.execute();
+
+		// The analysed tokens and the document statistics give the same word counts
+		CorpusSketches fromDocument = new CorpusSketches( 1 << 12, 4, 10 );
+		fromDocument.add( doc );
+		assertEquals( fromDocument.getWords().getTotal(), analysed.getWords().getTotal() );
+		assertEquals( fromDocument.getTopWords(), analysed.getTopWords() );
+		assertEquals( "the", analysed.getTopWords().keySet().iterator().next() );
+		assertEquals( doc.getNumberOfWordInstances( "the" ), analysed.getWordCount( "the" ) );
+		assertTrue( analysed.getWordCount( "serbia" ) >= doc.getNumberOfWordInstances( "serbia" ) );
+
+		// Entities are counted once per match, however many tokens it spans
+		assertEquals( fromDocument.getEntities().getTotal(), analysed.getEntities().getTotal() );
+		assertEquals( fromDocument.getTopEntities(), analysed.getTopEntities() );
+		assertEquals( 1, analysed.getEntityCount( "Gavrilo Princip" ) );
+		assertTrue( analysed.getEntityCount( "Serbia" ) > 0 );
+		assertEquals( 0, analysed.getEntityCount( "Atlantis" ) );
+		assertTrue( analysed.getTopEntities().size() > 0 );
+
+		// A document which isn't counting words is sketched all the same
+		CorpusSketches sketchedOnly = new CorpusSketches( 1 << 12, 4, 10 );
+		Document uncounted = new Document( "uncounted" );
+		uncounted.setCountWords( false );
+		execution = new AnalysisExecution( contents, uncounted, new SimpleAnalyser(), new ScanningTokeniser(), entities );
+		execution.setSketches( sketchedOnly );
+		execution.execute();
+		assertTrue( uncounted.getWordMap().isEmpty() );
+		assertEquals( doc.getNumSentences(), uncounted.getNumSentences() );
+		assertEquals( analysed.getTopWords(), sketchedOnly.getTopWords() );
+		assertEquals( analysed.getTopEntities(), sketchedOnly.getTopEntities() );
+	}
+
+	@Test
+	public void testChunkedAnalysis() throws IOException
+	{
+		String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		SimpleAnalyser analyser = new SimpleAnalyser();
+		ScanningTokeniser tokeniser = new ScanningTokeniser();
+		NamedEntities entities = NamedEntities.getInstance( entityFilename );
+
+		Document whole = new Document( "whole" );
+		new AnalysisExecution( contents, whole, analyser, tokeniser, entities ).execute();
+
+		Document chunked = new Document( "chunked" );
+		ChunkedAnalysisExecution execution = new ChunkedAnalysisExecution( contents, chunked, analyser, tokeniser, entities, 200 );
+		List<ExecutionUnit> chunks = execution.getChunks();
+		assertTrue( chunks.size() > 1 );
+
+		// Run the chunks back to front, the sentences must still end up in order
+		for ( int i = chunks.size() - 1; i >= 0; i-- )
+		{
+			assertFalse( execution.isComplete() );
+			chunks.get( i ).execute();
+		}
+		assertTrue( execution.isComplete() );
+
+		assertEquals( whole.getSentences().size(), chunked.getSentences().size() );
+		for ( int i = 0; i < whole.getSentences().size(); i++ )
+		{
+			Sentence expected = whole.getSentences().get( i );
+			assertEquals( expected.getWords(), chunked.getSentences().get( i ).getWords() );
+		}
+		assertEquals( whole.getNumberOfWordInstances( "the" ), chunked.getNumberOfWordInstances( "the" ) );
+	}
+
 	@Test
 	public void testNGram()
 	{
@@ -64,6 +272,85 @@ public class TestTools
 		assertTrue( found );
 	}
 
+	@Test
+	public void testNGramCounter() throws IOException, InterruptedException
+	{
+		String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" );
+		final Document doc = new Document( "ngrams" );
+		new AnalysisExecution( contents, doc, new SimpleAnalyser(), new ScanningTokeniser(), NamedEntities.getInstance( entityFilename ) ).execute();
+
+		final Map<String, Long> expected = new HashMap<String, Long>();
+		for ( Sentence sentence : doc.getSentences() )
+		{
+			for ( String ngram : NGramHandler.getAllNGrams( sentence.getWords().toArray( new String[0] ), 3 ) )
+			{
+				Long count = expected.get( ngram );
+				expected.put( ngram, ( count != null ) ? count + 4 : 4L );
+			}
+		}
+
+		// Four threads count the same document into shards small enough to spill, with
+		// the runs merged three at a time
+		final NGramCounter counter = new NGramCounter( 3, 100, Files.createTempDirectory( "nlp" ).toFile() );
+		counter.setMaxFanIn( 3 );
+		final IOException[] failure = new IOException[1];
+		Thread[] threads = new Thread[4];
+		for ( int t = 0; t < threads.length; t++ )
+		{
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						counter.add( doc );
+					}
+					catch( IOException e )
+					{
+						failure[0] = e;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for ( Thread thread : threads )
+		{
+			thread.join();
+		}
+		assertNull( failure[0] );
+		assertTrue( counter.getNumRuns() > 0 );
+
+		final Map<String, Long> counted = new HashMap<String, Long>();
+		final Vocabulary vocabulary = Vocabulary.getInstance();
+		counter.forEach( new NGramVisitor()
+		{
+			@Override
+			public void visit( int[] ids, int n, long count )
+			{
+				String[] words = new String[n];
+				for ( int i = 0; i < n; i++ )
+				{
+					words[i] = vocabulary.getWord( ids[i] );
+				}
+				assertNull( counted.put( NGramHandler.concat( words, 0, n ), count ) );
+			}
+		} );
+		assertEquals( expected, counted );
+		assertTrue( counter.getNumRuns() <= 3 );
+
+		assertEquals( "the", counter.getTop( 1, 1 ).keySet().iterator().next() );
+		Map.Entry<String, Long> bigram = counter.getTop( 2, 1 ).entrySet().iterator().next();
+		assertEquals( expected.get( bigram.getKey() ), bigram.getValue() );
+		for ( Map.Entry<String, Long> entry : expected.entrySet() )
+		{
+			assertTrue( entry.getKey().split( " " ).length != 2 || entry.getValue() <= bigram.getValue() );
+		}
+		assertEquals( 5, counter.getTop( 3, 5 ).size() );
+		counter.close();
+		assertEquals( 0, counter.getNumRuns() );
+	}
+
 	@Test
 	public void testNamedEntities()
 	{
@@ -73,4 +360,96 @@ public class TestTools
 		assertEquals( 3, entities.getMaxEntityTokens() );
 		assertTrue( entities.isNamedEntity( "Sun" ) );
 	}
+
+	@Test
+	public void testEntityMatching()
+	{
+		final NamedEntities entities = NamedEntities.getInstance( entityFilename );
+		final List<String> found = new ArrayList<String>();
+		SimpleTokeniser tokeniser = new SimpleTokeniser();
+		String[] words = tokeniser.tokenise( "Neil Armstrong met the Prince of Wales near Sun Microsystems in Wales" );
+
+		entities.findEntities( words, new EntityMatchHandler()
+		{
+			@Override
+			public void entityFound( int start, int end, int entity )
+			{
+				found.add( start + ":" + end + ":" + entities.getEntity( entity ) );
+			}
+		} );
+
+		assertEquals( 6, found.size() );
+		assertTrue( found.contains( "0:2:Neil Armstrong" ) );
+		assertTrue( found.contains( "4:7:Prince of Wales" ) );
+		assertTrue( found.contains( "6:7:Wales" ) );
+		assertTrue( found.contains( "8:10:Sun Microsystems" ) );
+		assertTrue( found.contains( "8:9:Sun" ) );
+		assertTrue( found.contains( "11:12:Wales" ) );
+		assertFalse( entities.isNamedEntity( "Prince of" ) );
+	}
+
+	@Test
+	public void testGazetteer() throws IOException
+	{
+		EntityTrie trie = EntityTrie.load( new File( entityFilename ) );
+		File file = File.createTempFile( "nlp", ".gaz" );
+		GazetteerCompiler.write( trie, file );
+		MappedEntityTrie mapped = new MappedEntityTrie( file );
+
+		try
+		{
+			assertEquals( trie.getNumEntities(), mapped.getNumEntities() );
+			assertEquals( trie.getMaxEntityTokens(), mapped.getMaxEntityTokens() );
+			assertTrue( mapped.contains( "Prince of Wales" ) );
+			assertFalse( mapped.contains( "Prince of" ) );
+			for ( int i = 0; i < trie.getNumEntities(); i++ )
+			{
+				assertEquals( trie.getEntity( i ), mapped.getEntity( i ) );
+			}
+
+			// The same matches as the trie on the heap, over strings and over spans
+			String contents = new String( Files.readAllBytes( Paths.get( nlpDataFilePath ) ), "UTF-8" )
+					+ " Neil Armstrong met the Prince of Wales near Sun Microsystems in Wales";
+			ScanningTokeniser tokeniser = new ScanningTokeniser();
+			TextSpanList spans = new TextSpanList();
+			tokeniser.tokenise( contents, 0, contents.length(), spans );
+			String[] tokens = tokeniser.tokenise( contents );
+
+			List<String> expected = findEntities( trie, tokens );
+			assertTrue( expected.size() > 10 );
+			assertEquals( expected, findEntities( mapped, tokens ) );
+
+			final List<String> found = new ArrayList<String>();
+			mapped.findEntities( spans, new EntityMatchHandler()
+			{
+				@Override
+				public void entityFound( int start, int end, int entity )
+				{
+					found.add( start + ":" + end + ":" + entity );
+				}
+			} );
+			assertEquals( expected, found );
+		}
+		finally
+		{
+			mapped.close();
+			file.delete();
+		}
+	}
+
+	private static List<String> findEntities( Gazetteer gazetteer, String[] tokens )
+	{
+		final List<String> found = new ArrayList<String>();
+
+		gazetteer.findEntities( tokens, new EntityMatchHandler()
+		{
+			@Override
+			public void entityFound( int start, int end, int entity )
+			{
+				found.add( start + ":" + end + ":" + entity );
+			}
+		} );
+
+		return found;
+	}
 }
@@ -3,55 +3,220 @@ package dr.nlp.tools;
 import java.util.ArrayList;
 import java.util.List;
 
+import dr.nlp.data.AnalysedSentence;
 import dr.nlp.data.Document;
+import dr.nlp.data.Vocabulary;
 import dr.nlp.data.Word;
+import dr.nlp.metrics.Counter;
+import dr.nlp.metrics.Histogram;
+import dr.nlp.metrics.Metrics;
+import dr.nlp.sketch.CorpusSketches;
+import dr.nlp.sketch.LocalSketch;
 
-public class AnalysisExecution implements ExecutionUnit
+/**
+ * Analyses a text into a document. Sentences and tokens are handled as spans through the
+ * streaming interfaces (see StreamingAdapters), and each token goes straight from its
+ * span to an id in the document's vocabulary, so with a streaming analyser and tokeniser no String is made
+ * per token.
+ *
+ * A named entity is tagged on exactly the tokens it was matched on, using the token
+ * range reported by the entity trie.
+ *
+ * With CorpusSketches set, every token and every entity match is also added to the
+ * sketches of the analysing thread, which are flushed once the text is analysed. A token
+ * is sketched from its span, not from its vocabulary id.
+ */
+public class AnalysisExecution implements ExecutionUnit, EntityMatchHandler
 {
-	private String text;
+	// Changed whenever the same input would be analysed differently, which invalidates
+	// cached results (see ResultCache)
+	public static final String VERSION = "analysis/2";
+
+	private static Counter sentenceCount  = Metrics.getInstance().counter( "sentences" );
+	private static Counter tokenCount     = Metrics.getInstance().counter( "tokens" );
+	private static Counter entityCount    = Metrics.getInstance().counter( "entities" );
+	private static Histogram detectTime   = Metrics.getInstance().histogram( "analysis.detect" );
+	private static Histogram tokeniseTime = Metrics.getInstance().histogram( "analysis.tokenise" );
+	private static Histogram tagTime      = Metrics.getInstance().histogram( "analysis.tag" );
+
+	private CharSequence text;
+	private int from;
+	private int to;
 	private Document doc;
-	private SentenceAnalyser analyser;
-	private Tokeniser tokeniser;
+	private Vocabulary vocabulary;
+	private StreamingSentenceAnalyser sentenceStream;
+	private StreamingTokeniser tokenStream;
 	private NamedEntities ner;
 
+	private TextSpanList tokens;
+	private AnalysedSentence current;
+	private int numEntities;
+
+	private CorpusSketches sketches;
+	private LocalSketch wordSketch;
+	private LocalSketch entitySketch;
+
 	public AnalysisExecution( String text, Document doc, SentenceAnalyser analyser, Tokeniser tokeniser, NamedEntities ner )
+	{
+		this( text, 0, text.length(), doc, analyser, tokeniser, ner );
+	}
+
+	/**
+	 * Analyses text[from, to) only.
+	 */
+	public AnalysisExecution( CharSequence text, int from, int to, Document doc, SentenceAnalyser analyser, Tokeniser tokeniser, NamedEntities ner )
 	{
 		this.text = text;
+		this.from = from;
+		this.to = to;
 		this.doc = doc;
-		this.analyser = analyser;
-		this.tokeniser = tokeniser;
+		this.vocabulary = doc.getVocabulary();
+		this.sentenceStream = StreamingAdapters.adapt( analyser );
+		this.tokenStream = StreamingAdapters.adapt( tokeniser );
 		this.ner = ner;
+
+		tokens = new TextSpanList();
+	}
+
+	public void setSketches( CorpusSketches sketches )
+	{
+		this.sketches = sketches;
 	}
 
 	@Override
 	public void execute()
 	{
-		String[] sentences = analyser.detectSentences( text );
+		TextSpanList sentences = detectSentences();
+		AnalysedSentence sentence = new AnalysedSentence();
+		openSketches();
+
+		for ( int i = 0; i < sentences.size(); i++ )
+		{
+			sentence.clear();
+			analyseSentence( sentences.text( i ), sentences.start( i ), sentences.end( i ), sentence );
+			doc.addSentence( sentence );
+		}
+
+		flushSketches();
+	}
+
+	/**
+	 * Analyses the text without adding anything to the document, returning the words
+	 * of each sentence in order.
+	 */
+	public List<List<Word>> analyse()
+	{
+		List<AnalysedSentence> sentences = analyseSentences();
+		List<List<Word>> wordLists = new ArrayList<List<Word>>( sentences.size() );
+
+		for ( AnalysedSentence sentence : sentences )
+		{
+			List<Word> wordList = new ArrayList<Word>( sentence.getNumWords() );
+			for ( int i = 0; i < sentence.getNumWords(); i++ )
+			{
+				wordList.add( new Word( vocabulary.getWord( sentence.getWordId( i ) ) ) );
+			}
+			for ( int i = 0; i < sentence.getNumEntities(); i++ )
+			{
+				wordList.get( sentence.getEntityWord( i ) ).addNamedEntity( sentence.getEntity( i ) );
+			}
+
+			wordLists.add( wordList );
+		}
+
+		return wordLists;
+	}
+
+	/**
+	 * As analyse(), with each sentence kept as vocabulary ids, ready to be added to the
+	 * document with Document.addSentence( AnalysedSentence ).
+	 */
+	public List<AnalysedSentence> analyseSentences()
+	{
+		TextSpanList sentences = detectSentences();
+		List<AnalysedSentence> analysed = new ArrayList<AnalysedSentence>( sentences.size() );
+		openSketches();
 
-		for ( String sentence : sentences )
+		for ( int i = 0; i < sentences.size(); i++ )
 		{
-			String[] words = tokeniser.tokenise( sentence );
-			List<String> ngrams = NGramHandler.getAllNGrams( words, ner.getMaxEntityTokens() );
-			List<String> namedEntities = ner.getNamedEntities( ngrams );
-			List<Word> wordList = new ArrayList<Word>();
+			AnalysedSentence sentence = new AnalysedSentence();
+			analyseSentence( sentences.text( i ), sentences.start( i ), sentences.end( i ), sentence );
+			analysed.add( sentence );
+		}
+
+		flushSketches();
+		return analysed;
+	}
+
+	private TextSpanList detectSentences()
+	{
+		long start = System.nanoTime();
+		TextSpanList sentences = new TextSpanList();
+		sentenceStream.detectSentences( text, from, to, sentences );
+		detectTime.recordSince( start );
+
+		return sentences;
+	}
 
-			for ( String word : words )
+	private void analyseSentence( CharSequence sentence, int from, int to, AnalysedSentence result )
+	{
+		long start = System.nanoTime();
+		tokens.clear();
+		tokenStream.tokenise( sentence, from, to, tokens );
+		start = tokeniseTime.recordSince( start );
+
+		int numTokens = tokens.size();
+		for ( int i = 0; i < numTokens; i++ )
+		{
+			result.addWord( vocabulary.getLowerCaseId( tokens.text( i ), tokens.start( i ), tokens.end( i ) ) );
+			if ( wordSketch != null )
 			{
-				Word wordObj = new Word( word.toLowerCase() );
-				
-				for ( String entity : namedEntities )
-				{
-					if ( tokeniser.match( entity, word ) )
-					{
-						wordObj.addNamedEntity( entity );
-					}
-				}
-				
-				wordList.add( wordObj );
+				wordSketch.add( tokens.text( i ), tokens.start( i ), tokens.end( i ) );
 			}
+		}
+
+		current = result;
+		numEntities = 0;
+		ner.findEntities( tokens, this );
+		current = null;
+
+		tagTime.recordSince( start );
+		sentenceCount.increment();
+		tokenCount.add( numTokens );
+		entityCount.add( numEntities );
+	}
 
-			doc.addSentence( wordList );
+	@Override
+	public void entityFound( int start, int end, int entity )
+	{
+		String name = ner.getEntity( entity );
+
+		current.addMatch( start, end, name );
+		numEntities++;
+
+		if ( entitySketch != null )
+		{
+			entitySketch.add( name, 1 );
+		}
+	}
+
+	private void openSketches()
+	{
+		if ( sketches != null )
+		{
+			wordSketch = sketches.getWords().local();
+			entitySketch = sketches.getEntities().local();
 		}
 	}
 
+	private void flushSketches()
+	{
+		if ( sketches != null )
+		{
+			wordSketch.flush();
+			entitySketch.flush();
+			wordSketch = null;
+			entitySketch = null;
+		}
+	}
 }
@@ -0,0 +1,11 @@
+package dr.nlp.tools;
+
+import dr.nlp.data.Document;
+
+public interface AnalysisListener
+{
+	/**
+	 * Called once all sentences of the document have been committed.
+	 */
+	public void analysisCompleted( Document doc );
+}
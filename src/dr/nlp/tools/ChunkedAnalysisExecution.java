@@ -0,0 +1,169 @@
+package dr.nlp.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dr.nlp.data.AnalysedSentence;
+import dr.nlp.data.Document;
+import dr.nlp.data.WordStatistics;
+import dr.nlp.sketch.CorpusSketches;
+
+/**
+ * Analyses a large document as a number of chunks which can run in parallel. The text
+ * is split at safe sentence boundaries (see TextChunker), and each chunk is exposed as
+ * its own execution unit so it can be handed to a thread pool. The text is any
+ * CharSequence, so a buffer from a DocumentReader is analysed without a copy.
+ *
+ * Chunks may finish in any order, so their sentences are committed to the document by
+ * sequence number: a finished chunk parks its result, and whichever thread finishes
+ * the next chunk in line commits every parked result that has become contiguous. No
+ * thread ever waits for another chunk to finish.
+ *
+ * Each chunk counts its words into a WordStatistics of its own on the thread which
+ * analysed it, so committing a chunk only appends its sentences and hands its table
+ * to the document. Nothing is counted for a document which isn't counting words.
+ */
+public class ChunkedAnalysisExecution implements ExecutionUnit
+{
+	private CharSequence text;
+	private Document doc;
+	private SentenceAnalyser analyser;
+	private Tokeniser tokeniser;
+	private NamedEntities ner;
+
+	private int[] boundaries;
+	private List<List<AnalysedSentence>> pending;
+	private List<WordStatistics> pendingStatistics;
+	private int nextCommit;
+	private AnalysisListener listener;
+	private CorpusSketches sketches;
+
+	public ChunkedAnalysisExecution( CharSequence text, Document doc, SentenceAnalyser analyser, Tokeniser tokeniser, NamedEntities ner, int chunkSize )
+	{
+		this.text = text;
+		this.doc = doc;
+		this.analyser = analyser;
+		this.tokeniser = tokeniser;
+		this.ner = ner;
+
+		boundaries = TextChunker.findChunkBoundaries( text, chunkSize );
+		pending = new ArrayList<List<AnalysedSentence>>();
+		pendingStatistics = new ArrayList<WordStatistics>();
+		for ( int i = 0; i < getNumChunks(); i++ )
+		{
+			pending.add( null );
+			pendingStatistics.add( null );
+		}
+		nextCommit = 0;
+	}
+
+	public int getNumChunks()
+	{
+		return boundaries.length - 1;
+	}
+
+	public List<ExecutionUnit> getChunks()
+	{
+		List<ExecutionUnit> chunks = new ArrayList<ExecutionUnit>( getNumChunks() );
+
+		for ( int i = 0; i < getNumChunks(); i++ )
+		{
+			chunks.add( new Chunk( i ) );
+		}
+
+		return chunks;
+	}
+
+	public void setListener( AnalysisListener listener )
+	{
+		this.listener = listener;
+	}
+
+	public void setSketches( CorpusSketches sketches )
+	{
+		this.sketches = sketches;
+	}
+
+	public Document getDocument()
+	{
+		return doc;
+	}
+
+	public synchronized boolean isComplete()
+	{
+		return nextCommit == getNumChunks();
+	}
+
+	@Override
+	public void execute()
+	{
+		for ( ExecutionUnit chunk : getChunks() )
+		{
+			chunk.execute();
+		}
+	}
+
+	/**
+	 * Parks the sentences of a chunk and commits every chunk that is now next in line.
+	 * Returns true if this call completed the document.
+	 */
+	private synchronized boolean commit( int index, List<AnalysedSentence> sentences, WordStatistics statistics )
+	{
+		pending.set( index, sentences );
+		pendingStatistics.set( index, statistics );
+
+		if ( index != nextCommit )
+		{
+			return false;
+		}
+
+		while ( nextCommit < getNumChunks() && pending.get( nextCommit ) != null )
+		{
+			doc.addSentences( pending.get( nextCommit ), pendingStatistics.get( nextCommit ) );
+			pending.set( nextCommit, null );
+			pendingStatistics.set( nextCommit++, null );
+		}
+
+		if ( isComplete() )
+		{
+			// Every chunk has been analysed, so the text, which may be a large mapped
+			// or decoded buffer, needn't live as long as the execution
+			text = null;
+			return true;
+		}
+		return false;
+	}
+
+	private class Chunk implements ExecutionUnit
+	{
+		private int index;
+
+		public Chunk( int index )
+		{
+			this.index = index;
+		}
+
+		@Override
+		public void execute()
+		{
+			AnalysisExecution analysis = new AnalysisExecution( text, boundaries[index], boundaries[index + 1], doc, analyser, tokeniser, ner );
+			analysis.setSketches( sketches );
+
+			List<AnalysedSentence> sentences = analysis.analyseSentences();
+			WordStatistics statistics = null;
+			if ( doc.isCountingWords() )
+			{
+				statistics = new WordStatistics( doc.getVocabulary() );
+				for ( AnalysedSentence sentence : sentences )
+				{
+					statistics.add( sentence );
+				}
+			}
+
+			if ( commit( index, sentences, statistics ) && listener != null )
+			{
+				listener.analysisCompleted( doc );
+			}
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package dr.nlp.tools;
+
+public interface EntityMatchHandler
+{
+	/**
+	 * Called for every named entity found in a token array, where start is the index
+	 * of the first token of the entity and end is one past the last token.
+	 */
+	public void entityFound( int start, int end, int entity );
+}
@@ -0,0 +1,367 @@
+package dr.nlp.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+import dr.nlp.data.Vocabulary;
+import dr.nlp.util.LongIntHashMap;
+
+/**
+ * A token level Aho-Corasick automaton over the named entities. Each entity is split
+ * into tokens, every distinct token is given an id, and the entities are inserted as
+ * paths of token ids. Once compiled, all entities occurring in a token array are found
+ * in a single left-to-right pass without building any N-gram strings.
+ *
+ * Transitions are kept in a single primitive hash table keyed on (state, token), and
+ * the per state data lives in parallel int arrays, which keeps the overhead per entry
+ * low enough for gazetteers with millions of entities.
+ *
+ * Every entity token is also added to the shared Vocabulary, so token spans can be
+ * matched through a vocabulary lookup without turning them into strings. For very large
+ * gazetteers see GazetteerCompiler, which writes the compiled trie to a file.
+ */
+public class EntityTrie implements Gazetteer
+{
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+
+	private static Vocabulary vocabulary = Vocabulary.getInstance();
+
+	private HashMap<String, Integer> tokenIds;
+	private LongIntHashMap vocabularyTokens;
+	private LongIntHashMap transitions;
+	private List<String> entities;
+
+	private int numStates;
+	private int[] parent;
+	private int[] token;
+	private int[] depth;
+	private int[] entity;
+	private int[] fail;
+	private int[] output;
+
+	private int maxEntityTokens;
+	private volatile boolean compiled;
+
+	public EntityTrie()
+	{
+		tokenIds = new HashMap<String, Integer>();
+		vocabularyTokens = new LongIntHashMap( 1024, NONE );
+		transitions = new LongIntHashMap( 1024, NONE );
+		entities = new ArrayList<String>();
+
+		parent = new int[1024];
+		token = new int[1024];
+		depth = new int[1024];
+		entity = new int[1024];
+		numStates = 1;
+		parent[ROOT] = NONE;
+		token[ROOT] = NONE;
+		entity[ROOT] = NONE;
+		maxEntityTokens = 0;
+		compiled = false;
+	}
+
+	/**
+	 * Builds a compiled trie from an entity list, one entity per line.
+	 */
+	public static EntityTrie load( File file ) throws IOException
+	{
+		EntityTrie trie = new EntityTrie();
+		Scanner sc = new Scanner( file, "UTF-8" );
+
+		try
+		{
+			while ( sc.hasNextLine() )
+			{
+				String entity = sc.nextLine();
+				if ( entity.length() != 0 )
+				{
+					trie.addEntity( entity );
+				}
+			}
+		}
+		finally
+		{
+			sc.close();
+		}
+
+		trie.compile();
+		return trie;
+	}
+
+	public int addEntity( String name )
+	{
+		String[] tokens = name.split( " " );
+		int state = ROOT;
+
+		for ( String t : tokens )
+		{
+			Integer id = tokenIds.get( t );
+			if ( id == null )
+			{
+				id = tokenIds.size();
+				tokenIds.put( t, id );
+				vocabularyTokens.put( vocabulary.getId( t ), id );
+			}
+
+			int next = transitions.get( key( state, id ) );
+			if ( next == NONE )
+			{
+				next = newState( state, id );
+				transitions.put( key( state, id ), next );
+			}
+			state = next;
+		}
+
+		if ( entity[state] == NONE )
+		{
+			entity[state] = entities.size();
+			entities.add( name );
+			maxEntityTokens = Math.max( maxEntityTokens, tokens.length );
+			compiled = false;
+		}
+
+		return entity[state];
+	}
+
+	/**
+	 * Builds the failure and output links. States are processed in order of depth,
+	 * so the failure link of a parent is always known before those of its children.
+	 */
+	public synchronized void compile()
+	{
+		if ( compiled )
+		{
+			return;
+		}
+
+		fail = new int[numStates];
+		output = new int[numStates];
+
+		for ( int state : statesByDepth() )
+		{
+			if ( depth[state] <= 1 )
+			{
+				fail[state] = ROOT;
+			}
+			else
+			{
+				int f = fail[parent[state]];
+				int next;
+				while ( ( next = transitions.get( key( f, token[state] ) ) ) == NONE && f != ROOT )
+				{
+					f = fail[f];
+				}
+				fail[state] = ( next == NONE ) ? ROOT : next;
+			}
+
+			int f = fail[state];
+			output[state] = ( entity[f] != NONE ) ? f : output[f];
+		}
+
+		output[ROOT] = ROOT;
+		compiled = true;
+	}
+
+	@Override
+	public void findEntities( String[] tokens, EntityMatchHandler handler )
+	{
+		if ( !compiled )
+		{
+			compile();
+		}
+
+		int state = ROOT;
+
+		for ( int i = 0; i < tokens.length; i++ )
+		{
+			Integer id = tokenIds.get( tokens[i] );
+			state = next( state, ( id != null ) ? id : NONE, i, handler );
+		}
+	}
+
+	@Override
+	public void findEntities( TextSpanList tokens, EntityMatchHandler handler )
+	{
+		if ( !compiled )
+		{
+			compile();
+		}
+
+		int state = ROOT;
+
+		for ( int i = 0; i < tokens.size(); i++ )
+		{
+			// Entities are case sensitive, so the token is looked up as it is
+			int word = vocabulary.lookup( tokens.text( i ), tokens.start( i ), tokens.end( i ) );
+			state = next( state, ( word >= 0 ) ? vocabularyTokens.get( word ) : NONE, i, handler );
+		}
+	}
+
+	@Override
+	public boolean contains( String name )
+	{
+		int state = ROOT;
+
+		for ( String t : name.split( " " ) )
+		{
+			Integer id = tokenIds.get( t );
+			if ( id == null || ( state = transitions.get( key( state, id ) ) ) == NONE )
+			{
+				return false;
+			}
+		}
+
+		return entity[state] != NONE;
+	}
+
+	@Override
+	public String getEntity( int index )
+	{
+		return entities.get( index );
+	}
+
+	@Override
+	public int getNumEntities()
+	{
+		return entities.size();
+	}
+
+	@Override
+	public int getMaxEntityTokens()
+	{
+		return maxEntityTokens;
+	}
+
+	// The trie as built, for GazetteerCompiler; fail and output need compile() first
+
+	int getNumStates()
+	{
+		return numStates;
+	}
+
+	int getParent( int state )
+	{
+		return parent[state];
+	}
+
+	int getToken( int state )
+	{
+		return token[state];
+	}
+
+	int getDepth( int state )
+	{
+		return depth[state];
+	}
+
+	int getEntityAt( int state )
+	{
+		return entity[state];
+	}
+
+	int getFail( int state )
+	{
+		return fail[state];
+	}
+
+	int getOutput( int state )
+	{
+		return output[state];
+	}
+
+	/** The tokens indexed by id. */
+	String[] getTokens()
+	{
+		String[] tokens = new String[tokenIds.size()];
+		for ( Map.Entry<String, Integer> entry : tokenIds.entrySet() )
+		{
+			tokens[entry.getValue()] = entry.getKey();
+		}
+		return tokens;
+	}
+
+	/**
+	 * Moves on by the token at index i and reports the entities ending there.
+	 */
+	private int next( int state, int id, int i, EntityMatchHandler handler )
+	{
+		if ( id == NONE )
+		{
+			// No entity contains this token, so nothing can match across it
+			return ROOT;
+		}
+
+		state = step( state, id );
+
+		for ( int s = ( entity[state] != NONE ) ? state : output[state]; s != ROOT; s = output[s] )
+		{
+			handler.entityFound( i + 1 - depth[s], i + 1, entity[s] );
+		}
+
+		return state;
+	}
+
+	private int step( int state, int id )
+	{
+		int next;
+		while ( ( next = transitions.get( key( state, id ) ) ) == NONE && state != ROOT )
+		{
+			state = fail[state];
+		}
+
+		return ( next == NONE ) ? ROOT : next;
+	}
+
+	private int newState( int from, int id )
+	{
+		if ( numStates == parent.length )
+		{
+			int capacity = numStates << 1;
+			parent = Arrays.copyOf( parent, capacity );
+			token = Arrays.copyOf( token, capacity );
+			depth = Arrays.copyOf( depth, capacity );
+			entity = Arrays.copyOf( entity, capacity );
+		}
+
+		int state = numStates++;
+		parent[state] = from;
+		token[state] = id;
+		depth[state] = depth[from] + 1;
+		entity[state] = NONE;
+		return state;
+	}
+
+	private int[] statesByDepth()
+	{
+		int[] offsets = new int[maxEntityTokens + 2];
+		for ( int state = 1; state < numStates; state++ )
+		{
+			offsets[depth[state] + 1]++;
+		}
+		for ( int d = 1; d < offsets.length; d++ )
+		{
+			offsets[d] += offsets[d - 1];
+		}
+
+		int[] order = new int[numStates - 1];
+		for ( int state = 1; state < numStates; state++ )
+		{
+			order[offsets[depth[state]]++] = state;
+		}
+
+		return order;
+	}
+
+	private static long key( int state, int id )
+	{
+		return ( (long) state << 32 ) | ( id & 0xffffffffL );
+	}
+}
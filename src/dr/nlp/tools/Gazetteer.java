@@ -0,0 +1,21 @@
+package dr.nlp.tools;
+
+/**
+ * A set of named entities which can be searched for in the tokens of a sentence.
+ * EntityTrie builds one on the heap from an entity list, and MappedEntityTrie serves one
+ * compiled by GazetteerCompiler from a memory mapped file.
+ */
+public interface Gazetteer
+{
+	/**
+	 * Reports every entity found in the tokens to the handler, in order of the
+	 * position of the last token of each match.
+	 */
+	public void findEntities( String[] tokens, EntityMatchHandler handler );
+	public void findEntities( TextSpanList tokens, EntityMatchHandler handler );
+
+	public boolean contains( String name );
+	public String getEntity( int index );
+	public int getNumEntities();
+	public int getMaxEntityTokens();
+}
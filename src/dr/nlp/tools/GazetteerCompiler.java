@@ -0,0 +1,199 @@
+package dr.nlp.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import dr.nlp.io.VarInt;
+import dr.nlp.util.LongIntHashMap;
+
+/**
+ * Compiles an entity list into a gazetteer file which MappedEntityTrie serves straight
+ * from a memory mapping, so a large gazetteer is neither parsed nor held on the heap
+ * when a process starts. Run it offline as
+ *
+ *   java dr.nlp.tools.GazetteerCompiler NER.txt NER.gaz
+ *
+ * The file holds the compiled EntityTrie, laid out as:
+ *
+ *   header:      magic, version, counts, table sizes and the offsets of the sections
+ *   tokens:      hash table of token ids, keyed by the String hash code of the token
+ *   token table: per token the offset of its chars, its length and its hash code
+ *   transitions: hash table of (state, token) keys and next states
+ *   states:      per state its depth, entity, failure link and output link
+ *   entities:    the offset of each entity name
+ *   chars:       the UTF-16 chars of the tokens
+ *   names:       the entity names as varint length prefixed UTF-8
+ *
+ * Hash tables are probed linearly from LongIntHashMap.hash() of the key.
+ */
+public class GazetteerCompiler
+{
+	static final int MAGIC = 0x4452475A;	// "DRGZ"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 72;
+	static final int TOKEN_ENTRY_SIZE = 16;
+	static final int TRANSITION_SIZE = 12;
+	static final int STATE_SIZE = 16;
+
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	public static void main( String[] args ) throws IOException
+	{
+		if ( args.length != 2 )
+		{
+			System.err.println( "Usage: GazetteerCompiler <entity list> <gazetteer file>" );
+			System.exit( 1 );
+		}
+
+		long start = System.currentTimeMillis();
+		EntityTrie trie = EntityTrie.load( new File( args[0] ) );
+		write( trie, new File( args[1] ) );
+
+		System.out.println( "Compiled " + trie.getNumEntities() + " entities to " + args[1]
+				+ " in " + ( System.currentTimeMillis() - start ) + " ms" );
+	}
+
+	public static void write( EntityTrie trie, File file ) throws IOException
+	{
+		trie.compile();
+
+		String[] tokens = trie.getTokens();
+		int numStates = trie.getNumStates();
+		int numEntities = trie.getNumEntities();
+		int tokenSlots = tableSize( tokens.length );
+		int transitionSlots = tableSize( numStates - 1 );
+
+		long tokenTable = HEADER_SIZE;
+		long tokenEntries = tokenTable + 4L * tokenSlots;
+		long transitionTable = tokenEntries + (long) TOKEN_ENTRY_SIZE * tokens.length;
+		long stateTable = transitionTable + (long) TRANSITION_SIZE * transitionSlots;
+		long entityTable = stateTable + (long) STATE_SIZE * numStates;
+		long chars = entityTable + 8L * numEntities;
+		long names = chars;
+		for ( String token : tokens )
+		{
+			names += 2L * token.length();
+		}
+
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ), 64 * 1024 ) );
+
+		try
+		{
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( numStates );
+			out.writeInt( tokens.length );
+			out.writeInt( numEntities );
+			out.writeInt( trie.getMaxEntityTokens() );
+			out.writeInt( tokenSlots );
+			out.writeInt( transitionSlots );
+			out.writeLong( tokenEntries );
+			out.writeLong( transitionTable );
+			out.writeLong( stateTable );
+			out.writeLong( entityTable );
+			out.writeLong( chars );
+
+			// Token ids by hash, stored as id + 1 so that 0 is a free slot
+			int[] slots = new int[tokenSlots];
+			for ( int id = 0; id < tokens.length; id++ )
+			{
+				int slot = LongIntHashMap.hash( tokens[id].hashCode() ) & ( tokenSlots - 1 );
+				while ( slots[slot] != 0 )
+				{
+					slot = ( slot + 1 ) & ( tokenSlots - 1 );
+				}
+				slots[slot] = id + 1;
+			}
+			for ( int slot : slots )
+			{
+				out.writeInt( slot );
+			}
+			slots = null;
+
+			long charOffset = chars;
+			for ( String token : tokens )
+			{
+				out.writeLong( charOffset );
+				out.writeInt( token.length() );
+				out.writeInt( token.hashCode() );
+				charOffset += 2L * token.length();
+			}
+
+			// Every state but the root is reached by exactly one transition
+			long[] keys = new long[transitionSlots];
+			int[] next = new int[transitionSlots];
+			Arrays.fill( keys, LongIntHashMap.FREE_KEY );
+			for ( int state = 1; state < numStates; state++ )
+			{
+				long key = key( trie.getParent( state ), trie.getToken( state ) );
+				int slot = LongIntHashMap.hash( key ) & ( transitionSlots - 1 );
+				while ( keys[slot] != LongIntHashMap.FREE_KEY )
+				{
+					slot = ( slot + 1 ) & ( transitionSlots - 1 );
+				}
+				keys[slot] = key;
+				next[slot] = state;
+			}
+			for ( int slot = 0; slot < transitionSlots; slot++ )
+			{
+				out.writeLong( keys[slot] );
+				out.writeInt( next[slot] );
+			}
+			keys = null;
+			next = null;
+
+			for ( int state = 0; state < numStates; state++ )
+			{
+				out.writeInt( trie.getDepth( state ) );
+				out.writeInt( trie.getEntityAt( state ) );
+				out.writeInt( trie.getFail( state ) );
+				out.writeInt( trie.getOutput( state ) );
+			}
+
+			long nameOffset = names;
+			for ( int i = 0; i < numEntities; i++ )
+			{
+				int length = trie.getEntity( i ).getBytes( UTF8 ).length;
+				out.writeLong( nameOffset );
+				nameOffset += VarInt.size( length ) + length;
+			}
+
+			for ( String token : tokens )
+			{
+				out.writeChars( token );
+			}
+
+			for ( int i = 0; i < numEntities; i++ )
+			{
+				byte[] name = trie.getEntity( i ).getBytes( UTF8 );
+				VarInt.write( out, name.length );
+				out.write( name );
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	static long key( int state, int token )
+	{
+		return ( (long) state << 32 ) | ( token & 0xffffffffL );
+	}
+
+	// A power of two at least twice the number of entries
+	private static int tableSize( int entries )
+	{
+		int size = 16;
+		while ( size < 2L * entries )
+		{
+			size <<= 1;
+		}
+		return size;
+	}
+}
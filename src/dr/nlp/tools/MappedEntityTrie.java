@@ -0,0 +1,237 @@
+package dr.nlp.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import dr.nlp.io.MappedFile;
+import dr.nlp.util.LongIntHashMap;
+
+/**
+ * Serves a gazetteer compiled by GazetteerCompiler from a memory mapping of the file.
+ * Nothing is loaded up front, tokens are hashed and compared against the mapped chars,
+ * and the trie is walked through the mapped transition table, so opening even a very
+ * large gazetteer is immediate and it takes no space on the heap. Only entity names
+ * are decoded, when they are asked for.
+ *
+ * Lookups are safe to run from several threads at once.
+ */
+public class MappedEntityTrie implements Gazetteer, Closeable
+{
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private MappedFile file;
+	private int numStates;
+	private int numEntities;
+	private int maxEntityTokens;
+	private int tokenMask;
+	private int transitionMask;
+	private long tokenEntries;
+	private long transitionTable;
+	private long stateTable;
+	private long entityTable;
+
+	public MappedEntityTrie( File path ) throws IOException
+	{
+		file = new MappedFile( path );
+
+		if ( file.size() < GazetteerCompiler.HEADER_SIZE || file.getInt( 0 ) != GazetteerCompiler.MAGIC )
+		{
+			file.close();
+			throw new IOException( "Not a gazetteer file: " + path );
+		}
+		if ( file.getInt( 4 ) != GazetteerCompiler.VERSION )
+		{
+			file.close();
+			throw new IOException( "Unsupported gazetteer version " + file.getInt( 4 ) + ": " + path );
+		}
+
+		numStates = file.getInt( 8 );
+		numEntities = file.getInt( 16 );
+		maxEntityTokens = file.getInt( 20 );
+		tokenMask = file.getInt( 24 ) - 1;
+		transitionMask = file.getInt( 28 ) - 1;
+		tokenEntries = file.getLong( 32 );
+		transitionTable = file.getLong( 40 );
+		stateTable = file.getLong( 48 );
+		entityTable = file.getLong( 56 );
+	}
+
+	@Override
+	public void findEntities( String[] tokens, EntityMatchHandler handler )
+	{
+		int state = ROOT;
+
+		for ( int i = 0; i < tokens.length; i++ )
+		{
+			state = next( state, findToken( tokens[i], 0, tokens[i].length() ), i, handler );
+		}
+	}
+
+	@Override
+	public void findEntities( TextSpanList tokens, EntityMatchHandler handler )
+	{
+		int state = ROOT;
+
+		for ( int i = 0; i < tokens.size(); i++ )
+		{
+			state = next( state, findToken( tokens.text( i ), tokens.start( i ), tokens.end( i ) ), i, handler );
+		}
+	}
+
+	@Override
+	public boolean contains( String name )
+	{
+		int state = ROOT;
+
+		for ( String t : name.split( " " ) )
+		{
+			int id = findToken( t, 0, t.length() );
+			if ( id == NONE || ( state = transition( state, id ) ) == NONE )
+			{
+				return false;
+			}
+		}
+
+		return entity( state ) != NONE;
+	}
+
+	@Override
+	public String getEntity( int index )
+	{
+		MappedFile.Reader reader = file.reader( file.getLong( entityTable + 8L * index ) );
+		byte[] name = new byte[reader.readVarInt()];
+		file.get( reader.getPosition(), name, 0, name.length );
+
+		return new String( name, UTF8 );
+	}
+
+	@Override
+	public int getNumEntities()
+	{
+		return numEntities;
+	}
+
+	@Override
+	public int getMaxEntityTokens()
+	{
+		return maxEntityTokens;
+	}
+
+	public int getNumStates()
+	{
+		return numStates;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		file.close();
+	}
+
+	private int next( int state, int id, int i, EntityMatchHandler handler )
+	{
+		if ( id == NONE )
+		{
+			// No entity contains this token, so nothing can match across it
+			return ROOT;
+		}
+
+		int next;
+		while ( ( next = transition( state, id ) ) == NONE && state != ROOT )
+		{
+			state = fail( state );
+		}
+		state = ( next == NONE ) ? ROOT : next;
+
+		for ( int s = ( entity( state ) != NONE ) ? state : output( state ); s != ROOT; s = output( s ) )
+		{
+			handler.entityFound( i + 1 - depth( s ), i + 1, entity( s ) );
+		}
+
+		return state;
+	}
+
+	/**
+	 * The id of the token text[start, end), or NONE if no entity contains it.
+	 */
+	private int findToken( CharSequence text, int start, int end )
+	{
+		int hash = 0;
+		for ( int i = start; i < end; i++ )
+		{
+			hash = 31 * hash + text.charAt( i );
+		}
+
+		for ( int slot = LongIntHashMap.hash( hash ) & tokenMask; ; slot = ( slot + 1 ) & tokenMask )
+		{
+			int id = file.getInt( GazetteerCompiler.HEADER_SIZE + 4L * slot ) - 1;
+			if ( id == NONE )
+			{
+				return NONE;
+			}
+
+			long entry = tokenEntries + (long) GazetteerCompiler.TOKEN_ENTRY_SIZE * id;
+			if ( file.getInt( entry + 12 ) == hash && file.getInt( entry + 8 ) == end - start
+					&& matches( file.getLong( entry ), text, start, end ) )
+			{
+				return id;
+			}
+		}
+	}
+
+	private boolean matches( long chars, CharSequence text, int start, int end )
+	{
+		for ( int i = start; i < end; i++, chars += 2 )
+		{
+			if ( file.getChar( chars ) != text.charAt( i ) )
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private int transition( int state, int token )
+	{
+		long key = GazetteerCompiler.key( state, token );
+
+		for ( int slot = LongIntHashMap.hash( key ) & transitionMask; ; slot = ( slot + 1 ) & transitionMask )
+		{
+			long entry = transitionTable + (long) GazetteerCompiler.TRANSITION_SIZE * slot;
+			long k = file.getLong( entry );
+			if ( k == key )
+			{
+				return file.getInt( entry + 8 );
+			}
+			if ( k == LongIntHashMap.FREE_KEY )
+			{
+				return NONE;
+			}
+		}
+	}
+
+	private int depth( int state )
+	{
+		return file.getInt( stateTable + (long) GazetteerCompiler.STATE_SIZE * state );
+	}
+
+	private int entity( int state )
+	{
+		return file.getInt( stateTable + (long) GazetteerCompiler.STATE_SIZE * state + 4 );
+	}
+
+	private int fail( int state )
+	{
+		return file.getInt( stateTable + (long) GazetteerCompiler.STATE_SIZE * state + 8 );
+	}
+
+	private int output( int state )
+	{
+		return file.getInt( stateTable + (long) GazetteerCompiler.STATE_SIZE * state + 12 );
+	}
+}
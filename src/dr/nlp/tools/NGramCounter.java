@@ -0,0 +1,714 @@
+package dr.nlp.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import dr.nlp.data.AnalysedSentence;
+import dr.nlp.data.Document;
+import dr.nlp.data.SentenceCursor;
+import dr.nlp.data.Vocabulary;
+import dr.nlp.io.VarInt;
+import dr.nlp.metrics.Counter;
+import dr.nlp.metrics.Metrics;
+import dr.nlp.util.LongIntHashMap;
+
+/**
+ * Counts the 1..maxN-grams of word ids within sentences, without creating a String or
+ * any other object per n-gram. N-grams are keyed by a 64 bit hash which is extended a
+ * word at a time (see NGramHandler.extendHash), so all the n-grams starting at a word
+ * are hashed in one pass, and counts are kept in primitive tables.
+ *
+ * Each thread counts into its own shard. A shard which reaches maxEntries distinct
+ * n-grams is sorted by hash and spilled to a run file, and the run files and shards are
+ * merged by hash when the counts are read, so the memory used is bounded by the number
+ * of threads times maxEntries however much text is counted. Whenever maxFanIn runs have
+ * been through as many merges, they are merged into one larger run, and the runs are
+ * merged down to maxFanIn before they are read, so no more than maxFanIn run files are
+ * open at once.
+ *
+ * Two n-grams whose hashes collide are counted as one. With 64 bit hashes this is
+ * unlikely until there are billions of distinct n-grams.
+ *
+ * The counts must only be read once every thread has finished adding.
+ */
+public class NGramCounter implements Closeable
+{
+	private static Vocabulary vocabulary = Vocabulary.getInstance();
+	private static Counter spills = Metrics.getInstance().counter( "ngrams.spills" );
+
+	private int maxN;
+	private int maxEntries;
+	private int maxFanIn;
+	private File spillDirectory;
+
+	private ThreadLocal<Shard> shards;
+	private List<Shard> allShards;
+
+	// The run files with the number of merges behind each
+	private List<File> runs;
+	private List<Integer> levels;
+
+	public NGramCounter( int maxN, int maxEntries, File spillDirectory )
+	{
+		this.maxN = maxN;
+		this.maxEntries = maxEntries;
+		this.maxFanIn = 64;
+		this.spillDirectory = spillDirectory;
+
+		allShards = new ArrayList<Shard>();
+		runs = new ArrayList<File>();
+		levels = new ArrayList<Integer>();
+		shards = new ThreadLocal<Shard>()
+		{
+			@Override
+			protected Shard initialValue()
+			{
+				Shard shard = new Shard();
+				synchronized ( allShards )
+				{
+					allShards.add( shard );
+				}
+				return shard;
+			}
+		};
+	}
+
+	/**
+	 * Counts the n-grams of ids[0, length).
+	 */
+	public void add( int[] ids, int length ) throws IOException
+	{
+		Shard shard = shards.get();
+
+		for ( int start = 0; start < length; start++ )
+		{
+			long hash = 0;
+			int end = Math.min( start + maxN, length );
+
+			for ( int i = start; i < end; i++ )
+			{
+				hash = NGramHandler.extendHash( hash, ids[i] );
+				shard.count( hash, ids, start, i + 1 - start );
+			}
+		}
+
+		if ( shard.size >= maxEntries )
+		{
+			shard.spill();
+		}
+	}
+
+	public void add( AnalysedSentence sentence ) throws IOException
+	{
+		Shard shard = shards.get();
+		int[] ids = shard.sentence( sentence.getNumWords() );
+		for ( int i = 0; i < sentence.getNumWords(); i++ )
+		{
+			ids[i] = sentence.getWordId( i );
+		}
+
+		add( ids, sentence.getNumWords() );
+	}
+
+	public void add( Document doc ) throws IOException
+	{
+		Shard shard = shards.get();
+		SentenceCursor cursor = shard.cursor;
+
+		for ( int s = 0; s < doc.getNumSentences(); s++ )
+		{
+			doc.openSentence( s, cursor );
+			int[] ids = shard.sentence( cursor.getNumWords() );
+			for ( int i = 0; cursor.hasNext(); i++ )
+			{
+				ids[i] = cursor.nextWordId();
+			}
+
+			add( ids, cursor.getNumWords() );
+		}
+	}
+
+	public int getMaxN()
+	{
+		return maxN;
+	}
+
+	/**
+	 * The most run files merged at once, at least 2.
+	 */
+	public void setMaxFanIn( int maxFanIn )
+	{
+		this.maxFanIn = Math.max( maxFanIn, 2 );
+	}
+
+	/**
+	 * The number of run files, spilled or merged from those spilled.
+	 */
+	public int getNumRuns()
+	{
+		synchronized ( runs )
+		{
+			return runs.size();
+		}
+	}
+
+	/**
+	 * Visits every distinct n-gram with its total count, in hash order. The shards are
+	 * left as they are, so the counts can be read more than once.
+	 */
+	public void forEach( NGramVisitor visitor ) throws IOException
+	{
+		mergeRuns( maxFanIn );
+		List<Cursor> cursors = new ArrayList<Cursor>();
+
+		try
+		{
+			synchronized ( allShards )
+			{
+				for ( Shard shard : allShards )
+				{
+					cursors.add( new ShardCursor( shard ) );
+				}
+			}
+			synchronized ( runs )
+			{
+				for ( File run : runs )
+				{
+					cursors.add( new RunCursor( run ) );
+				}
+			}
+
+			Cursor merged = new MergeCursor( cursors );
+			while ( merged.next() )
+			{
+				visitor.visit( merged.ids, merged.n, merged.count );
+			}
+		}
+		finally
+		{
+			for ( Cursor cursor : cursors )
+			{
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * The k most frequent n-grams of length n, most frequent first, with their words
+	 * separated by spaces. Only these k are turned into Strings.
+	 */
+	public LinkedHashMap<String, Long> getTop( final int n, final int k ) throws IOException
+	{
+		final PriorityQueue<long[]> top = new PriorityQueue<long[]>( k + 1, new Comparator<long[]>()
+		{
+			@Override
+			public int compare( long[] a, long[] b )
+			{
+				return Long.compare( a[0], b[0] );
+			}
+		} );
+
+		// Each entry is the count followed by the ids
+		forEach( new NGramVisitor()
+		{
+			@Override
+			public void visit( int[] ids, int length, long count )
+			{
+				if ( length != n || k == 0 || ( top.size() == k && count <= top.peek()[0] ) )
+				{
+					return;
+				}
+
+				long[] entry = new long[n + 1];
+				entry[0] = count;
+				for ( int i = 0; i < n; i++ )
+				{
+					entry[i + 1] = ids[i];
+				}
+				top.add( entry );
+				if ( top.size() > k )
+				{
+					top.poll();
+				}
+			}
+		} );
+
+		long[][] entries = top.toArray( new long[top.size()][] );
+		Arrays.sort( entries, Collections.reverseOrder( top.comparator() ) );
+
+		LinkedHashMap<String, Long> result = new LinkedHashMap<String, Long>( entries.length * 2 );
+		for ( long[] entry : entries )
+		{
+			String[] words = new String[n];
+			for ( int i = 0; i < n; i++ )
+			{
+				words[i] = vocabulary.getWord( (int) entry[i + 1] );
+			}
+			result.put( NGramHandler.concat( words, 0, n ), entry[0] );
+		}
+
+		return result;
+	}
+
+	/**
+	 * Deletes the run files.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized ( runs )
+		{
+			for ( File run : runs )
+			{
+				run.delete();
+			}
+			runs.clear();
+			levels.clear();
+		}
+	}
+
+	/**
+	 * Merges runs which have been through as many merges, maxFanIn at a time, and then
+	 * the runs with the fewest merges until there are at most maxRuns. The runs being
+	 * merged are taken out of the list, so other threads can spill meanwhile.
+	 */
+	private void mergeRuns( int maxRuns ) throws IOException
+	{
+		while ( true )
+		{
+			List<File> inputs = new ArrayList<File>();
+			List<Integer> inputLevels = new ArrayList<Integer>();
+
+			synchronized ( runs )
+			{
+				int maxLevel = 0;
+				for ( int level : levels )
+				{
+					maxLevel = Math.max( maxLevel, level );
+				}
+				int[] perLevel = new int[maxLevel + 1];
+				for ( int level : levels )
+				{
+					perLevel[level]++;
+				}
+
+				int level = 0;
+				while ( level <= maxLevel && perLevel[level] < maxFanIn )
+				{
+					level++;
+				}
+
+				int count = maxFanIn;
+				if ( level > maxLevel )
+				{
+					if ( runs.size() <= maxRuns )
+					{
+						return;
+					}
+					count = Math.min( maxFanIn, runs.size() - maxRuns + 1 );
+					level = 0;
+				}
+
+				for ( ; inputs.size() < count; level++ )
+				{
+					for ( int i = runs.size() - 1; i >= 0 && inputs.size() < count; i-- )
+					{
+						if ( levels.get( i ) == level )
+						{
+							inputs.add( runs.remove( i ) );
+							inputLevels.add( levels.remove( i ) );
+						}
+					}
+				}
+			}
+
+			File merged = null;
+			try
+			{
+				merged = mergeRuns( inputs );
+			}
+			finally
+			{
+				synchronized ( runs )
+				{
+					if ( merged == null )
+					{
+						// Left as they were
+						runs.addAll( inputs );
+						levels.addAll( inputLevels );
+					}
+					else
+					{
+						runs.add( merged );
+						levels.add( Collections.max( inputLevels ) + 1 );
+					}
+				}
+			}
+
+			for ( File input : inputs )
+			{
+				input.delete();
+			}
+		}
+	}
+
+	/**
+	 * Merges the runs into a new one, summing the counts of the same n-gram.
+	 */
+	private File mergeRuns( List<File> inputs ) throws IOException
+	{
+		File run = createRun();
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run ), 64 * 1024 ) );
+		List<Cursor> cursors = new ArrayList<Cursor>();
+		int size = 0;
+		boolean merged = false;
+
+		try
+		{
+			// The size is filled in once known
+			out.writeInt( 0 );
+			for ( File input : inputs )
+			{
+				cursors.add( new RunCursor( input ) );
+			}
+
+			Cursor cursor = new MergeCursor( cursors );
+			while ( cursor.next() )
+			{
+				writeEntry( out, cursor.key, cursor.count, cursor.ids, 0, cursor.n );
+				size++;
+			}
+			out.close();
+
+			RandomAccessFile header = new RandomAccessFile( run, "rw" );
+			try
+			{
+				header.writeInt( size );
+			}
+			finally
+			{
+				header.close();
+			}
+			merged = true;
+		}
+		finally
+		{
+			for ( Cursor cursor : cursors )
+			{
+				cursor.close();
+			}
+			out.close();
+			if ( !merged )
+			{
+				run.delete();
+			}
+		}
+
+		return run;
+	}
+
+	private File createRun() throws IOException
+	{
+		File run = File.createTempFile( "ngrams", ".run", spillDirectory );
+		run.deleteOnExit();
+		return run;
+	}
+
+	private static void writeEntry( DataOutputStream out, long key, long count, int[] ids, int start, int n ) throws IOException
+	{
+		out.writeLong( key );
+		VarInt.write( out, count );
+		out.writeByte( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			VarInt.write( out, ids[start + i] );
+		}
+	}
+
+	/**
+	 * The counts of one thread: a table from n-gram hash to entry, with the count, length
+	 * and words of each entry in parallel arrays.
+	 */
+	private class Shard
+	{
+		private LongIntHashMap index;
+		private long[] keys;
+		private long[] counts;
+		private int[] starts;
+		private byte[] lengths;
+		private int size;
+
+		private int[] ids;
+		private int numIds;
+
+		private int[] sentence;
+		private SentenceCursor cursor;
+
+		public Shard()
+		{
+			int capacity = Math.min( maxEntries, 1024 );
+			index = new LongIntHashMap( capacity, -1 );
+			keys = new long[capacity];
+			counts = new long[capacity];
+			starts = new int[capacity];
+			lengths = new byte[capacity];
+			ids = new int[capacity * 2];
+			sentence = new int[64];
+			cursor = new SentenceCursor();
+		}
+
+		public int[] sentence( int length )
+		{
+			if ( sentence.length < length )
+			{
+				sentence = new int[Math.max( length, sentence.length * 2 )];
+			}
+			return sentence;
+		}
+
+		public void count( long key, int[] words, int start, int n )
+		{
+			int entry = index.get( key );
+			if ( entry >= 0 )
+			{
+				counts[entry]++;
+				return;
+			}
+
+			if ( size == keys.length )
+			{
+				int capacity = size * 2;
+				keys = Arrays.copyOf( keys, capacity );
+				counts = Arrays.copyOf( counts, capacity );
+				starts = Arrays.copyOf( starts, capacity );
+				lengths = Arrays.copyOf( lengths, capacity );
+			}
+			if ( numIds + n > ids.length )
+			{
+				ids = Arrays.copyOf( ids, Math.max( numIds + n, ids.length * 2 ) );
+			}
+
+			System.arraycopy( words, start, ids, numIds, n );
+			keys[size] = key;
+			counts[size] = 1;
+			starts[size] = numIds;
+			lengths[size] = (byte) n;
+			index.put( key, size++ );
+			numIds += n;
+		}
+
+		/**
+		 * Entry numbers in hash order.
+		 */
+		public int[] sorted()
+		{
+			long[] sortedKeys = Arrays.copyOf( keys, size );
+			Arrays.sort( sortedKeys );
+
+			int[] order = new int[size];
+			for ( int i = 0; i < size; i++ )
+			{
+				order[i] = index.get( sortedKeys[i] );
+			}
+			return order;
+		}
+
+		/**
+		 * Writes the entries to a run file in hash order and empties the shard.
+		 */
+		public void spill() throws IOException
+		{
+			File run = createRun();
+			DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run ), 64 * 1024 ) );
+
+			try
+			{
+				out.writeInt( size );
+				for ( int entry : sorted() )
+				{
+					writeEntry( out, keys[entry], counts[entry], ids, starts[entry], lengths[entry] );
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+
+			synchronized ( runs )
+			{
+				runs.add( run );
+				levels.add( 0 );
+			}
+			spills.increment();
+
+			index.clear();
+			size = 0;
+			numIds = 0;
+
+			mergeRuns( Integer.MAX_VALUE );
+		}
+	}
+
+	/**
+	 * The current n-gram of a sorted source of counts.
+	 */
+	private abstract class Cursor
+	{
+		protected long key;
+		protected long count;
+		protected int n;
+		protected int[] ids = new int[maxN];
+
+		public abstract boolean next() throws IOException;
+
+		public void close()
+		{
+		}
+	}
+
+	/**
+	 * Merges sorted cursors, summing the counts of the same n-gram.
+	 */
+	private class MergeCursor extends Cursor
+	{
+		private PriorityQueue<Cursor> queue;
+
+		public MergeCursor( List<Cursor> cursors ) throws IOException
+		{
+			queue = new PriorityQueue<Cursor>( Math.max( cursors.size(), 1 ), new Comparator<Cursor>()
+			{
+				@Override
+				public int compare( Cursor a, Cursor b )
+				{
+					return Long.compare( a.key, b.key );
+				}
+			} );
+
+			for ( Cursor cursor : cursors )
+			{
+				if ( cursor.next() )
+				{
+					queue.add( cursor );
+				}
+			}
+		}
+
+		@Override
+		public boolean next() throws IOException
+		{
+			if ( queue.isEmpty() )
+			{
+				return false;
+			}
+
+			Cursor cursor = queue.poll();
+			key = cursor.key;
+			count = cursor.count;
+			n = cursor.n;
+			System.arraycopy( cursor.ids, 0, ids, 0, n );
+
+			while ( true )
+			{
+				if ( cursor.next() )
+				{
+					queue.add( cursor );
+				}
+				if ( queue.isEmpty() || queue.peek().key != key )
+				{
+					break;
+				}
+				cursor = queue.poll();
+				count += cursor.count;
+			}
+			return true;
+		}
+	}
+
+	private class ShardCursor extends Cursor
+	{
+		private Shard shard;
+		private int[] order;
+		private int position;
+
+		public ShardCursor( Shard shard )
+		{
+			this.shard = shard;
+			this.order = shard.sorted();
+		}
+
+		@Override
+		public boolean next()
+		{
+			if ( position == order.length )
+			{
+				return false;
+			}
+
+			int entry = order[position++];
+			key = shard.keys[entry];
+			count = shard.counts[entry];
+			n = shard.lengths[entry];
+			System.arraycopy( shard.ids, shard.starts[entry], ids, 0, n );
+			return true;
+		}
+	}
+
+	private class RunCursor extends Cursor
+	{
+		private DataInputStream in;
+		private int remaining;
+
+		public RunCursor( File run ) throws IOException
+		{
+			in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ), 64 * 1024 ) );
+			remaining = in.readInt();
+		}
+
+		@Override
+		public boolean next() throws IOException
+		{
+			if ( remaining == 0 )
+			{
+				return false;
+			}
+
+			remaining--;
+			key = in.readLong();
+			count = VarInt.readLong( in );
+			n = in.readByte();
+			for ( int i = 0; i < n; i++ )
+			{
+				ids[i] = VarInt.read( in );
+			}
+			return true;
+		}
+
+		@Override
+		public void close()
+		{
+			try
+			{
+				in.close();
+			}
+			catch( IOException e )
+			{
+				// The run was only read
+			}
+		}
+	}
+}
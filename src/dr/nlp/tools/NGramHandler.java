@@ -5,9 +5,12 @@ import java.util.List;
 
 public class NGramHandler
 {
+	// Multiplier of the n-gram hash, the 64 bit golden ratio
+	private static final long HASH_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
 	public static List<String> getNGrams( String[] words, int n )
 	{
-		List<String> ngrams = new ArrayList<String>();
+		List<String> ngrams = new ArrayList<String>( Math.max( words.length - n + 1, 0 ) );
 
 		for( int i = 0; i < words.length - n + 1; i++ )
 		{
@@ -23,10 +26,7 @@ public class NGramHandler
 		
 		for ( int i = 1; i <= n; ++i )
 		{
-			for ( String ngram : getNGrams( words, i ) )
-			{
-				ngrams.add( ngram );
-			}
+			ngrams.addAll( getNGrams( words, i ) );
 		}
 		
 		return ngrams;
@@ -34,13 +34,35 @@ public class NGramHandler
 
 	public static String concat( String[] words, int start, int end )
 	{
-		StringBuilder sb = new StringBuilder();
+		int length = Math.max( end - start - 1, 0 );
+		for ( int i = start; i < end; i++ )
+		{
+			length += words[i].length();
+		}
+
+		StringBuilder sb = new StringBuilder( length );
 		
 		for( int i = start; i < end; i++ )
 		{
-			sb.append( ( i > start ? " " : "" ) + words[i] );
+			if ( i > start )
+			{
+				sb.append( ' ' );
+			}
+			sb.append( words[i] );
 		}
 		
 		return sb.toString();
 	}
+
+	/**
+	 * Extends the hash of an n-gram of word ids by one more word, so the hashes of all the
+	 * n-grams starting at a word are found in one pass without building them. Start with
+	 * a hash of 0. The hash is never Long.MIN_VALUE, so it can key a LongIntHashMap.
+	 */
+	public static long extendHash( long hash, int id )
+	{
+		hash = ( hash + id + 1 ) * HASH_MULTIPLIER;
+		hash ^= ( hash >>> 29 );
+		return ( hash == Long.MIN_VALUE ) ? 0 : hash;
+	}
 }
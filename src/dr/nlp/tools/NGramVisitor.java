@@ -0,0 +1,10 @@
+package dr.nlp.tools;
+
+public interface NGramVisitor
+{
+	/**
+	 * Called once per distinct n-gram with its total count. The ids are the vocabulary ids
+	 * of its words in ids[0, n), and the array is reused for the next n-gram.
+	 */
+	public void visit( int[] ids, int n, long count );
+}
@@ -1,67 +1,93 @@
 package dr.nlp.tools;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
 
 public class NamedEntities
 {
 	private static NamedEntities instance = null;
 	
-	private static HashMap<String, Integer> entities;
+	private static Gazetteer entities;
 	private static String entityFile;
-	private static int maxEntityTokens;
+	private static String version;
 	
 	protected NamedEntities()
 	{
-		entities = new HashMap<String, Integer>();
-		maxEntityTokens = 0;
+		entities = new EntityTrie();
 	}
 	
+	/**
+	 * Loads an entity list, one entity per line, or a gazetteer compiled by
+	 * GazetteerCompiler if the file name ends in .gaz. A compiled gazetteer is memory
+	 * mapped rather than read into the heap.
+	 */
 	private void loadEntities( String filename )
 	{
 		File file = new File( filename );
-		Scanner sc;
+		version = file.getName() + "/" + file.length() + "/" + file.lastModified();
+
 		try
 		{
-			sc = new Scanner( file );
-
-		    while ( sc.hasNextLine() ) 
-		    {
-		    	String entity = sc.nextLine();
-		    	if ( entity.length() != 0 )
-		    	{
-		    		String[] tokens = entity.split( " " );
-		    		int numTokens = tokens.length;
-		    		maxEntityTokens = Math.max( maxEntityTokens, numTokens );
-			    	entities.put( entity, new Integer( numTokens ) );
-		    	}
-		    }
-		    
-		    sc.close();
+			if ( filename.endsWith( ".gaz" ) )
+			{
+				entities = new MappedEntityTrie( file );
+			}
+			else
+			{
+				entities = EntityTrie.load( file );
+			}
 		}
-		catch( FileNotFoundException e )
+		catch( IOException e )
 		{
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Identifies the entity file loaded, by its name, size and modification time.
+	 */
+	public String getVersion()
+	{
+		return version;
+	}
+
 	public int getNumEntities()
 	{
-		return entities.size();
+		return entities.getNumEntities();
 	}
 	
 	public int getMaxEntityTokens()
 	{
-		return maxEntityTokens;
+		return entities.getMaxEntityTokens();
 	}
 	
 	public boolean isNamedEntity( String entity )
 	{
-		return ( entities.get( entity ) != null );
+		return entities.contains( entity );
+	}
+
+	public String getEntity( int index )
+	{
+		return entities.getEntity( index );
+	}
+
+	/**
+	 * Finds all named entities in the tokens of a sentence in a single pass, reporting
+	 * the token range of each match to the handler.
+	 */
+	public void findEntities( String[] tokens, EntityMatchHandler handler )
+	{
+		entities.findEntities( tokens, handler );
+	}
+
+	/**
+	 * As above, for token spans such as those reported by a StreamingTokeniser.
+	 */
+	public void findEntities( TextSpanList tokens, EntityMatchHandler handler )
+	{
+		entities.findEntities( tokens, handler );
 	}
 	
 	public List<String> getNamedEntities( List<String> list )
@@ -0,0 +1,141 @@
+package dr.nlp.tools;
+
+/**
+ * A sentence analyser which finds the same sentence boundaries as SimpleAnalyser in a
+ * single scan of the text, and reports each sentence as [start, end) offsets into it.
+ * Leading and trailing whitespace is trimmed by moving the offsets, and sentences with
+ * nothing but whitespace are dropped, so no text is copied until a caller asks for
+ * strings. Line breaks inside a sentence are left in place; tokenisers treat them as
+ * any other whitespace.
+ *
+ * The boundaries follow the SimpleAnalyser pattern: a single '.' followed by whitespace,
+ * a quote or a closing bracket, a single '.' at the very end, a single '!' or '?', and
+ * the end of the text. Runs such as "..." or "?!" are not boundaries. Unlike
+ * SimpleAnalyser, text after the last boundary is never lost.
+ */
+public class ScanningAnalyser implements SentenceAnalyser, StreamingSentenceAnalyser
+{
+	@Override
+	public String[] detectSentences( String text )
+	{
+		if ( text.isEmpty() )
+		{
+			return null;
+		}
+
+		SpanList sentences = new SpanList( 1 + text.length() / 64 );
+		detectSentences( text, 0, text.length(), sentences );
+
+		return sentences.toStrings( text );
+	}
+
+	/**
+	 * Reports the trimmed [start, end) offsets of every sentence in text[from, to) to
+	 * the sink.
+	 */
+	@Override
+	public void detectSentences( CharSequence text, int from, int to, SpanSink sentences )
+	{
+		int start = from;
+		int p = from;
+
+		while ( p <= to )
+		{
+			int boundary;
+			int end;
+
+			if ( p == to )
+			{
+				// The end of the text is always a boundary
+				boundary = to;
+				end = to;
+			}
+			else
+			{
+				char c = text.charAt( p );
+
+				if ( c == '.' )
+				{
+					int run = p + 1;
+					while ( run < to && text.charAt( run ) == '.' )
+					{
+						run++;
+					}
+
+					if ( run < to && isClosing( text.charAt( run ) ) )
+					{
+						// A run of dots before whitespace, a quote or a bracket only ends
+						// the sentence if it is a single dot
+						if ( run - p > 1 )
+						{
+							p = run;
+							continue;
+						}
+					}
+					else if ( run == to )
+					{
+						// At the end of the text the last dot ends the sentence
+						p = run - 1;
+					}
+					else
+					{
+						p = run;
+						continue;
+					}
+
+					boundary = p;
+					end = p + 1;
+				}
+				else if ( c == '!' || c == '?' )
+				{
+					int run = p + 1;
+					while ( run < to && ( text.charAt( run ) == '!' || text.charAt( run ) == '?' ) )
+					{
+						run++;
+					}
+
+					if ( run - p > 1 )
+					{
+						p = run;
+						continue;
+					}
+
+					boundary = p;
+					end = run;
+				}
+				else
+				{
+					p++;
+					continue;
+				}
+			}
+
+			addSentence( text, start, boundary, sentences );
+			start = end;
+			p = end + ( ( end == to ) ? 1 : 0 );
+		}
+	}
+
+	private static void addSentence( CharSequence text, int start, int end, SpanSink sentences )
+	{
+		while ( start < end && TextChunker.isWhitespace( text.charAt( start ) ) )
+		{
+			start++;
+		}
+		while ( end > start && TextChunker.isWhitespace( text.charAt( end - 1 ) ) )
+		{
+			end--;
+		}
+
+		if ( start < end )
+		{
+			sentences.span( text, start, end );
+		}
+	}
+
+	// The characters allowed after a sentence ending '.' by the SimpleAnalyser pattern
+	private static boolean isClosing( char c )
+	{
+		return c == '"' || c == ']' || c == '}' || c == ')' || c == '\'' || TextChunker.isWhitespace( c );
+	}
+}
@@ -0,0 +1,280 @@
+package dr.nlp.tools;
+
+/**
+ * A hand written tokeniser which produces the same tokens as SimpleTokeniser, but
+ * scans the sentence once using character classes instead of running the regex
+ * alternation. Each alternative of the SimpleTokeniser pattern is deterministic once
+ * the run of word characters at a word boundary is known, so the scanner measures
+ * that run once and decides which alternative applies by looking at the character
+ * that ends it, without backtracking.
+ *
+ * As with the regex, word boundaries follow java.util.regex semantics (Unicode letters
+ * and digits), while the characters making up a token are ASCII word characters.
+ */
+public class ScanningTokeniser implements Tokeniser, StreamingTokeniser
+{
+	private static final byte WORD  = 1;
+	private static final byte DIGIT = 2;
+	private static final byte[] ASCII = new byte[128];
+
+	static
+	{
+		for ( char c = 'a'; c <= 'z'; c++ )
+		{
+			ASCII[c] = WORD;
+			ASCII[Character.toUpperCase( c )] = WORD;
+		}
+		for ( char c = '0'; c <= '9'; c++ )
+		{
+			ASCII[c] = WORD | DIGIT;
+		}
+		ASCII['_'] = WORD;
+	}
+
+	@Override
+	public String[] tokenise( String sentence )
+	{
+		if ( sentence.isEmpty() )
+		{
+			return null;
+		}
+
+		SpanList tokens = new SpanList( sentence.length() / 4 );
+		tokenise( sentence, 0, sentence.length(), tokens );
+
+		return tokens.toStrings( sentence );
+	}
+
+	/**
+	 * Reports the [start, end) offsets of every token found in text[from, to) to the
+	 * sink, splitting contractions the same way SimpleTokeniser does.
+	 */
+	@Override
+	public void tokenise( CharSequence text, int from, int to, SpanSink tokens )
+	{
+		int p = from;
+
+		while ( p < to )
+		{
+			if ( !isBoundary( text, p, from, to ) )
+			{
+				p++;
+				continue;
+			}
+
+			int end = scanToken( text, p, from, to, true );
+			if ( end < 0 )
+			{
+				p++;
+				continue;
+			}
+
+			addToken( text, p, end, tokens );
+			p = end;
+		}
+	}
+
+	@Override
+	public boolean match( String text, String searchToken )
+	{
+		String lowerText = text.toLowerCase();
+		String lowerToken = searchToken.toLowerCase();
+		int length = lowerText.length();
+		int tokenLength = lowerToken.length();
+		int p = 0;
+
+		while ( p < length )
+		{
+			int end = isBoundary( lowerText, p, 0, length ) ? scanToken( lowerText, p, 0, length, false ) : -1;
+			if ( end < 0 )
+			{
+				p++;
+				continue;
+			}
+
+			if ( end - p == tokenLength && lowerText.regionMatches( p, lowerToken, 0, tokenLength ) )
+			{
+				return true;
+			}
+			p = end;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the end of the token starting at the word boundary p, or -1 if no token
+	 * starts there. The alternatives are tried in the same order as in the regex:
+	 * decimals and abbreviations, apostrophes, dates, then hyphened or plain words.
+	 * Hyphened words are only part of the tokenising pattern, not the matching one.
+	 */
+	private int scanToken( CharSequence text, int p, int from, int to, boolean hyphens )
+	{
+		int run = skipWord( text, p, to );
+
+		// Decimals and abbreviations: [\w$£]*\.\w+\.?
+		int q = run;
+		char c;
+		while ( q < to && ( isWord( c = text.charAt( q ) ) || c == '$' || c == '£' ) )
+		{
+			q++;
+		}
+		if ( q < to && text.charAt( q ) == '.' )
+		{
+			int k = skipWord( text, q + 1, to );
+			if ( k > q + 1 )
+			{
+				return ( k < to && text.charAt( k ) == '.' ) ? k + 1 : k;
+			}
+		}
+
+		if ( run == p )
+		{
+			return -1;
+		}
+
+		c = ( run < to ) ? text.charAt( run ) : 0;
+
+		// Apostrophes: \w+'\w+\b
+		if ( c == '\'' )
+		{
+			int k = skipWord( text, run + 1, to );
+			if ( k > run + 1 && isBoundary( text, k, from, to ) )
+			{
+				return k;
+			}
+		}
+
+		// Dates: \d+/\d+/\d+\b
+		if ( c == '/' && skipDigits( text, p, to ) == run )
+		{
+			int k = skipDigits( text, run + 1, to );
+			if ( k > run + 1 && k < to && text.charAt( k ) == '/' )
+			{
+				int m = skipDigits( text, k + 1, to );
+				if ( m > k + 1 && isBoundary( text, m, from, to ) )
+				{
+					return m;
+				}
+			}
+		}
+
+		if ( hyphens )
+		{
+			// Hyphened words: \w+(?:[-–]\w+)*
+			while ( run + 1 < to && ( ( c = text.charAt( run ) ) == '-' || c == '–' ) && isWord( text.charAt( run + 1 ) ) )
+			{
+				run = skipWord( text, run + 1, to );
+			}
+
+			return run;
+		}
+
+		// Plain words: \w+\b
+		return isBoundary( text, run, from, to ) ? run : -1;
+	}
+
+	private void addToken( CharSequence text, int start, int end, SpanSink tokens )
+	{
+		int loc = start;
+		while ( loc < end && text.charAt( loc ) != '\'' )
+		{
+			loc++;
+		}
+
+		if ( loc == end )
+		{
+			tokens.span( text, start, end );
+		}
+		else if ( end - loc == 2 && text.charAt( loc + 1 ) == 's' )
+		{
+			// Heuristic warning: 's is assumed to be a conjugated noun and is removed
+			tokens.span( text, start, loc );
+		}
+		else if ( end - loc == 2 && text.charAt( loc + 1 ) == 't' )
+		{
+			// The character before the apostrophe becomes a part of the second token
+			tokens.span( text, start, loc - 1 );
+			tokens.span( text, loc - 1, end );
+		}
+		else
+		{
+			tokens.span( text, start, loc );
+			tokens.span( text, loc, end );
+		}
+	}
+
+	private static boolean isWord( char c )
+	{
+		return c < 128 && ( ASCII[c] & WORD ) != 0;
+	}
+
+	private static int skipWord( CharSequence text, int p, int to )
+	{
+		while ( p < to && isWord( text.charAt( p ) ) )
+		{
+			p++;
+		}
+		return p;
+	}
+
+	private static int skipDigits( CharSequence text, int p, int to )
+	{
+		char c;
+		while ( p < to && ( c = text.charAt( p ) ) < 128 && ( ASCII[c] & DIGIT ) != 0 )
+		{
+			p++;
+		}
+		return p;
+	}
+
+	private static boolean isBoundary( CharSequence text, int p, int from, int to )
+	{
+		boolean left = ( p > from ) && isBoundaryWordBefore( text, p, from );
+		boolean right = ( p < to ) && isBoundaryWordAt( text, p, from );
+		return left ^ right;
+	}
+
+	// Word characters as seen by \b, i.e. '_', letters and digits, and non spacing
+	// marks that follow a letter or digit.
+	private static boolean isBoundaryWordAt( CharSequence text, int p, int from )
+	{
+		char c = text.charAt( p );
+		if ( c < 128 )
+		{
+			return ( ASCII[c] & WORD ) != 0;
+		}
+
+		int cp = Character.codePointAt( text, p );
+		return Character.isLetterOrDigit( cp ) || ( Character.getType( cp ) == Character.NON_SPACING_MARK && hasBaseCharacter( text, p, from ) );
+	}
+
+	private static boolean isBoundaryWordBefore( CharSequence text, int p, int from )
+	{
+		char c = text.charAt( p - 1 );
+		if ( c < 128 )
+		{
+			return ( ASCII[c] & WORD ) != 0;
+		}
+
+		int cp = Character.codePointBefore( text, p );
+		return Character.isLetterOrDigit( cp ) || ( Character.getType( cp ) == Character.NON_SPACING_MARK && hasBaseCharacter( text, p - 1, from ) );
+	}
+
+	private static boolean hasBaseCharacter( CharSequence text, int p, int from )
+	{
+		for ( int i = p; i >= from; i-- )
+		{
+			int cp = Character.codePointAt( text, i );
+			if ( Character.isLetterOrDigit( cp ) )
+			{
+				return true;
+			}
+			if ( Character.getType( cp ) != Character.NON_SPACING_MARK )
+			{
+				return false;
+			}
+		}
+		return false;
+	}
+}
@@ -8,6 +8,7 @@ import java.util.regex.Pattern;
 public class SimpleAnalyser implements SentenceAnalyser
 {
 	private static String regexBoundary = "\\.+((?=[\"\\]\\}\\)\\'\\s]))|\\.\\z|[!?]+|\\z";
+	private static Pattern pattern = Pattern.compile( regexBoundary );
 
 	@Override
 	public String[] detectSentences( String text )
@@ -19,7 +20,6 @@ public class SimpleAnalyser implements SentenceAnalyser
 
 		List<String> sentences = new ArrayList<String>();
 
-		Pattern pattern = Pattern.compile( regexBoundary );
 		Matcher matcher = pattern.matcher( text );
 
 		int prevEnd = 0;
@@ -36,8 +36,9 @@ public class SimpleAnalyser implements SentenceAnalyser
 			// to where a match was found
 			String sentence = text.substring( prevEnd, matcher.start() );
 
-			// Remove unwanted newlines and leading/trailing whitespace
-			sentence = sentence.replaceAll( "\\n+|^\\s|\\s$", "" );
+			// Remove unwanted newlines and leading/trailing whitespace. A line break between
+			// two words separates them, so it becomes a space rather than being dropped.
+			sentence = sentence.replaceAll( "(?<=\\S)\\n+(?=\\S)", " " ).replaceAll( "\\n+|^\\s|\\s$", "" );
 			if ( sentence.isEmpty() )
 			{
 				continue;
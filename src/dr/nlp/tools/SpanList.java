@@ -0,0 +1,80 @@
+package dr.nlp.tools;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of [start, end) character offsets, stored as packed ints so that
+ * it can be reused between calls without allocating. As a SpanSink it collects spans
+ * over a single text; the text passed with each span isn't kept.
+ */
+public class SpanList implements SpanSink
+{
+	private int[] spans;
+	private int size;
+
+	public SpanList()
+	{
+		this( 64 );
+	}
+
+	public SpanList( int capacity )
+	{
+		spans = new int[Math.max( 2, capacity * 2 )];
+		size = 0;
+	}
+
+	public void add( int start, int end )
+	{
+		if ( size * 2 == spans.length )
+		{
+			spans = Arrays.copyOf( spans, spans.length * 2 );
+		}
+
+		spans[size * 2] = start;
+		spans[size * 2 + 1] = end;
+		size++;
+	}
+
+	@Override
+	public void span( CharSequence text, int start, int end )
+	{
+		add( start, end );
+	}
+
+	public int start( int index )
+	{
+		return spans[index * 2];
+	}
+
+	public int end( int index )
+	{
+		return spans[index * 2 + 1];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	public String[] toStrings( CharSequence text )
+	{
+		String[] strings = new String[size];
+
+		for ( int i = 0; i < size; i++ )
+		{
+			strings[i] = text.subSequence( start( i ), end( i ) ).toString();
+		}
+
+		return strings;
+	}
+}
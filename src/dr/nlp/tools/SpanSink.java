@@ -0,0 +1,11 @@
+package dr.nlp.tools;
+
+/**
+ * Receives the spans found by a streaming analyser or tokeniser. Each span is reported
+ * as the [start, end) offsets into the text it was found in, which is normally the text
+ * handed to the analyser, so nothing is copied unless the sink asks for it.
+ */
+public interface SpanSink
+{
+	public void span( CharSequence text, int start, int end );
+}
@@ -0,0 +1,60 @@
+package dr.nlp.tools;
+
+/**
+ * Adapts the String based analysers and tokenisers to the streaming interfaces. One that
+ * already streams is returned as it is; any other is run on a copy of the text and each
+ * string it returns is reported as a span over that string itself.
+ */
+public class StreamingAdapters
+{
+	private StreamingAdapters()
+	{
+	}
+
+	public static StreamingSentenceAnalyser adapt( final SentenceAnalyser analyser )
+	{
+		if ( analyser instanceof StreamingSentenceAnalyser )
+		{
+			return (StreamingSentenceAnalyser) analyser;
+		}
+
+		return new StreamingSentenceAnalyser()
+		{
+			@Override
+			public void detectSentences( CharSequence text, int from, int to, SpanSink sentences )
+			{
+				report( analyser.detectSentences( text.subSequence( from, to ).toString() ), sentences );
+			}
+		};
+	}
+
+	public static StreamingTokeniser adapt( final Tokeniser tokeniser )
+	{
+		if ( tokeniser instanceof StreamingTokeniser )
+		{
+			return (StreamingTokeniser) tokeniser;
+		}
+
+		return new StreamingTokeniser()
+		{
+			@Override
+			public void tokenise( CharSequence text, int from, int to, SpanSink tokens )
+			{
+				report( tokeniser.tokenise( text.subSequence( from, to ).toString() ), tokens );
+			}
+		};
+	}
+
+	private static void report( String[] strings, SpanSink sink )
+	{
+		if ( strings == null )
+		{
+			return;
+		}
+
+		for ( String s : strings )
+		{
+			sink.span( s, 0, s.length() );
+		}
+	}
+}
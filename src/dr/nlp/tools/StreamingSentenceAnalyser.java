@@ -0,0 +1,11 @@
+package dr.nlp.tools;
+
+/**
+ * A SentenceAnalyser which reports the sentences of text[from, to) to a sink as spans
+ * instead of returning them as strings. See StreamingAdapters for using an analyser that
+ * only has the String interface.
+ */
+public interface StreamingSentenceAnalyser
+{
+	public void detectSentences( CharSequence text, int from, int to, SpanSink sentences );
+}
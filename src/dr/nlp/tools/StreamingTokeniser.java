@@ -0,0 +1,11 @@
+package dr.nlp.tools;
+
+/**
+ * A Tokeniser which reports the tokens of text[from, to) to a sink as spans instead of
+ * returning them as strings. See StreamingAdapters for using a tokeniser that only has
+ * the String interface.
+ */
+public interface StreamingTokeniser
+{
+	public void tokenise( CharSequence text, int from, int to, SpanSink tokens );
+}
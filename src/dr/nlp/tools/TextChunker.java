@@ -0,0 +1,76 @@
+package dr.nlp.tools;
+
+import java.util.Arrays;
+
+/**
+ * Splits a document into chunks of roughly a given size, cutting only at places where
+ * the sentence analyser is guaranteed to find a sentence boundary. That way analysing
+ * the chunks separately gives the same sentences as analysing the whole document.
+ *
+ * A safe place is directly after a single terminator (. ! or ?) which follows a non
+ * whitespace character and is itself followed by whitespace.
+ */
+public class TextChunker
+{
+	/**
+	 * Returns the chunk offsets, starting with 0 and ending with the text length, so
+	 * that chunk i spans [offsets[i], offsets[i + 1]).
+	 */
+	public static int[] findChunkBoundaries( CharSequence text, int chunkSize )
+	{
+		int length = text.length();
+		int[] boundaries = new int[2 + length / Math.max( 1, chunkSize )];
+		int count = 0;
+		boundaries[count++] = 0;
+
+		for ( int start = 0; start + chunkSize < length; )
+		{
+			int split = findSafeBoundary( text, start + chunkSize, length );
+			if ( split < 0 )
+			{
+				break;
+			}
+
+			if ( count == boundaries.length - 1 )
+			{
+				boundaries = Arrays.copyOf( boundaries, boundaries.length * 2 );
+			}
+			boundaries[count++] = split;
+			start = split;
+		}
+
+		boundaries[count++] = length;
+		return Arrays.copyOf( boundaries, count );
+	}
+
+	/**
+	 * Returns the first safe boundary at or after from, or -1 if there is none.
+	 */
+	public static int findSafeBoundary( CharSequence text, int from, int length )
+	{
+		for ( int i = Math.max( from, 2 ); i < length; i++ )
+		{
+			if ( isWhitespace( text.charAt( i ) ) && isTerminator( text.charAt( i - 1 ) ) )
+			{
+				char before = text.charAt( i - 2 );
+				if ( !isTerminator( before ) && !isWhitespace( before ) )
+				{
+					return i;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	static boolean isTerminator( char c )
+	{
+		return c == '.' || c == '!' || c == '?';
+	}
+
+	// The same characters as \s in java.util.regex
+	static boolean isWhitespace( char c )
+	{
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+}
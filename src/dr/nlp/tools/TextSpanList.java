@@ -0,0 +1,61 @@
+package dr.nlp.tools;
+
+import java.util.Arrays;
+
+/**
+ * A SpanSink which collects spans along with the text each was found in. For a streaming
+ * analyser or tokeniser that is the same text for every span, while an adapted one
+ * reports each span over a string of its own.
+ */
+public class TextSpanList implements SpanSink
+{
+	private CharSequence[] texts;
+	private SpanList spans;
+
+	public TextSpanList()
+	{
+		this( 64 );
+	}
+
+	public TextSpanList( int capacity )
+	{
+		texts = new CharSequence[Math.max( 1, capacity )];
+		spans = new SpanList( capacity );
+	}
+
+	@Override
+	public void span( CharSequence text, int start, int end )
+	{
+		if ( spans.size() == texts.length )
+		{
+			texts = Arrays.copyOf( texts, texts.length * 2 );
+		}
+		texts[spans.size()] = text;
+		spans.add( start, end );
+	}
+
+	public CharSequence text( int index )
+	{
+		return texts[index];
+	}
+
+	public int start( int index )
+	{
+		return spans.start( index );
+	}
+
+	public int end( int index )
+	{
+		return spans.end( index );
+	}
+
+	public int size()
+	{
+		return spans.size();
+	}
+
+	public void clear()
+	{
+		spans.clear();
+	}
+}
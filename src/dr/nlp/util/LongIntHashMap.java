@@ -0,0 +1,180 @@
+package dr.nlp.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long keys to primitive int values.
+ * Keys and values are kept in parallel arrays and probed linearly, so lookups
+ * neither box nor allocate. The key Long.MIN_VALUE is reserved to mark free slots.
+ */
+public class LongIntHashMap
+{
+	public static final long FREE_KEY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+	private int resizeAt;
+	private int missingValue;
+
+	public LongIntHashMap( int expectedSize, int missingValue )
+	{
+		this.missingValue = missingValue;
+		allocate( capacityFor( expectedSize ) );
+	}
+
+	public LongIntHashMap()
+	{
+		this( 16, -1 );
+	}
+
+	public int get( long key )
+	{
+		for ( int slot = slot( key ); ; slot = ( slot + 1 ) & mask )
+		{
+			long k = keys[slot];
+			if ( k == key )
+			{
+				return values[slot];
+			}
+			if ( k == FREE_KEY )
+			{
+				return missingValue;
+			}
+		}
+	}
+
+	public boolean containsKey( long key )
+	{
+		for ( int slot = slot( key ); ; slot = ( slot + 1 ) & mask )
+		{
+			long k = keys[slot];
+			if ( k == key )
+			{
+				return true;
+			}
+			if ( k == FREE_KEY )
+			{
+				return false;
+			}
+		}
+	}
+
+	public int put( long key, int value )
+	{
+		if ( key == FREE_KEY )
+		{
+			throw new IllegalArgumentException( "Reserved key: " + key );
+		}
+
+		int slot = slot( key );
+		for ( ; keys[slot] != FREE_KEY; slot = ( slot + 1 ) & mask )
+		{
+			if ( keys[slot] == key )
+			{
+				int previous = values[slot];
+				values[slot] = value;
+				return previous;
+			}
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+		if ( ++size >= resizeAt )
+		{
+			rehash( keys.length << 1 );
+		}
+
+		return missingValue;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public int getMissingValue()
+	{
+		return missingValue;
+	}
+
+	public void clear()
+	{
+		Arrays.fill( keys, FREE_KEY );
+		size = 0;
+	}
+
+	/** Number of slots in the table, for callers that need to walk or persist it. */
+	public int capacity()
+	{
+		return keys.length;
+	}
+
+	public long keyAt( int slot )
+	{
+		return keys[slot];
+	}
+
+	public int valueAt( int slot )
+	{
+		return values[slot];
+	}
+
+	/** The hash used to pick the home slot of a key. It is public so that persisted copies of the table can be probed the same way. */
+	public static int hash( long key )
+	{
+		key ^= ( key >>> 33 );
+		key *= 0xff51afd7ed558ccdL;
+		key ^= ( key >>> 33 );
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= ( key >>> 33 );
+		return (int) key;
+	}
+
+	private int slot( long key )
+	{
+		return hash( key ) & mask;
+	}
+
+	private void rehash( int capacity )
+	{
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate( capacity );
+
+		for ( int i = 0; i < oldKeys.length; i++ )
+		{
+			long key = oldKeys[i];
+			if ( key != FREE_KEY )
+			{
+				int slot = slot( key );
+				while ( keys[slot] != FREE_KEY )
+				{
+					slot = ( slot + 1 ) & mask;
+				}
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate( int capacity )
+	{
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill( keys, FREE_KEY );
+		mask = capacity - 1;
+		resizeAt = (int) ( capacity * 0.6f );
+	}
+
+	private static int capacityFor( int expectedSize )
+	{
+		int capacity = 16;
+		while ( capacity * 0.6f <= expectedSize )
+		{
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+}